@@ -0,0 +1,486 @@
+package com.codeforces.inmemo;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.iterator.TLongIntIterator;
+import gnu.trove.map.hash.TLongIntHashMap;
+import net.sf.cglib.reflect.FastMethod;
+
+import javax.annotation.Nonnull;
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongPredicate;
+
+/**
+ * Keeps item properties in column arrays addressed by a row slot: primitive properties are stored in
+ * {@code long[]} or {@code double[]} columns, {@code Date} properties as millis, the others as references. There
+ * are no item instances in the store (no object headers, boxed values and dates), an item is materialized on
+ * each {@link #get(long)}. Only the properties having both getter and setter are stored.
+ * <p>
+ * Readers don't take the table lock: they copy the column values optimistically and retry under the read lock
+ * if a write happened meanwhile, the item is materialized only from validated values.
+ * </p>
+ *
+ * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
+ */
+final class ColumnarItemStore<T extends HasId> implements ItemStore<T> {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NO_SLOT = -1;
+
+    private final Class<T> clazz;
+    private final Column[] columns;
+    private final StampedLock stampedLock = new StampedLock();
+    private final TLongIntHashMap slotById = new TLongIntHashMap(INITIAL_CAPACITY, 0.5F, 0L, NO_SLOT);
+    private final TIntList freeSlots = new TIntArrayList();
+    private int slotCount;
+    private int capacity = INITIAL_CAPACITY;
+
+    ColumnarItemStore(Class<T> clazz) {
+        this.clazz = clazz;
+
+        Map<String, FastMethod> getters = ReflectionUtil.getGettersMap(clazz);
+        Map<String, FastMethod> setters = ReflectionUtil.getSettersMap(clazz);
+
+        if (!setters.containsKey("id")) {
+            throw new InmemoException("Columnar storage requires id setter [class=" + clazz + "].");
+        }
+
+        List<Column> columnList = new ArrayList<>();
+        for (Map.Entry<String, FastMethod> getterEntry : getters.entrySet()) {
+            FastMethod getter = getterEntry.getValue();
+            FastMethod setter = setters.get(getterEntry.getKey());
+            Class<?> type = getter.getReturnType();
+
+            if (setter == null || !setter.getParameterTypes()[0].isAssignableFrom(type)) {
+                continue;
+            }
+
+            if (type == double.class || type == float.class) {
+                columnList.add(new DoubleColumn(getter, setter, type));
+            } else if (type.isPrimitive()) {
+                columnList.add(new LongColumn(getter, setter, type));
+            } else if (type == Date.class) {
+                columnList.add(new DateColumn(getter, setter));
+            } else {
+                columnList.add(new ObjectColumn(getter, setter));
+            }
+        }
+        columns = columnList.toArray(new Column[0]);
+
+        for (Column column : columns) {
+            column.resize(capacity);
+        }
+    }
+
+    @Override
+    public T put(@Nonnull T item) {
+        long stamp = stampedLock.writeLock();
+        try {
+            int slot = slotById.get(item.getId());
+            T previousItem = null;
+
+            if (slot == NO_SLOT) {
+                slot = allocateSlot();
+                slotById.put(item.getId(), slot);
+            } else {
+                previousItem = materialize(readValues(slot));
+            }
+
+            for (Column column : columns) {
+                column.write(slot, invoke(column.getter, item));
+            }
+
+            return previousItem;
+        } finally {
+            stampedLock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public T remove(long id) {
+        long stamp = stampedLock.writeLock();
+        try {
+            int slot = slotById.remove(id);
+            if (slot == NO_SLOT) {
+                return null;
+            }
+
+            T item = materialize(readValues(slot));
+            for (Column column : columns) {
+                column.clear(slot);
+            }
+            freeSlots.add(slot);
+            return item;
+        } finally {
+            stampedLock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public T get(long id) {
+        long stamp = stampedLock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                int slot = slotById.get(id);
+                Object[] values = slot == NO_SLOT ? null : readValues(slot);
+                if (stampedLock.validate(stamp)) {
+                    return values == null ? null : materialize(values);
+                }
+            } catch (RuntimeException ignored) {
+                // Inconsistent state has been read, retry under the lock.
+            }
+        }
+
+        Object[] values;
+        stamp = stampedLock.readLock();
+        try {
+            int slot = slotById.get(id);
+            values = slot == NO_SLOT ? null : readValues(slot);
+        } finally {
+            stampedLock.unlockRead(stamp);
+        }
+        return values == null ? null : materialize(values);
+    }
+
+    @Override
+    public int size() {
+        return slotById.size();
+    }
+
+    @Override
+    public long[] ids() {
+        return slotById.keys();
+    }
+
+    @Override
+    public int walkIds(int slot, int rounds, @Nonnull LongPredicate visitor) {
+        return ItemStore.walkIds(slotById._set, slotById._states, slot, rounds, visitor);
+    }
+
+    @Override
+    public boolean isDetached() {
+        return true;
+    }
+
+    @Override
+    public long getOverheadBytes() {
+        long result = MemoryEstimator.troveHashBytes(slotById.capacity(), Long.BYTES, Integer.BYTES)
+                + MemoryEstimator.align(MemoryEstimator.ARRAY_HEADER_BYTES + (long) freeSlots.size() * Integer.BYTES);
+        for (Column column : columns) {
+            result += column.getArrayBytes(capacity);
+        }
+        return result;
+    }
+
+    @Override
+    public long estimatePayloadBytes(int sampleSize) {
+        int sampled = 0;
+        long sampledBytes = 0;
+        for (TLongIntIterator i = slotById.iterator(); i.hasNext() && sampled < sampleSize; sampled++) {
+            i.advance();
+            for (Column column : columns) {
+                sampledBytes += column.getValueBytes(i.value());
+            }
+        }
+        return sampled == 0 ? 0 : sampledBytes * slotById.size() / sampled;
+    }
+
+    @Override
+    public long getPayloadBytes(long id) {
+        int slot = slotById.get(id);
+        if (slot == NO_SLOT) {
+            return 0;
+        }
+
+        long result = 0;
+        for (Column column : columns) {
+            result += column.getValueBytes(slot);
+        }
+        return result;
+    }
+
+    @Override
+    public long getOffHeapBytes() {
+        return 0;
+    }
+
+    private int allocateSlot() {
+        if (!freeSlots.isEmpty()) {
+            return freeSlots.removeAt(freeSlots.size() - 1);
+        }
+
+        if (slotCount == capacity) {
+            capacity = capacity * 2;
+            for (Column column : columns) {
+                column.resize(capacity);
+            }
+        }
+
+        return slotCount++;
+    }
+
+    /**
+     * @return Values of the slot, one per column. The setters are never called on the values which may be torn.
+     */
+    private Object[] readValues(int slot) {
+        Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = columns[i].read(slot);
+        }
+        return values;
+    }
+
+    private T materialize(Object[] values) {
+        T item = ReflectionUtil.newInstance(clazz);
+        for (int i = 0; i < columns.length; i++) {
+            try {
+                columns[i].setter.invoke(item, new Object[]{values[i]});
+            } catch (InvocationTargetException e) {
+                throw new InmemoException("Can't materialize item [class=" + clazz
+                        + ", method=" + columns[i].setter.getName() + "].", e);
+            }
+        }
+        return item;
+    }
+
+    private Object invoke(FastMethod getter, T item) {
+        try {
+            return getter.invoke(item, new Object[]{});
+        } catch (InvocationTargetException e) {
+            throw new InmemoException("Can't store item [class=" + clazz
+                    + ", method=" + getter.getName() + "].", e);
+        }
+    }
+
+    private abstract static class Column {
+        private final FastMethod getter;
+        private final FastMethod setter;
+
+        private Column(FastMethod getter, FastMethod setter) {
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        abstract void resize(int capacity);
+
+        abstract void write(int slot, Object value);
+
+        abstract Object read(int slot);
+
+        /**
+         * Releases the value in the slot.
+         */
+        void clear(int slot) {
+            // No operations.
+        }
+
+        /**
+         * @return Heap bytes of the column arrays.
+         */
+        long getArrayBytes(int capacity) {
+            return MemoryEstimator.align(MemoryEstimator.ARRAY_HEADER_BYTES + (long) capacity * Long.BYTES);
+        }
+
+        /**
+         * @return Heap bytes of the value in the slot beyond the column arrays.
+         */
+        long getValueBytes(int slot) {
+            return 0;
+        }
+    }
+
+    /**
+     * All the primitive types except floating point ones.
+     */
+    private static final class LongColumn extends Column {
+        private final Class<?> type;
+        private long[] values = new long[0];
+
+        private LongColumn(FastMethod getter, FastMethod setter, Class<?> type) {
+            super(getter, setter);
+            this.type = type;
+        }
+
+        @Override
+        void resize(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void write(int slot, Object value) {
+            if (value instanceof Boolean) {
+                values[slot] = (Boolean) value ? 1L : 0L;
+            } else if (value instanceof Character) {
+                values[slot] = (Character) value;
+            } else {
+                values[slot] = ((Number) value).longValue();
+            }
+        }
+
+        @Override
+        Object read(int slot) {
+            long value = values[slot];
+            if (type == long.class) {
+                return value;
+            } else if (type == int.class) {
+                return (int) value;
+            } else if (type == boolean.class) {
+                return value != 0L;
+            } else if (type == short.class) {
+                return (short) value;
+            } else if (type == byte.class) {
+                return (byte) value;
+            } else {
+                return (char) value;
+            }
+        }
+    }
+
+    private static final class DoubleColumn extends Column {
+        private final Class<?> type;
+        private double[] values = new double[0];
+
+        private DoubleColumn(FastMethod getter, FastMethod setter, Class<?> type) {
+            super(getter, setter);
+            this.type = type;
+        }
+
+        @Override
+        void resize(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void write(int slot, Object value) {
+            values[slot] = ((Number) value).doubleValue();
+        }
+
+        @Override
+        Object read(int slot) {
+            return type == double.class ? (Object) values[slot] : (Object) (float) values[slot];
+        }
+    }
+
+    /**
+     * Properties of type {@code java.util.Date}: values are stored as millis (and nanos for {@code Timestamp}) and
+     * materialized as the class of the first value stored in the column, so the values read from the database
+     * stay {@code Timestamp}. Other subclasses than {@code Timestamp}, {@code java.sql.Date} and
+     * {@code java.sql.Time} are materialized as {@code java.util.Date}.
+     */
+    private static final class DateColumn extends Column {
+        private long[] millis = new long[0];
+        private int[] nanos;
+        private final BitSet nulls = new BitSet();
+        private Class<?> type;
+
+        private DateColumn(FastMethod getter, FastMethod setter) {
+            super(getter, setter);
+        }
+
+        @Override
+        void resize(int capacity) {
+            millis = Arrays.copyOf(millis, capacity);
+            if (nanos != null) {
+                nanos = Arrays.copyOf(nanos, capacity);
+            }
+        }
+
+        @Override
+        void write(int slot, Object value) {
+            if (value == null) {
+                nulls.set(slot);
+                return;
+            }
+
+            Date date = (Date) value;
+            if (type == null) {
+                if (date instanceof Timestamp) {
+                    nanos = new int[millis.length];
+                }
+                type = date.getClass();
+            }
+
+            nulls.clear(slot);
+            millis[slot] = date.getTime();
+            if (nanos != null) {
+                nanos[slot] = date instanceof Timestamp ? ((Timestamp) date).getNanos()
+                        : (int) Math.floorMod(date.getTime(), 1000L) * 1_000_000;
+            }
+        }
+
+        @Override
+        Object read(int slot) {
+            if (nulls.get(slot)) {
+                return null;
+            }
+
+            long value = millis[slot];
+            if (type == Timestamp.class) {
+                Timestamp timestamp = new Timestamp(value);
+                timestamp.setNanos(nanos[slot]);
+                return timestamp;
+            } else if (type == java.sql.Date.class) {
+                return new java.sql.Date(value);
+            } else if (type == java.sql.Time.class) {
+                return new java.sql.Time(value);
+            } else {
+                return new Date(value);
+            }
+        }
+
+        @Override
+        long getArrayBytes(int capacity) {
+            long result = super.getArrayBytes(capacity) + nulls.size() / Byte.SIZE;
+            if (nanos != null) {
+                result += MemoryEstimator.align(MemoryEstimator.ARRAY_HEADER_BYTES + (long) capacity * Integer.BYTES);
+            }
+            return result;
+        }
+    }
+
+    private static final class ObjectColumn extends Column {
+        private Object[] values = new Object[0];
+
+        private ObjectColumn(FastMethod getter, FastMethod setter) {
+            super(getter, setter);
+        }
+
+        @Override
+        void resize(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void write(int slot, Object value) {
+            values[slot] = value;
+        }
+
+        @Override
+        Object read(int slot) {
+            return values[slot];
+        }
+
+        @Override
+        long getArrayBytes(int capacity) {
+            return MemoryEstimator.align(MemoryEstimator.ARRAY_HEADER_BYTES
+                    + (long) capacity * MemoryEstimator.REFERENCE_BYTES);
+        }
+
+        @Override
+        void clear(int slot) {
+            values[slot] = null;
+        }
+
+        @Override
+        long getValueBytes(int slot) {
+            return MemoryEstimator.sizeOf(values[slot]);
+        }
+    }
+}
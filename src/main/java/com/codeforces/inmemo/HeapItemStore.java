@@ -0,0 +1,78 @@
+package com.codeforces.inmemo;
+
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import javax.annotation.Nonnull;
+import java.util.function.LongPredicate;
+
+/**
+ * Default store: keeps the item instances themselves.
+ *
+ * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
+ */
+final class HeapItemStore<T extends HasId> implements ItemStore<T> {
+    private final TLongObjectHashMap<T> items = new TLongObjectHashMap<>();
+
+    @Override
+    public T put(@Nonnull T item) {
+        return items.put(item.getId(), item);
+    }
+
+    @Override
+    public T remove(long id) {
+        return items.remove(id);
+    }
+
+    @Override
+    public T get(long id) {
+        return items.get(id);
+    }
+
+    @Override
+    public int size() {
+        return items.size();
+    }
+
+    @Override
+    public long[] ids() {
+        return items.keys();
+    }
+
+    @Override
+    public int walkIds(int slot, int rounds, @Nonnull LongPredicate visitor) {
+        return ItemStore.walkIds(items._set, items._states, slot, rounds, visitor);
+    }
+
+    @Override
+    public boolean isDetached() {
+        return false;
+    }
+
+    @Override
+    public long getOverheadBytes() {
+        return MemoryEstimator.troveHashBytes(items.capacity(),
+                Long.BYTES, MemoryEstimator.REFERENCE_BYTES);
+    }
+
+    @Override
+    public long estimatePayloadBytes(int sampleSize) {
+        int sampled = 0;
+        long sampledBytes = 0;
+        for (TLongObjectIterator<T> i = items.iterator(); i.hasNext() && sampled < sampleSize; sampled++) {
+            i.advance();
+            sampledBytes += MemoryEstimator.sizeOf(i.value());
+        }
+        return sampled == 0 ? 0 : sampledBytes * items.size() / sampled;
+    }
+
+    @Override
+    public long getPayloadBytes(long id) {
+        return MemoryEstimator.sizeOf(items.get(id));
+    }
+
+    @Override
+    public long getOffHeapBytes() {
+        return 0;
+    }
+}
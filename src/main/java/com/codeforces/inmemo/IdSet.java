@@ -0,0 +1,340 @@
+package com.codeforces.inmemo;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongConsumer;
+
+/**
+ * Set of item ids. Ids are split into chunks by the high 48 bits, each chunk keeps the low 16 bits either
+ * in a sorted {@code char[]} (sparse chunk) or in a 65536-bit bitmap (dense chunk, at most 8 KB for the whole
+ * chunk, i.e. 1 bit per id for dense auto-increment ids). A chunk switches its container as its cardinality
+ * crosses {@link #ARRAY_CONTAINER_MAX_SIZE}.
+ * <p>
+ * Writes are expected from a single writer (under the table lock). Readers take no table lock:
+ * {@link #size()} is a volatile read, {@link #contains(long)} reads optimistically and retries under the read
+ * lock if a write happened meanwhile.
+ * </p>
+ *
+ * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
+ */
+final class IdSet {
+    /**
+     * Sparse chunk with more ids is converted into the bitmap: both take 8 KB at this size.
+     */
+    static final int ARRAY_CONTAINER_MAX_SIZE = 4096;
+
+    private static final int CHUNK_BITS = 16;
+    private static final int BITMAP_WORDS = (1 << CHUNK_BITS) / Long.SIZE;
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final StampedLock stampedLock = new StampedLock();
+
+    // Chunk keys (id >> CHUNK_BITS) in increasing order and their containers.
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private Container[] containers = new Container[INITIAL_CAPACITY];
+    private int chunkCount;
+
+    private volatile int size;
+
+    /**
+     * @return {@code true} iff the id has not been in the set.
+     */
+    boolean add(long id) {
+        long stamp = stampedLock.writeLock();
+        try {
+            long key = id >> CHUNK_BITS;
+            int position = Arrays.binarySearch(keys, 0, chunkCount, key);
+
+            if (position < 0) {
+                position = -position - 1;
+                insertChunk(position, key, new ArrayContainer());
+            }
+
+            Container container = containers[position];
+            if (!container.add((char) id)) {
+                return false;
+            }
+
+            if (container instanceof ArrayContainer && container.size() > ARRAY_CONTAINER_MAX_SIZE) {
+                containers[position] = ((ArrayContainer) container).toBitmap();
+            }
+
+            size = size + 1;
+            return true;
+        } finally {
+            stampedLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return {@code true} iff the id has been in the set.
+     */
+    boolean remove(long id) {
+        long stamp = stampedLock.writeLock();
+        try {
+            int position = Arrays.binarySearch(keys, 0, chunkCount, id >> CHUNK_BITS);
+            if (position < 0) {
+                return false;
+            }
+
+            Container container = containers[position];
+            if (!container.remove((char) id)) {
+                return false;
+            }
+
+            if (container.size() == 0) {
+                removeChunk(position);
+            } else if (container instanceof BitmapContainer && container.size() <= ARRAY_CONTAINER_MAX_SIZE / 2) {
+                // Half of the threshold to avoid flipping the container on each add/remove at the border.
+                containers[position] = ((BitmapContainer) container).toArray();
+            }
+
+            size = size - 1;
+            return true;
+        } finally {
+            stampedLock.unlockWrite(stamp);
+        }
+    }
+
+    boolean contains(long id) {
+        long stamp = stampedLock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                boolean result = internalContains(id);
+                if (stampedLock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException ignored) {
+                // Inconsistent state has been read, retry under the lock.
+            }
+        }
+
+        stamp = stampedLock.readLock();
+        try {
+            return internalContains(id);
+        } finally {
+            stampedLock.unlockRead(stamp);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return All the ids in increasing order.
+     */
+    long[] toArray() {
+        long stamp = stampedLock.readLock();
+        try {
+            long[] result = new long[size];
+            int[] count = {0};
+            internalForEach(id -> result[count[0]++] = id);
+            return result;
+        } finally {
+            stampedLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Passes the ids in increasing order. The set is read locked meanwhile, so the consumer must not write
+     * into the set.
+     */
+    void forEach(LongConsumer consumer) {
+        long stamp = stampedLock.readLock();
+        try {
+            internalForEach(consumer);
+        } finally {
+            stampedLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return Approximate number of bytes taken by the containers.
+     */
+    long getMemoryBytes() {
+        long stamp = stampedLock.readLock();
+        try {
+            long result = (long) keys.length * (Long.BYTES + Integer.BYTES);
+            for (int i = 0; i < chunkCount; i++) {
+                result += containers[i].getMemoryBytes();
+            }
+            return result;
+        } finally {
+            stampedLock.unlockRead(stamp);
+        }
+    }
+
+    private boolean internalContains(long id) {
+        int position = Arrays.binarySearch(keys, 0, chunkCount, id >> CHUNK_BITS);
+        return position >= 0 && containers[position].contains((char) id);
+    }
+
+    private void internalForEach(LongConsumer consumer) {
+        for (int i = 0; i < chunkCount; i++) {
+            containers[i].forEach(keys[i] << CHUNK_BITS, consumer);
+        }
+    }
+
+    private void insertChunk(int position, long key, Container container) {
+        if (chunkCount == keys.length) {
+            keys = Arrays.copyOf(keys, chunkCount * 2);
+            containers = Arrays.copyOf(containers, chunkCount * 2);
+        }
+
+        System.arraycopy(keys, position, keys, position + 1, chunkCount - position);
+        System.arraycopy(containers, position, containers, position + 1, chunkCount - position);
+        keys[position] = key;
+        containers[position] = container;
+        chunkCount++;
+    }
+
+    private void removeChunk(int position) {
+        System.arraycopy(keys, position + 1, keys, position, chunkCount - position - 1);
+        System.arraycopy(containers, position + 1, containers, position, chunkCount - position - 1);
+        chunkCount--;
+        containers[chunkCount] = null;
+    }
+
+    private interface Container {
+        boolean add(char low);
+
+        boolean remove(char low);
+
+        boolean contains(char low);
+
+        int size();
+
+        void forEach(long base, LongConsumer consumer);
+
+        long getMemoryBytes();
+    }
+
+    private static final class ArrayContainer implements Container {
+        private char[] values = new char[INITIAL_CAPACITY];
+        private int size;
+
+        @Override
+        public boolean add(char low) {
+            // Ids mostly come in increasing order: append without search.
+            int position = size == 0 || values[size - 1] < low ? -size - 1 : Arrays.binarySearch(values, 0, size, low);
+            if (position >= 0) {
+                return false;
+            }
+
+            position = -position - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(size * 2, ARRAY_CONTAINER_MAX_SIZE + 1));
+            }
+            System.arraycopy(values, position, values, position + 1, size - position);
+            values[position] = low;
+            size++;
+            return true;
+        }
+
+        @Override
+        public boolean remove(char low) {
+            int position = Arrays.binarySearch(values, 0, size, low);
+            if (position < 0) {
+                return false;
+            }
+
+            System.arraycopy(values, position + 1, values, position, size - position - 1);
+            size--;
+            return true;
+        }
+
+        @Override
+        public boolean contains(char low) {
+            return Arrays.binarySearch(values, 0, size, low) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void forEach(long base, LongConsumer consumer) {
+            for (int i = 0; i < size; i++) {
+                consumer.accept(base | values[i]);
+            }
+        }
+
+        @Override
+        public long getMemoryBytes() {
+            return (long) values.length * Character.BYTES;
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < size; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer implements Container {
+        private final long[] words = new long[BITMAP_WORDS];
+        private int size;
+
+        @Override
+        public boolean add(char low) {
+            long word = words[low >>> 6];
+            long bit = 1L << low;
+            if ((word & bit) != 0) {
+                return false;
+            }
+
+            words[low >>> 6] = word | bit;
+            size++;
+            return true;
+        }
+
+        @Override
+        public boolean remove(char low) {
+            long word = words[low >>> 6];
+            long bit = 1L << low;
+            if ((word & bit) == 0) {
+                return false;
+            }
+
+            words[low >>> 6] = word & ~bit;
+            size--;
+            return true;
+        }
+
+        @Override
+        public boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void forEach(long base, LongConsumer consumer) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    consumer.accept(base | ((long) i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        public long getMemoryBytes() {
+            return (long) BITMAP_WORDS * Long.BYTES;
+        }
+
+        private ArrayContainer toArray() {
+            ArrayContainer array = new ArrayContainer();
+            forEach(0, id -> array.add((char) id));
+            return array;
+        }
+    }
+}
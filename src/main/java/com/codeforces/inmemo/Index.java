@@ -23,14 +23,18 @@ public class Index<T extends HasId, V> {
 
     private static final Object NULL = new Object();
 
+    private static final long BUCKET_SHALLOW_BYTES = MemoryEstimator.shallowSizeOf(TLongObjectHashMap.class);
+
     private final String name;
     private final IndexGetter<T, V> indexGetter;
 
     // Actually, it has type ConcurrentMap<V, Map<Long, T>> but can't be used because of non-null keys in ConcurrentHashMap.
+    // Values of the inner maps are null if the table store is detached.
     private final ConcurrentMap<Object, TLongObjectMap<T>> map;
 
     // Actually, it has type ConcurrentMap<V, >> but can't be used because of non-null keys in ConcurrentHashMap.
-    private final ConcurrentMap<Object, T> uniqueMap;
+    // Values are items or item ids (Long) if the table store is detached.
+    private final ConcurrentMap<Object, Object> uniqueMap;
 
     private final EmergencyDatabaseHelper<V> emergencyDatabaseHelper;
 
@@ -39,8 +43,26 @@ public class Index<T extends HasId, V> {
 
     private Table<T> table;
 
+    // {@code true} iff the index keeps only item ids and gets items from the table.
+    private boolean detached;
+
     private final Class<?> indexClass;
 
+    // {@code false} while the index is being built on a live table, queries are rejected.
+    private volatile boolean ready = true;
+
+    // The first duplicate of a unique index met while it is not ready, fails the build instead of the writer.
+    private volatile InmemoException buildViolation;
+
+    // {@code true} iff the index value of each item has been its id, so a miss can be looked up by id.
+    private volatile boolean idValued = true;
+
+    // Memory counters, written by the single index writer and read by getMemoryStats without the lock.
+    private volatile long valueCount;
+    private volatile long itemCount;
+    private volatile long keyBytes;
+    private volatile long bucketBytes;
+
     private Index(
             String name,
             Class<V> indexClass,
@@ -94,15 +116,43 @@ public class Index<T extends HasId, V> {
 
     void setTable(Table<T> table) {
         this.table = table;
+        this.detached = table.isDetachedItemStore();
+    }
+
+    boolean isReady() {
+        return ready;
+    }
+
+    void setReady(boolean ready) {
+        this.ready = ready;
+    }
+
+    /**
+     * @return Duplicate value found in the unique index while it was being built, {@code null} if none.
+     */
+    InmemoException getBuildViolation() {
+        return buildViolation;
     }
 
     private Object wrapValue(V value) {
         return value == null ? NULL : value;
     }
 
-    void insertOrUpdate(@Nonnull T tableItem) {
+    /**
+     * @param replacedTableItem Item with the same id which is replaced by {@code tableItem}, if any. It is
+     *                          removed from its bucket if the index value has been changed.
+     * @param tableItem         Item to store.
+     */
+    void insertOrUpdate(@Nullable T replacedTableItem, @Nonnull T tableItem) {
         Object value = wrapValue(indexGetter.get(tableItem));
 
+        if (replacedTableItem != null) {
+            Object replacedValue = wrapValue(indexGetter.get(replacedTableItem));
+            if (!replacedValue.equals(value)) {
+                remove(replacedValue, replacedTableItem);
+            }
+        }
+
         if (value != NULL && value.getClass() != indexClass) {
             logger.info("Item of " + tableItem.getClass() + " is invalid for index '"
                     + table.getClazz().getName() + '#' + name + "'.");
@@ -110,24 +160,142 @@ public class Index<T extends HasId, V> {
 
         if (unique) {
             assert uniqueMap != null;
-            T previousTableItem = uniqueMap.get(value);
+            if (idValued && !(value instanceof Long && (Long) value == tableItem.getId())) {
+                idValued = false;
+            }
+
+            Object previousTableItem = uniqueMap.get(value);
             if (previousTableItem != null
-                    && previousTableItem.getId() != tableItem.getId()) {
-                throw new InmemoException("Index `" + name
+                    && storedId(previousTableItem) != tableItem.getId()) {
+                InmemoException violation = new InmemoException("Index `" + name
                         + "` expected to be unique but it has multiple items for value="
                         + value + " [previousTableItem=" + previousTableItem + ", newTableItem=" + tableItem + "].");
+                if (ready) {
+                    throw violation;
+                }
+
+                // The build will fail and drop the index, the writer goes on.
+                if (buildViolation == null) {
+                    buildViolation = violation;
+                }
+                return;
             }
 
-            uniqueMap.put(value, tableItem);
+            uniqueMap.put(value, detached ? (Object) tableItem.getId() : tableItem);
+            if (previousTableItem == null) {
+                valueCount = valueCount + 1;
+                itemCount = itemCount + 1;
+                keyBytes = keyBytes + getKeyBytes(value);
+            }
         } else {
             assert map != null;
-            if (!map.containsKey(value)) {
-                //map.putIfAbsent(value, new ConcurrentHashMap<>());
-                map.putIfAbsent(value, new TLongObjectHashMap<>(1));
+            TLongObjectMap<T> valueMap = map.get(value);
+            if (valueMap == null) {
+                valueMap = new TLongObjectHashMap<>(1);
+                map.put(value, valueMap);
+                valueCount = valueCount + 1;
+                keyBytes = keyBytes + getKeyBytes(value);
+                bucketBytes = bucketBytes + BUCKET_SHALLOW_BYTES + getBucketArraysBytes(valueMap);
             }
 
-            map.get(value).put(tableItem.getId(), tableItem);
+            int size = valueMap.size();
+            long bytes = getBucketArraysBytes(valueMap);
+            valueMap.put(tableItem.getId(), detached ? null : tableItem);
+            itemCount = itemCount + valueMap.size() - size;
+            bucketBytes = bucketBytes + getBucketArraysBytes(valueMap) - bytes;
+        }
+    }
+
+    /**
+     * Removes the item from the index.
+     */
+    void delete(@Nonnull T tableItem) {
+        remove(wrapValue(indexGetter.get(tableItem)), tableItem);
+    }
+
+    private void remove(Object value, T tableItem) {
+        if (unique) {
+            assert uniqueMap != null;
+            Object storedTableItem = uniqueMap.get(value);
+            if (storedTableItem != null && storedId(storedTableItem) == tableItem.getId()
+                    && uniqueMap.remove(value, storedTableItem)) {
+                valueCount = valueCount - 1;
+                itemCount = itemCount - 1;
+                keyBytes = keyBytes - getKeyBytes(value);
+            }
+        } else {
+            assert map != null;
+            TLongObjectMap<T> valueMap = map.get(value);
+            if (valueMap != null) {
+                int size = valueMap.size();
+                long bytes = getBucketArraysBytes(valueMap);
+                valueMap.remove(tableItem.getId());
+                itemCount = itemCount + valueMap.size() - size;
+                bucketBytes = bucketBytes + getBucketArraysBytes(valueMap) - bytes;
+
+                if (valueMap.isEmpty() && map.remove(value, valueMap)) {
+                    valueCount = valueCount - 1;
+                    keyBytes = keyBytes - getKeyBytes(value);
+                    bucketBytes = bucketBytes - BUCKET_SHALLOW_BYTES - getBucketArraysBytes(valueMap);
+                }
+            }
+        }
+    }
+
+    private static long getKeyBytes(Object value) {
+        return value == NULL ? 0 : MemoryEstimator.sizeOf(value);
+    }
+
+    private static long getBucketArraysBytes(TLongObjectMap<?> valueMap) {
+        return MemoryEstimator.troveHashBytes(((TLongObjectHashMap<?>) valueMap).capacity(),
+                Long.BYTES, MemoryEstimator.REFERENCE_BYTES);
+    }
+
+    @SuppressWarnings("unchecked")
+    private long storedId(Object storedTableItem) {
+        return detached ? (Long) storedTableItem : ((T) storedTableItem).getId();
+    }
+
+    /**
+     * @return Item stored in the unique index for the value or {@code null}.
+     */
+    @SuppressWarnings("unchecked")
+    private T getUniqueItem(Object wrappedValue) {
+        assert uniqueMap != null;
+        Object storedTableItem = uniqueMap.get(wrappedValue);
+
+        if (storedTableItem == null || !detached) {
+            return (T) storedTableItem;
         }
+
+        return getActualItem((Long) storedTableItem, wrappedValue);
+    }
+
+    /**
+     * @return Items of the bucket, materialized if the table store is detached.
+     */
+    private Collection<T> getBucketItems(TLongObjectMap<T> valueMap, Object wrappedValue) {
+        if (!detached) {
+            return values(valueMap);
+        }
+
+        long[] ids = valueMap.keys();
+        List<T> result = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            T tableItem = getActualItem(id, wrappedValue);
+            if (tableItem != null) {
+                result.add(tableItem);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The item may have been changed after the index has been read, so its value is checked again.
+     */
+    private T getActualItem(long id, Object wrappedValue) {
+        T tableItem = table.getItem(id);
+        return tableItem != null && wrappedValue.equals(wrapValue(indexGetter.get(tableItem))) ? tableItem : null;
     }
 
     private List<T> internalFind(V value, Matcher<T> matcher) {
@@ -156,7 +324,7 @@ public class Index<T extends HasId, V> {
 
         Collection<T> tableItems = (valueMap == null || valueMap.isEmpty())
                 ? table.findAndUpdateByEmergencyQueryFields(emergencyDatabaseHelper.getEmergencyQueryFields(value))
-                : values(valueMap);
+                : getBucketItems(valueMap, wrappedValue);
 
         List<T> result = new ArrayList<>(tableItems.size());
 
@@ -187,8 +355,11 @@ public class Index<T extends HasId, V> {
         Object wrappedValue = wrapValue(value);
 
         if (unique) {
-            assert uniqueMap != null;
-            T tableItem = uniqueMap.get(wrappedValue);
+            T tableItem = getUniqueItem(wrappedValue);
+
+            if (tableItem == null && idValued && value instanceof Long) {
+                tableItem = table.faultIn((Long) value);
+            }
 
             if (tableItem == null && emergencyDatabaseHelper != null) {
                 List<T> items = table.findAndUpdateByEmergencyQueryFields(
@@ -221,7 +392,7 @@ public class Index<T extends HasId, V> {
 
             Collection<T> tableItems = (valueMap == null || valueMap.isEmpty())
                     ? table.findAndUpdateByEmergencyQueryFields(emergencyDatabaseHelper.getEmergencyQueryFields(value))
-                    : values(valueMap);
+                    : getBucketItems(valueMap, wrappedValue);
 
             List<T> result = new ArrayList<>(2);
 
@@ -244,6 +415,50 @@ public class Index<T extends HasId, V> {
         }
     }
 
+    /**
+     * Finds items as they were at the given table version. Never queries the database: emergency items
+     * would be newer than any snapshot.
+     */
+    private List<T> internalFindAt(V value, Matcher<T> matcher, VersionLog<T> versionLog, long version) {
+        Object wrappedValue = wrapValue(value);
+        TLongObjectMap<T> versionItems = new TLongObjectHashMap<>();
+
+        Collection<T> tableItems;
+        if (unique) {
+            T tableItem = getUniqueItem(wrappedValue);
+            tableItems = tableItem == null ? Collections.emptyList() : Collections.singletonList(tableItem);
+        } else {
+            assert map != null;
+            TLongObjectMap<T> valueMap = map.get(wrappedValue);
+            tableItems = valueMap == null ? Collections.emptyList() : getBucketItems(valueMap, wrappedValue);
+        }
+
+        for (T tableItem : tableItems) {
+            T versionItem = versionLog.resolve(tableItem.getId(), tableItem, version);
+            if (versionItem != null
+                    && (versionItem == tableItem || wrappedValue.equals(wrapValue(indexGetter.get(versionItem))))) {
+                versionItems.put(versionItem.getId(), versionItem);
+            }
+        }
+
+        // Items which had the value at the version but have been moved away (or are being moved) since.
+        versionLog.forEachReplacedItem(version, versionItem -> {
+            if (!versionItems.containsKey(versionItem.getId())
+                    && wrappedValue.equals(wrapValue(indexGetter.get(versionItem)))) {
+                versionItems.put(versionItem.getId(), versionItem);
+            }
+        });
+
+        List<T> result = new ArrayList<>(versionItems.size());
+        for (T versionItem : values(versionItems)) {
+            if (matcher.match(versionItem)) {
+                result.add(versionItem);
+            }
+        }
+
+        return result;
+    }
+
     long internalFindCount(V value, Matcher<T> matcher) {
         return internalFind(value, matcher).size();
     }
@@ -267,6 +482,11 @@ public class Index<T extends HasId, V> {
         return internalFindCount((V) value, predicate);
     }
 
+    @SuppressWarnings("unchecked")
+    List<T> findAt(Object value, Matcher<T> predicate, VersionLog<T> versionLog, long version) {
+        return internalFindAt((V) value, predicate, versionLog, version);
+    }
+
     @Nullable
     BucketStats getBucketStats() {
         if (unique) {
@@ -291,6 +511,23 @@ public class Index<T extends HasId, V> {
         return new BucketStats(bucketCount, totalBucketSize, maxBucketSize);
     }
 
+    /**
+     * Takes no lock: the figures are kept by the index writer on each insert and delete, so they may be
+     * slightly inconsistent with each other while a write is in progress.
+     */
+    MemoryStats getMemoryStats() {
+        long values = valueCount;
+        long items = itemCount;
+        long overheadBytes = values * MemoryEstimator.CONCURRENT_MAP_ENTRY_BYTES + bucketBytes;
+
+        if (unique && detached) {
+            // Boxed item ids.
+            overheadBytes += items * MemoryEstimator.sizeOf(0L);
+        }
+
+        return new MemoryStats(name, items, unique ? 0 : values, keyBytes, overheadBytes, 0, 0);
+    }
+
     /**
      * Helper interface to emergency query database if object is not found in memory.
      */
@@ -0,0 +1,14 @@
+package com.codeforces.inmemo;
+
+/**
+ * Thrown on a query against an index which has been added by {@link Inmemo#addIndex(Class, Index)} and is
+ * still being built. Retry later or wait for the future returned by addIndex.
+ *
+ * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
+ */
+@SuppressWarnings("WeakerAccess")
+public class IndexNotReadyException extends InmemoException {
+    public IndexNotReadyException(String message) {
+        super(message);
+    }
+}
@@ -3,16 +3,21 @@ package com.codeforces.inmemo;
 import net.sf.cglib.beans.BeanCopier;
 import org.apache.log4j.Logger;
 import org.jacuzzi.core.Row;
+import org.jacuzzi.core.RowRoll;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.sql.DataSource;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
 
 /**
  * <p>
@@ -29,6 +34,12 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 @SuppressWarnings({"WeakerAccess", "unused"})
 public final class Inmemo {
+    /**
+     * Row having this key set to {@code Boolean.TRUE} deletes the item with its id, see
+     * {@link #applyRows(Class, RowRoll)}.
+     */
+    public static final String DELETED_ROW_KEY = "__inmemoDeleted";
+
     private static final Logger logger = Logger.getLogger(Inmemo.class);
     private static final Map<String, Table<? extends HasId>> tables = new ConcurrentHashMap<>();
     private static final Lock tablesLock = new ReentrantLock();
@@ -37,6 +48,21 @@ public final class Inmemo {
     private static final Set<Class<?>> noSizeSupportClasses = new HashSet<>();
     private static final Set<String> noJournalSupportTableClassNames
             = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private static final Map<String, Set<String>> valueInterningFieldsByTableClassName = new ConcurrentHashMap<>();
+    private static final Map<String, ItemStorage> itemStorageByTableClassName = new ConcurrentHashMap<>();
+    private static final Map<String, Long> memoryBudgetByTableClassName = new ConcurrentHashMap<>();
+    private static final Map<String, Long> updateLatencyByTableClassName = new ConcurrentHashMap<>();
+    private static final Map<String, Integer> preloadParallelismByTableClassName = new ConcurrentHashMap<>();
+    private static final Map<String, Long> pollingIntervalByTableClassName = new ConcurrentHashMap<>();
+    private static final Map<String, String> changeProbeByTableClassName = new ConcurrentHashMap<>();
+    private static final Set<String> strictlyIncreasingIndicatorTableClassNames
+            = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private static final Set<String> pinnedPollingConnectionTableClassNames
+            = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private static final Map<String, String> databaseClockSqlByTableClassName = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> databaseClockByTableClassName = new ConcurrentHashMap<>();
+    private static final Set<String> columnProjectionTableClassNames
+            = Collections.newSetFromMap(new ConcurrentHashMap<>());
 
     private Inmemo() {
         // No operations.
@@ -85,8 +111,12 @@ public final class Inmemo {
     }
 
     /**
-     * Table maintains ids set to support size() operation. Use this function
-     * to refuse support of size() to reduce memory footprint.
+     * Use this function to refuse support of size() operation.
+     * <p>
+     * It used to reduce memory footprint by dropping the ids set of the table. Now the table keeps its items by id
+     * anyway (index updates, deletes and snapshots need the replaced item) and takes the size from there, so the
+     * function saves no memory.
+     * </p>
      *
      * @param clazz Table item class.
      */
@@ -117,10 +147,327 @@ public final class Inmemo {
         }
     }
 
+    /**
+     * Enables interning of String and Date values of table items: items share a single instance of each
+     * frequent value instead of their own copies. Must be called before createTable. Don't modify Date values
+     * of found items in place, they may be shared with the other items.
+     *
+     * @param clazz  Table item class.
+     * @param fields Properties to intern, pass none to intern all String and Date properties.
+     */
+    public static void setValueInterning(@Nonnull Class<?> clazz, @Nonnull String... fields) {
+        putTableSetting(valueInterningFieldsByTableClassName, clazz,
+                Collections.unmodifiableSet(new HashSet<>(Arrays.asList(fields))), "setValueInterning");
+    }
+
+    /**
+     * Makes the table keep item properties in column arrays instead of item instances: primitive and Date
+     * properties take no object headers and boxes. Each found item is materialized from the columns, so finds are
+     * slower but the heap use is much lower for wide numeric tables. Must be called before createTable.
+     *
+     * @param clazz Table item class, it should have setters for all the stored properties including id.
+     */
+    public static void setColumnarStorage(@Nonnull Class<?> clazz) {
+        putTableSetting(itemStorageByTableClassName, clazz, ItemStorage.COLUMNAR, "setColumnarStorage");
+    }
+
+    /**
+     * Makes the table keep items serialized in direct memory outside of the heap, so they don't make GC pauses
+     * longer. The heap keeps only the indices. Each found item is decoded from its binary form, so finds are
+     * slower. Don't forget to set up -XX:MaxDirectMemorySize. Must be called before createTable.
+     *
+     * @param clazz Table item class, it should have setters for all the stored properties including id. The
+     *              properties should be primitives or boxes, String, Date, Timestamp, enums or byte[].
+     */
+    public static void setOffHeapStorage(@Nonnull Class<?> clazz) {
+        putTableSetting(itemStorageByTableClassName, clazz, ItemStorage.OFF_HEAP, "setOffHeapStorage");
+    }
+
+    /**
+     * Limits the heap used by the table items and indices. Once the table exceeds the budget, the items not found
+     * for the longest time are evicted (CLOCK policy) and removed from the indices. Must be called before
+     * createTable.
+     * <p>
+     * Only a find by a unique index whose value is the item id (like {@code Index.createUnique("id", ...)}) loads
+     * an evicted item back by a primary key query. Finds and counts by any other index see only the resident
+     * items (or use their EmergencyDatabaseHelper for empty buckets), so set a budget only for tables which are
+     * read by id or which tolerate partial results of the other indices.
+     * </p>
+     *
+     * @param clazz       Table item class.
+     * @param budgetBytes Budget, the usage is estimated as in {@link #getMemoryStats(Class)} and
+     *                    {@link #getIndexMemoryStats(Class)}.
+     */
+    public static void setMemoryBudget(@Nonnull Class<?> clazz, long budgetBytes) {
+        if (budgetBytes <= 0) {
+            throw new IllegalArgumentException("Memory budget expected to be positive [clazz=" + clazz.getName()
+                    + ", budgetBytes=" + budgetBytes + "].");
+        }
+
+        putTableSetting(memoryBudgetByTableClassName, clazz, budgetBytes, "setMemoryBudget");
+    }
+
+    /**
+     * Sets the maximal delay between the table updates, i.e. the latency of the database changes in the table.
+     * The updater polls a busy table each {@code -DInmemo.MinRescanMillis} (100 ms by default) and backs off
+     * twice on each idle poll up to this latency. Tables without the latency set back off up to
+     * {@code -DInmemo.MaxRescanMillis} (5 seconds by default): set smaller latencies for the tables which need
+     * fresher data and larger ones for rarely changed tables.
+     * Must be called before createTable.
+     *
+     * @param clazz         Table item class.
+     * @param latencyMillis Maximal delay between the updates.
+     */
+    public static void setUpdateLatency(@Nonnull Class<?> clazz, long latencyMillis) {
+        if (latencyMillis <= 0) {
+            throw new IllegalArgumentException("Update latency expected to be positive [clazz=" + clazz.getName()
+                    + ", latencyMillis=" + latencyMillis + "].");
+        }
+
+        putTableSetting(updateLatencyByTableClassName, clazz, latencyMillis, "setUpdateLatency");
+    }
+
+    /**
+     * Makes the initial load of the table (without the journal to replay) fetch the table by id ranges on
+     * several connections at once: the id space between MIN(id) and MAX(id) is split into the given number of
+     * ranges. Then the updater reads the rows changed since the maximal indicator value seen before the load
+     * and continues polling as usual. Use it for large tables if the database and its connection pool can afford
+     * the concurrent scans. Must be called before createTable.
+     *
+     * @param clazz       Table item class.
+     * @param parallelism Number of id ranges loaded concurrently.
+     */
+    public static void setPreloadParallelism(@Nonnull Class<?> clazz, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Preload parallelism expected to be positive [clazz="
+                    + clazz.getName() + ", parallelism=" + parallelism + "].");
+        }
+
+        putTableSetting(preloadParallelismByTableClassName, clazz, parallelism, "setPreloadParallelism");
+    }
+
+    /**
+     * Makes the updater select only the columns the table uses instead of {@code SELECT *}: the readable and
+     * writable properties of the item class, the id and indicator columns and the columns declared by
+     * {@link RowListener#getColumns()} and {@link Filter#getRowColumns()}. The property names should be the column
+     * names. Use it for wide tables with the columns (i.e. large texts) not mapped to the items, so they are not
+     * transferred, kept in the rows and written to the journal. Must be called before createTable. The columns
+     * are fixed when the updater starts, and the journal written with other columns is not replayed.
+     *
+     * @param clazz Table item class.
+     */
+    public static void setColumnProjection(@Nonnull Class<?> clazz) {
+        addTableSetting(columnProjectionTableClassNames, clazz, "setColumnProjection");
+    }
+
+    /**
+     * Makes the updater poll the preloaded table with the fixed interval instead of adapting it to the change
+     * rate. Use it when the changes come by {@link #applyRows(Class, RowRoll)} (i.e. from the binlog), so
+     * polling is only a slow safety net. Must be called before createTable.
+     *
+     * @param clazz          Table item class.
+     * @param intervalMillis Delay between the polls, zero to stop polling once the table is preloaded.
+     */
+    public static void setPollingInterval(@Nonnull Class<?> clazz, long intervalMillis) {
+        if (intervalMillis < 0) {
+            throw new IllegalArgumentException("Polling interval expected to be non-negative [clazz="
+                    + clazz.getName() + ", intervalMillis=" + intervalMillis + "].");
+        }
+
+        putTableSetting(pollingIntervalByTableClassName, clazz, intervalMillis, "setPollingInterval");
+    }
+
+    /**
+     * Declares the indicator of the table strictly increasing: each change of a row sets it to a value greater than
+     * all the values set before (i.e. a global sequence or a database row version), and the changes are committed
+     * in this order. Then the updater polls the rows with the indicator greater than the last seen one, instead of
+     * reading the last seen value again and skipping the already applied rows. Must be called before createTable.
+     *
+     * @param clazz Table item class.
+     */
+    public static void setStrictlyIncreasingIndicator(@Nonnull Class<?> clazz) {
+        addTableSetting(strictlyIncreasingIndicatorTableClassNames, clazz, "setStrictlyIncreasingIndicator");
+    }
+
+    /**
+     * Makes the updater poll the table on its own long-lived connection taken from the data source, keeping the
+     * polling statements prepared on it (they are prepared again after a connection failure). Otherwise each poll
+     * takes a connection from the pool and prepares its statement again. Use it for the tables polled often if the
+     * connection pool can afford a connection per such table. Must be called before createTable.
+     *
+     * @param clazz Table item class.
+     */
+    public static void setPinnedPollingConnection(@Nonnull Class<?> clazz) {
+        addTableSetting(pinnedPollingConnectionTableClassNames, clazz, "setPinnedPollingConnection");
+    }
+
+    /**
+     * Sets the query returning the database time (i.e. {@code SELECT NOW()}), it runs before each polling query of
+     * the preloaded table to measure its lag, see {@link UpdateStats#getIndicatorLagMillis()}. Preload batches and
+     * polls skipped by the change probe don't run it (the lag is unknown for them), a failed clock query makes the
+     * lag unknown but doesn't fail the update. Without a database clock the lag is measured by the local clock.
+     * Must be called before createTable.
+     *
+     * @param clazz    Table item class.
+     * @param clockSql Query without parameters, the first column of its row is a timestamp or milliseconds.
+     */
+    public static void setDatabaseClock(@Nonnull Class<?> clazz, @Nonnull String clockSql) {
+        if (clockSql.trim().isEmpty()) {
+            throw new IllegalArgumentException("Database clock query expected to be non-empty [clazz="
+                    + clazz.getName() + "].");
+        }
+
+        String tableClassName = ReflectionUtil.getTableClassName(clazz);
+        tablesLock.lock();
+        try {
+            ensureNoTable(tableClassName, "setDatabaseClock");
+            databaseClockByTableClassName.remove(tableClassName);
+            databaseClockSqlByTableClassName.put(tableClassName, clockSql);
+        } finally {
+            tablesLock.unlock();
+        }
+    }
+
+    /**
+     * The same as {@link #setDatabaseClock(Class, String)}, but the database time is given by the supplied clock
+     * (i.e. the local clock corrected by the known offset). Must be called before createTable.
+     *
+     * @param clazz       Table item class.
+     * @param clockMillis Database time in milliseconds.
+     */
+    public static void setDatabaseClock(@Nonnull Class<?> clazz, @Nonnull LongSupplier clockMillis) {
+        String tableClassName = ReflectionUtil.getTableClassName(clazz);
+        tablesLock.lock();
+        try {
+            ensureNoTable(tableClassName, "setDatabaseClock");
+            databaseClockSqlByTableClassName.remove(tableClassName);
+            databaseClockByTableClassName.put(tableClassName, clockMillis);
+        } finally {
+            tablesLock.unlock();
+        }
+    }
+
+    /**
+     * Makes the updater of the preloaded table run {@code SELECT COUNT(*), MAX(indicator) ... WHERE indicator >= ?}
+     * (bound to the last seen indicator value) before each poll and skip the polling query if the result hasn't
+     * changed since the previous poll. The count catches the writes which get the same indicator value as the last
+     * seen one. Use it for the tables which are rarely changed. Must be called before createTable.
+     *
+     * @param clazz Table item class.
+     */
+    public static void setChangeProbe(@Nonnull Class<?> clazz) {
+        putTableSetting(changeProbeByTableClassName, clazz, "", "setChangeProbe");
+    }
+
+    /**
+     * The same as {@link #setChangeProbe(Class)}, but the probe is the given query (i.e. of a changelog or a
+     * heartbeat table). The polling query is skipped if the probe returns the same rows as before the previous
+     * poll, so the probe result should change on each change of the table. Must be called before createTable.
+     *
+     * @param clazz    Table item class.
+     * @param probeSql Query without parameters.
+     */
+    public static void setChangeProbe(@Nonnull Class<?> clazz, @Nonnull String probeSql) {
+        if (probeSql.trim().isEmpty()) {
+            throw new IllegalArgumentException("Change probe query expected to be non-empty [clazz="
+                    + clazz.getName() + "].");
+        }
+        putTableSetting(changeProbeByTableClassName, clazz, probeSql, "setChangeProbe");
+    }
+
+    private static <V> void putTableSetting(Map<String, V> settings, Class<?> clazz, V value, String methodName) {
+        String tableClassName = ReflectionUtil.getTableClassName(clazz);
+        tablesLock.lock();
+        try {
+            ensureNoTable(tableClassName, methodName);
+            settings.put(tableClassName, value);
+        } finally {
+            tablesLock.unlock();
+        }
+    }
+
+    private static void addTableSetting(Set<String> settings, Class<?> clazz, String methodName) {
+        String tableClassName = ReflectionUtil.getTableClassName(clazz);
+        tablesLock.lock();
+        try {
+            ensureNoTable(tableClassName, methodName);
+            settings.add(tableClassName);
+        } finally {
+            tablesLock.unlock();
+        }
+    }
+
+    private static void ensureNoTable(String tableClassName, String methodName) {
+        if (tables.containsKey(tableClassName)) {
+            throw new IllegalStateException("Inmemo." + methodName + "(clazz) must be called"
+                    + " before Inmemo.createTable [clazz=" + tableClassName + "].");
+        }
+    }
+
     static Set<Class<?>> getNoSizeSupportClasses() {
         return noSizeSupportClasses;
     }
 
+    @Nullable
+    static Set<String> getValueInterningFields(@Nonnull Class<?> clazz) {
+        return valueInterningFieldsByTableClassName.get(ReflectionUtil.getTableClassName(clazz));
+    }
+
+    @Nullable
+    static ItemStorage getItemStorage(@Nonnull Class<?> clazz) {
+        return itemStorageByTableClassName.get(ReflectionUtil.getTableClassName(clazz));
+    }
+
+    @Nullable
+    static Long getMemoryBudget(@Nonnull Class<?> clazz) {
+        return memoryBudgetByTableClassName.get(ReflectionUtil.getTableClassName(clazz));
+    }
+
+    @Nullable
+    static Long getUpdateLatency(@Nonnull Class<?> clazz) {
+        return updateLatencyByTableClassName.get(ReflectionUtil.getTableClassName(clazz));
+    }
+
+    @Nullable
+    static Integer getPreloadParallelism(@Nonnull Class<?> clazz) {
+        return preloadParallelismByTableClassName.get(ReflectionUtil.getTableClassName(clazz));
+    }
+
+    @Nullable
+    static Long getPollingInterval(@Nonnull Class<?> clazz) {
+        return pollingIntervalByTableClassName.get(ReflectionUtil.getTableClassName(clazz));
+    }
+
+    /**
+     * @return Change probe query, empty string for the default probe or {@code null} if the table has no probe.
+     */
+    @Nullable
+    static String getChangeProbe(@Nonnull Class<?> clazz) {
+        return changeProbeByTableClassName.get(ReflectionUtil.getTableClassName(clazz));
+    }
+
+    static boolean isStrictlyIncreasingIndicator(@Nonnull Class<?> clazz) {
+        return strictlyIncreasingIndicatorTableClassNames.contains(ReflectionUtil.getTableClassName(clazz));
+    }
+
+    static boolean isPinnedPollingConnection(@Nonnull Class<?> clazz) {
+        return pinnedPollingConnectionTableClassNames.contains(ReflectionUtil.getTableClassName(clazz));
+    }
+
+    @Nullable
+    static String getDatabaseClockSql(@Nonnull Class<?> clazz) {
+        return databaseClockSqlByTableClassName.get(ReflectionUtil.getTableClassName(clazz));
+    }
+
+    @Nullable
+    static LongSupplier getDatabaseClock(@Nonnull Class<?> clazz) {
+        return databaseClockByTableClassName.get(ReflectionUtil.getTableClassName(clazz));
+    }
+
+    static boolean isColumnProjection(@Nonnull Class<?> clazz) {
+        return columnProjectionTableClassNames.contains(ReflectionUtil.getTableClassName(clazz));
+    }
+
     static boolean isJournalSupportUnset(@Nonnull Class<?> clazz) {
         return noJournalSupportTableClassNames.contains(ReflectionUtil.getTableClassName(clazz));
     }
@@ -143,6 +490,33 @@ public final class Inmemo {
         }
     }
 
+    /**
+     * Forgets all the per-table settings of the class, so the tests can share the same item class.
+     */
+    static void resetTableSettingsForTesting(@Nonnull Class<?> clazz) {
+        String tableClassName = ReflectionUtil.getTableClassName(clazz);
+
+        tablesLock.lock();
+        try {
+            noSizeSupportClasses.remove(clazz);
+            noJournalSupportTableClassNames.remove(tableClassName);
+            valueInterningFieldsByTableClassName.remove(tableClassName);
+            itemStorageByTableClassName.remove(tableClassName);
+            memoryBudgetByTableClassName.remove(tableClassName);
+            updateLatencyByTableClassName.remove(tableClassName);
+            preloadParallelismByTableClassName.remove(tableClassName);
+            pollingIntervalByTableClassName.remove(tableClassName);
+            changeProbeByTableClassName.remove(tableClassName);
+            strictlyIncreasingIndicatorTableClassNames.remove(tableClassName);
+            pinnedPollingConnectionTableClassNames.remove(tableClassName);
+            databaseClockSqlByTableClassName.remove(tableClassName);
+            databaseClockByTableClassName.remove(tableClassName);
+            columnProjectionTableClassNames.remove(tableClassName);
+        } finally {
+            tablesLock.unlock();
+        }
+    }
+
     /**
      * Creates new table, if there is already table for compatible class then doing nothing.
      *
@@ -184,57 +558,124 @@ public final class Inmemo {
             @Nonnull Indices<T> indices,
             @Nullable Filter<T> rowFilter,
             boolean waitForPreload) {
-        tablesLock.lock();
+        Table<T> createdTable;
 
+        tablesLock.lock();
         try {
-            String tableClassName = ReflectionUtil.getTableClassName(clazz);
-
-            Table<? extends HasId> table = tables.get(tableClassName);
-            if (table == null) {
-                renewTable(clazz, indicatorField, initialIndicatorValue, indices, rowFilter);
-
-                table = tables.get(tableClassName);
-                if (waitForPreload) {
-                    while (!table.isPreloaded()) {
-                        try {
-                            Thread.sleep(100L);
-                        } catch (InterruptedException ignored) {
-                            break;
-                        }
-                    }
-                    logger.info("Inmemo completed to wait for preload " + tableClassName + '.');
-                }
-            } else {
-                // Exactly the same class?
-                if (table.getClazz().equals(clazz)) {
-                    // logger.info("Exactly the same class [class=" + clazz + "].");
-                    return;
-                }
+            createdTable = registerTable(clazz, indicatorField, initialIndicatorValue, indices, rowFilter);
+            if (createdTable != null) {
+                createdTable.runUpdater();
+            }
+        } finally {
+            tablesLock.unlock();
+        }
 
-                String clazzSpec = ReflectionUtil.getTableClassSpec(clazz);
-                // Compatible classes?
-                if (table.getClazzSpec().equals(clazzSpec)) {
-                    logger.info("Compatible classes " + tableClassName + " [class=" + clazz + "].");
-                    return;
-                }
+        // Waits without the lock, so the other tables can be created meanwhile.
+        if (createdTable != null && waitForPreload) {
+            awaitPreload(createdTable);
+        }
+    }
+
+    /**
+     * Creates the tables as {@link #createTable(Class, String, Object, Indices, Filter, boolean)} does, but
+     * preloads at most the given number of them concurrently: the updater of the next table starts when a preload
+     * completes. Doesn't wait for preload.
+     *
+     * @param definitions           Tables to create.
+     * @param maxConcurrentPreloads Maximal number of the tables preloading at the same time.
+     * @return Preload futures of the tables in the order of the definitions (use {@link CompletableFuture#allOf}
+     * or {@link CompletableFuture#anyOf} to wait for them).
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public static List<CompletableFuture<Void>> createTables(
+            @Nonnull List<TableDefinition<?>> definitions,
+            int maxConcurrentPreloads) {
+        if (maxConcurrentPreloads <= 0) {
+            throw new IllegalArgumentException("Illegal arguments for Inmemo#createTables: maxConcurrentPreloads = "
+                    + maxConcurrentPreloads);
+        }
 
-                renewTable(clazz, indicatorField, initialIndicatorValue, indices, rowFilter);
+        List<CompletableFuture<Void>> preloadFutures = new ArrayList<>(definitions.size());
+        Queue<Table<?>> pendingTables = new ConcurrentLinkedQueue<>();
 
-                table = tables.get(tableClassName);
-                if (waitForPreload) {
-                    while (!table.isPreloaded()) {
-                        try {
-                            Thread.sleep(100L);
-                        } catch (InterruptedException ignored) {
-                            break;
-                        }
-                    }
-                    logger.info("Inmemo completed to wait for preload " + tableClassName + '.');
+        tablesLock.lock();
+        try {
+            for (TableDefinition<?> definition : definitions) {
+                Table<?> table = registerTable(definition);
+                if (table == null) {
+                    preloadFutures.add(getTableByClass(definition.getClazz()).getPreloadFuture());
+                } else {
+                    pendingTables.add(table);
+                    preloadFutures.add(table.getPreloadFuture());
                 }
             }
         } finally {
             tablesLock.unlock();
         }
+
+        for (int i = 0; i < maxConcurrentPreloads; i++) {
+            startNextPreload(pendingTables);
+        }
+        return preloadFutures;
+    }
+
+    /**
+     * @param clazz Table class.
+     * @return Future completed when the table is preloaded. It is completed exceptionally if the preload has failed
+     * {@code -DInmemo.MaxPreloadFailures} (10 by default) times in a row or if the table has been dropped or
+     * replaced before the preload.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public static <T extends HasId> CompletableFuture<Void> getPreloadFuture(@Nonnull Class<T> clazz) {
+        return getTableByClass(clazz).getPreloadFuture();
+    }
+
+    private static void startNextPreload(Queue<Table<?>> pendingTables) {
+        Table<?> table;
+        while ((table = pendingTables.poll()) != null) {
+            // A table dropped or replaced before its turn is skipped, a failed preload releases its slot too.
+            if (!table.getPreloadFuture().isDone()) {
+                table.runUpdater();
+                table.getPreloadFuture().whenComplete((ignored, e) -> startNextPreload(pendingTables));
+                return;
+            }
+        }
+    }
+
+    @Nullable
+    private static <T extends HasId> Table<T> registerTable(TableDefinition<T> definition) {
+        return registerTable(definition.getClazz(), definition.getIndicatorField(),
+                definition.getInitialIndicatorValue(), definition.getIndices(), definition.getRowFilter());
+    }
+
+    /**
+     * @return New table (its updater is not started) or {@code null} if there is already the table for the same or
+     * compatible class.
+     */
+    @Nullable
+    private static <T extends HasId> Table<T> registerTable(Class<T> clazz,
+                                                            String indicatorField, Object initialIndicatorValue,
+                                                            Indices<T> indices,
+                                                            Filter<T> rowFilter) {
+        String tableClassName = ReflectionUtil.getTableClassName(clazz);
+
+        Table<? extends HasId> table = tables.get(tableClassName);
+        if (table != null) {
+            // Exactly the same class?
+            if (table.getClazz().equals(clazz)) {
+                // logger.info("Exactly the same class [class=" + clazz + "].");
+                return null;
+            }
+
+            String clazzSpec = ReflectionUtil.getTableClassSpec(clazz);
+            // Compatible classes?
+            if (table.getClazzSpec().equals(clazzSpec)) {
+                logger.info("Compatible classes " + tableClassName + " [class=" + clazz + "].");
+                return null;
+            }
+        }
+
+        return renewTable(clazz, indicatorField, initialIndicatorValue, indices, rowFilter);
     }
 
     /**
@@ -254,7 +695,50 @@ public final class Inmemo {
             } finally {
                 tablesLock.unlock();
             }
+            table.failPreload(new InmemoException("Table " + tableClassName + " has been dropped."));
+        }
+    }
+
+    /**
+     * Estimates the heap taken by the table items (sizes of items are sampled, see
+     * {@code -DInmemo.MemorySampleSize}). Takes the table lock for a short time.
+     *
+     * @param clazz Table class.
+     * @return Estimated memory of the table without its indices.
+     */
+    public static <T extends HasId> MemoryStats getMemoryStats(@Nonnull Class<T> clazz) {
+        return getTableByClass(clazz).getMemoryStats();
+    }
+
+    /**
+     * Estimates the heap taken by the table indices. Each index keeps its counters on insert and delete, so the
+     * call is cheap and takes no table lock.
+     *
+     * @param clazz Table class.
+     * @return Estimated memory of each index by index name.
+     */
+    public static <T extends HasId> Map<String, MemoryStats> getIndexMemoryStats(@Nonnull Class<T> clazz) {
+        return getTableByClass(clazz).getIndexMemoryStats();
+    }
+
+    /**
+     * @param clazz Table class.
+     * @return Freshness of the table after its last successful update: applied indicator value, lag, staleness,
+     * update time and rows, backlog.
+     */
+    public static <T extends HasId> UpdateStats getUpdateStats(@Nonnull Class<T> clazz) {
+        return getTableByClass(clazz).getUpdateStats();
+    }
+
+    /**
+     * @return Freshness of each table by table class name, see {@link #getUpdateStats(Class)}.
+     */
+    public static Map<String, UpdateStats> getUpdateStats() {
+        Map<String, UpdateStats> result = new TreeMap<>();
+        for (Map.Entry<String, Table<? extends HasId>> entry : tables.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getUpdateStats());
         }
+        return result;
     }
 
     public static <T> int size(@Nonnull Class<T> clazz) {
@@ -274,27 +758,31 @@ public final class Inmemo {
         Table<? extends HasId> table = tables.get(tableClassName);
 
         if (table != null) {
-            boolean preloadedNow = false;
-            while (!table.isPreloaded()) {
-                preloadedNow = true;
-                try {
-                    Thread.sleep(100L);
-                } catch (InterruptedException ignored) {
-                    break;
-                }
-            }
-            if (preloadedNow) {
-                logger.info("Inmemo completed to wait for preload " + tableClassName + '.');
+            if (!table.isPreloaded()) {
+                awaitPreload(table);
             }
         } else {
             throw new InmemoException("Unable to find table for class name `" + tableClassName + "`.");
         }
     }
 
-    private static <T extends HasId> void renewTable(Class<T> clazz,
-                                                     String indicatorField, Object initialIndicatorValue,
-                                                     Indices<T> indices,
-                                                     Filter<T> rowFilter) {
+    private static void awaitPreload(Table<?> table) {
+        String tableClassName = ReflectionUtil.getTableClassName(table.getClazz());
+        try {
+            table.getPreloadFuture().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            throw new InmemoException("Unable to preload table " + tableClassName + '.', e.getCause());
+        }
+        logger.info("Inmemo completed to wait for preload " + tableClassName + '.');
+    }
+
+    private static <T extends HasId> Table<T> renewTable(Class<T> clazz,
+                                                         String indicatorField, Object initialIndicatorValue,
+                                                         Indices<T> indices,
+                                                         Filter<T> rowFilter) {
         Table<T> table = new Table<>(clazz, indicatorField, rowFilter);
         table.createUpdater(initialIndicatorValue);
 
@@ -310,8 +798,51 @@ public final class Inmemo {
             table.add(itemListener);
         }
 
-        table.runUpdater();
-        tables.put(ReflectionUtil.getTableClassName(clazz), table);
+        Table<? extends HasId> replacedTable = tables.put(ReflectionUtil.getTableClassName(clazz), table);
+        if (replacedTable != null) {
+            replacedTable.failPreload(new InmemoException("Table " + ReflectionUtil.getTableClassName(clazz)
+                    + " has been replaced by the table of " + clazz + '.'));
+        }
+        return table;
+    }
+
+    /**
+     * Adds index to the existing table without reloading it. The index is built in background from the items
+     * in memory while the table keeps updating. Until the returned future is completed the queries against the
+     * index throw {@link IndexNotReadyException}.
+     *
+     * @param clazz Table item class, it should be exactly the table class.
+     * @param index New index, its name should be unique within the table.
+     * @param <T>   Items class.
+     * @param <V>   Index value class.
+     * @return Future completed when the index is ready (or completed exceptionally if it can't be built).
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public static <T extends HasId, V> CompletableFuture<Void> addIndex(
+            @Nonnull Class<T> clazz,
+            @Nonnull Index<T, V> index) {
+        Table<? extends HasId> table = getTableByClass(clazz);
+
+        if (table.getClazz() != clazz) {
+            throw new InmemoException("Index can be added only using the table class [tableClass="
+                    + table.getClazz() + ", clazz=" + clazz + "].");
+        }
+
+        //noinspection unchecked
+        return ((Table<T>) table).addIndexOnline(index);
+    }
+
+    /**
+     * Drops index of the table, the index being built is dropped too.
+     *
+     * @param clazz     Table item class.
+     * @param indexName Index name.
+     * @param <T>       Items class.
+     * @return {@code true} iff the table had the index.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public static <T extends HasId> boolean dropIndex(@Nonnull Class<T> clazz, @Nonnull String indexName) {
+        return getTableByClass(clazz).dropIndex(indexName);
     }
 
     /**
@@ -397,6 +928,26 @@ public final class Inmemo {
         }
     }
 
+    /**
+     * Opens read view of the table pinned to its current version. Reads from the snapshot are consistent
+     * across all the indices and never block the table updater. Close it as soon as possible.
+     *
+     * @param clazz Table item class.
+     * @param <T>   Items class.
+     * @return Snapshot of the table, use it in try-with-resources.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public static <T extends HasId> TableSnapshot<T> snapshot(@Nonnull Class<T> clazz) {
+        Table<? extends HasId> table = getTableByClass(clazz);
+
+        if (!table.isCompatibleItemClass(clazz)) {
+            throw new InmemoException("Table class is incompatible with the given [tableClass=" + table.getClazz()
+                    + ", clazz=" + clazz + "].");
+        }
+
+        return table.snapshot(clazz);
+    }
+
     /**
      * @param throwOnNotUnique Throw exception if resulting item is not unique.
      * @param clazz            Table item class.
@@ -530,6 +1081,38 @@ public final class Inmemo {
         getTableByClass(clazz).update();
     }
 
+    /**
+     * Tells that the table has been changed (i.e. by this application), so its updater polls it as soon as
+     * possible. It doesn't block: the poll runs in the updater, many notifications are coalesced into one poll.
+     *
+     * @param clazz Table item class.
+     */
+    public static <T extends HasId> void notifyChanged(Class<T> clazz) {
+        if (clazz == null) {
+            throw new IllegalArgumentException("Illegal arguments for Inmemo#notifyChanged: clazz = <null>");
+        }
+
+        getTableByClass(clazz).notifyChanged();
+    }
+
+    /**
+     * Waits until the changes committed before the call are read by the updater and the table has the item with
+     * the given id: for reading own writes without querying the database from the caller thread. Notifies the
+     * updater as {@link #notifyChanged(Class)} does.
+     *
+     * @param clazz         Table item class.
+     * @param id            Item id.
+     * @param timeoutMillis Maximal time to wait.
+     * @return {@code true} if the item is in the table, {@code false} on timeout or if the thread is interrupted.
+     */
+    public static <T extends HasId> boolean awaitVisible(Class<T> clazz, long id, long timeoutMillis) {
+        if (clazz == null) {
+            throw new IllegalArgumentException("Illegal arguments for Inmemo#awaitVisible: clazz = <null>");
+        }
+
+        return getTableByClass(clazz).awaitVisible(id, timeoutMillis);
+    }
+
     public static <T extends HasId> void insertOrUpdateByIds(Class<T> clazz, Long... ids) {
         if (clazz == null) {
             throw new IllegalArgumentException("Illegal arguments for Inmemo#insertOrUpdateByIds: clazz = <null>");
@@ -545,6 +1128,29 @@ public final class Inmemo {
         getTableByClass(clazz).insertOrUpdateByIds(ids);
     }
 
+    /**
+     * Applies the changed rows supplied from outside (i.e. by a binlog consumer) the same way as the rows found by
+     * the updater: they are converted, filtered, written into the journal and indexed. A row having
+     * {@link #DELETED_ROW_KEY} set to {@code Boolean.TRUE} deletes the item with its id. The rows are applied in
+     * order and mutually exclusive with the updater polls, so they should be supplied in the commit order. The polls
+     * still go from their own position, so a row missed or delayed by the caller is found by them; a polled row
+     * already applied with the same content is not applied again.
+     *
+     * @param clazz Table class.
+     * @param rows  Rows as selected by {@code SELECT * FROM} the table (or id and {@link #DELETED_ROW_KEY} for
+     *              deletes).
+     */
+    public static <T extends HasId> void applyRows(Class<T> clazz, RowRoll rows) {
+        if (clazz == null) {
+            throw new IllegalArgumentException("Illegal arguments for Inmemo#applyRows: clazz = <null>");
+        }
+        if (rows == null) {
+            throw new IllegalArgumentException("Illegal arguments for Inmemo#applyRows: rows = <null>");
+        }
+
+        getTableByClass(clazz).applyRows(rows);
+    }
+
     /**
      * Sends shutdown signal to all Inmemo background threads. There is no guarantee, that all threads are completely
      * stopped, when this method finishes.
@@ -573,6 +1179,14 @@ public final class Inmemo {
     public interface Filter<T> {
         boolean testRow(Row row);
         boolean testItem(T item);
+
+        /**
+         * @return Columns {@link #testRow(Row)} reads besides the item properties, they are selected if the table
+         * uses {@link #setColumnProjection(Class) column projection}.
+         */
+        default Collection<String> getRowColumns() {
+            return Collections.emptyList();
+        }
     }
 
     private static final class ClassPair {
@@ -0,0 +1,59 @@
+package com.codeforces.inmemo;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reads tuning parameters from the system properties {@code Inmemo.*}, invalid or out of range values are
+ * logged and replaced with the default or the nearest bound.
+ */
+final class InmemoProperties {
+    private InmemoProperties() {
+        // No operations.
+    }
+
+    static int getIntProperty(Logger logger, String name, int defaultValue, int minValue, int maxValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            int parsedValue = Integer.parseInt(value.trim());
+            if (parsedValue < minValue) {
+                logger.warn("Property " + name + "=" + value + " is too small, using " + minValue + '.');
+                return minValue;
+            }
+            if (parsedValue > maxValue) {
+                logger.warn("Property " + name + "=" + value + " is too large, using " + maxValue + '.');
+                return maxValue;
+            }
+            return parsedValue;
+        } catch (NumberFormatException e) {
+            logger.warn("Property " + name + "=" + value + " is invalid, using " + defaultValue + '.', e);
+            return defaultValue;
+        }
+    }
+
+    static long getLongProperty(Logger logger, String name, long defaultValue, long minValue, long maxValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            long parsedValue = Long.parseLong(value.trim());
+            if (parsedValue < minValue) {
+                logger.warn("Property " + name + "=" + value + " is too small, using " + minValue + '.');
+                return minValue;
+            }
+            if (parsedValue > maxValue) {
+                logger.warn("Property " + name + "=" + value + " is too large, using " + maxValue + '.');
+                return maxValue;
+            }
+            return parsedValue;
+        } catch (NumberFormatException e) {
+            logger.warn("Property " + name + "=" + value + " is invalid, using " + defaultValue + '.', e);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.codeforces.inmemo;
+
+import net.sf.cglib.reflect.FastMethod;
+
+import java.lang.reflect.InvocationTargetException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compact binary form of items of a class: settable properties are written one by one in the order of their
+ * names, without names and type tags. Supported property types are primitives and their boxes, {@code String},
+ * {@code Date}, {@code Timestamp}, enums and {@code byte[]}.
+ *
+ * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
+ */
+final class ItemCodec<T extends HasId> {
+    private final Class<T> clazz;
+    private final Property[] properties;
+
+    ItemCodec(Class<T> clazz) {
+        this.clazz = clazz;
+
+        Map<String, FastMethod> getters = ReflectionUtil.getGettersMap(clazz);
+        Map<String, FastMethod> setters = ReflectionUtil.getSettersMap(clazz);
+
+        if (!setters.containsKey("id")) {
+            throw new InmemoException("Item codec requires id setter [class=" + clazz + "].");
+        }
+
+        List<Property> propertyList = new ArrayList<>();
+        for (Map.Entry<String, FastMethod> getterEntry : new TreeMap<>(getters).entrySet()) {
+            FastMethod getter = getterEntry.getValue();
+            FastMethod setter = setters.get(getterEntry.getKey());
+            Class<?> type = getter.getReturnType();
+
+            if (setter == null || !setter.getParameterTypes()[0].isAssignableFrom(type)) {
+                continue;
+            }
+
+            Kind kind = Kind.of(type);
+            if (kind == null) {
+                throw new InmemoException("Unsupported property type for item codec [class=" + clazz
+                        + ", property=" + getterEntry.getKey() + ", type=" + type + "].");
+            }
+
+            propertyList.add(new Property(getter, setter, type, kind));
+        }
+        properties = propertyList.toArray(new Property[0]);
+    }
+
+    /**
+     * @param item   Item to write.
+     * @param buffer Target buffer, it is replaced by a larger one if needed.
+     * @return Buffer containing the item from 0 to its position.
+     */
+    ByteBuffer encode(T item, ByteBuffer buffer) {
+        buffer.clear();
+        for (Property property : properties) {
+            Object value;
+            try {
+                value = property.getter.invoke(item, new Object[]{});
+            } catch (InvocationTargetException e) {
+                throw new InmemoException("Can't encode item [class=" + clazz
+                        + ", method=" + property.getter.getName() + "].", e);
+            }
+
+            buffer = ensureRemaining(buffer, 9);
+            if (!property.type.isPrimitive()) {
+                buffer.put(value == null ? (byte) 0 : (byte) 1);
+                if (value == null) {
+                    continue;
+                }
+            }
+
+            switch (property.kind) {
+                case LONG:
+                    buffer.putLong((Long) value);
+                    break;
+                case INT:
+                    buffer.putInt((Integer) value);
+                    break;
+                case SHORT:
+                    buffer.putShort((Short) value);
+                    break;
+                case BYTE:
+                    buffer.put((Byte) value);
+                    break;
+                case CHAR:
+                    buffer.putChar((Character) value);
+                    break;
+                case BOOLEAN:
+                    buffer.put((Boolean) value ? (byte) 1 : (byte) 0);
+                    break;
+                case DOUBLE:
+                    buffer.putDouble((Double) value);
+                    break;
+                case FLOAT:
+                    buffer.putFloat((Float) value);
+                    break;
+                case DATE:
+                    buffer.putLong(((Date) value).getTime());
+                    break;
+                case TIMESTAMP:
+                    buffer.putLong(((Timestamp) value).getTime());
+                    buffer = ensureRemaining(buffer, 4);
+                    buffer.putInt(((Timestamp) value).getNanos());
+                    break;
+                case ENUM:
+                    buffer.putInt(((Enum<?>) value).ordinal());
+                    break;
+                case STRING:
+                    buffer = putBytes(buffer, ((String) value).getBytes(StandardCharsets.UTF_8));
+                    break;
+                case BYTES:
+                    buffer = putBytes(buffer, (byte[]) value);
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected kind " + property.kind + '.');
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * @param buffer Buffer positioned at the item and limited by its end.
+     * @return New item instance.
+     */
+    T decode(ByteBuffer buffer) {
+        T item = ReflectionUtil.newInstance(clazz);
+
+        for (Property property : properties) {
+            Object value;
+            if (!property.type.isPrimitive() && buffer.get() == 0) {
+                value = null;
+            } else {
+                value = read(property, buffer);
+            }
+
+            try {
+                property.setter.invoke(item, new Object[]{value});
+            } catch (InvocationTargetException e) {
+                throw new InmemoException("Can't decode item [class=" + clazz
+                        + ", method=" + property.setter.getName() + "].", e);
+            }
+        }
+
+        return item;
+    }
+
+    private static Object read(Property property, ByteBuffer buffer) {
+        switch (property.kind) {
+            case LONG:
+                return buffer.getLong();
+            case INT:
+                return buffer.getInt();
+            case SHORT:
+                return buffer.getShort();
+            case BYTE:
+                return buffer.get();
+            case CHAR:
+                return buffer.getChar();
+            case BOOLEAN:
+                return buffer.get() != 0;
+            case DOUBLE:
+                return buffer.getDouble();
+            case FLOAT:
+                return buffer.getFloat();
+            case DATE:
+                return new Date(buffer.getLong());
+            case TIMESTAMP:
+                Timestamp timestamp = new Timestamp(buffer.getLong());
+                timestamp.setNanos(buffer.getInt());
+                return timestamp;
+            case ENUM:
+                return property.type.getEnumConstants()[buffer.getInt()];
+            case STRING:
+                return new String(getBytes(buffer), StandardCharsets.UTF_8);
+            case BYTES:
+                return getBytes(buffer);
+            default:
+                throw new IllegalStateException("Unexpected kind " + property.kind + '.');
+        }
+    }
+
+    private static ByteBuffer putBytes(ByteBuffer buffer, byte[] bytes) {
+        buffer = ensureRemaining(buffer, 4 + bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+        return buffer;
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static ByteBuffer ensureRemaining(ByteBuffer buffer, int remaining) {
+        if (buffer.remaining() >= remaining) {
+            return buffer;
+        }
+
+        ByteBuffer result = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + remaining));
+        buffer.flip();
+        result.put(buffer);
+        return result;
+    }
+
+    private enum Kind {
+        LONG, INT, SHORT, BYTE, CHAR, BOOLEAN, DOUBLE, FLOAT, DATE, TIMESTAMP, ENUM, STRING, BYTES;
+
+        private static Kind of(Class<?> type) {
+            if (type == long.class || type == Long.class) {
+                return LONG;
+            } else if (type == int.class || type == Integer.class) {
+                return INT;
+            } else if (type == short.class || type == Short.class) {
+                return SHORT;
+            } else if (type == byte.class || type == Byte.class) {
+                return BYTE;
+            } else if (type == char.class || type == Character.class) {
+                return CHAR;
+            } else if (type == boolean.class || type == Boolean.class) {
+                return BOOLEAN;
+            } else if (type == double.class || type == Double.class) {
+                return DOUBLE;
+            } else if (type == float.class || type == Float.class) {
+                return FLOAT;
+            } else if (type == Date.class) {
+                return DATE;
+            } else if (type == Timestamp.class) {
+                return TIMESTAMP;
+            } else if (type.isEnum()) {
+                return ENUM;
+            } else if (type == String.class) {
+                return STRING;
+            } else if (type == byte[].class) {
+                return BYTES;
+            } else {
+                return null;
+            }
+        }
+    }
+
+    private static final class Property {
+        private final FastMethod getter;
+        private final FastMethod setter;
+        private final Class<?> type;
+        private final Kind kind;
+
+        private Property(FastMethod getter, FastMethod setter, Class<?> type, Kind kind) {
+            this.getter = getter;
+            this.setter = setter;
+            this.type = type;
+            this.kind = kind;
+        }
+    }
+}
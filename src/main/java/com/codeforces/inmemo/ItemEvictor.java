@@ -0,0 +1,135 @@
+package com.codeforces.inmemo;
+
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * CLOCK (second chance) eviction of table items to keep the table in its memory budget. Each found item gets
+ * its reference bit set, the clock hand walks over the id map slots of the item store: an item with the bit set
+ * gets the second chance (the bit is cleared), an item without the bit is evicted.
+ * <p>
+ * Reference bits are set by readers without any lock, the other methods are called under the table lock.
+ * </p>
+ *
+ * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
+ */
+final class ItemEvictor {
+    /**
+     * Eviction makes the table this share of its budget, so it doesn't run on each write.
+     */
+    static final double LOW_WATERMARK = 0.9;
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_WORDS = (1 << CHUNK_BITS) / Long.SIZE;
+
+    private final long budgetBytes;
+
+    // Reference bits by id >> CHUNK_BITS.
+    private final ConcurrentMap<Long, AtomicLongArray> referenceBits = new ConcurrentHashMap<>();
+    private final IdSet evictedIds = new IdSet();
+
+    // The next id map slot the clock hand looks at.
+    private int hand;
+
+    // Estimated heap bytes of an item with its index entries, zero until estimated.
+    private double itemBytes;
+    private long maxItems = Long.MAX_VALUE;
+
+    ItemEvictor(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    long getMaxItems() {
+        return maxItems;
+    }
+
+    double getItemBytes() {
+        return itemBytes;
+    }
+
+    void setItemBytes(double itemBytes) {
+        this.itemBytes = itemBytes;
+        maxItems = itemBytes <= 0 ? Long.MAX_VALUE : Math.max(1L, (long) (budgetBytes / itemBytes));
+    }
+
+    void markAccessed(long id) {
+        long key = id >> CHUNK_BITS;
+        AtomicLongArray words = referenceBits.get(key);
+        if (words == null) {
+            words = referenceBits.computeIfAbsent(key, k -> new AtomicLongArray(CHUNK_WORDS));
+        }
+
+        int word = (int) (id & ((1 << CHUNK_BITS) - 1)) >>> 6;
+        long bit = 1L << id;
+        if ((words.get(word) & bit) == 0) {
+            words.accumulateAndGet(word, bit, (a, b) -> a | b);
+        }
+    }
+
+    boolean isEvicted(long id) {
+        return evictedIds.contains(id);
+    }
+
+    int getEvictedCount() {
+        return evictedIds.size();
+    }
+
+    /**
+     * Should be called when the item becomes resident or has not been found in the database.
+     */
+    void forget(long id) {
+        if (evictedIds.contains(id)) {
+            evictedIds.remove(id);
+        }
+    }
+
+    void onEvicted(long id) {
+        evictedIds.add(id);
+    }
+
+    /**
+     * Moves the clock hand over the resident ids and chooses items to evict.
+     *
+     * @param items Item store, the hand walks over its id map slots in place.
+     * @param count Number of items to choose.
+     * @return Ids to evict.
+     */
+    long[] selectVictims(ItemStore<?> items, int count) {
+        if (count <= 0 || items.size() == 0) {
+            return new long[0];
+        }
+
+        TLongSet victims = new TLongHashSet(Math.min(count, items.size()));
+        // Two rounds at most: the first one may only clear the reference bits.
+        hand = items.walkIds(hand, 2, id -> {
+            if (!victims.contains(id) && !clearReferenceBit(id)) {
+                victims.add(id);
+            }
+            return victims.size() < count;
+        });
+
+        return victims.toArray();
+    }
+
+    /**
+     * @return {@code true} iff the bit has been set.
+     */
+    private boolean clearReferenceBit(long id) {
+        AtomicLongArray words = referenceBits.get(id >> CHUNK_BITS);
+        if (words == null) {
+            return false;
+        }
+
+        int word = (int) (id & ((1 << CHUNK_BITS) - 1)) >>> 6;
+        long bit = 1L << id;
+        return (words.getAndAccumulate(word, ~bit, (a, b) -> a & b) & bit) != 0;
+    }
+}
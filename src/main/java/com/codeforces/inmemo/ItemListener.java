@@ -19,11 +19,22 @@ public class ItemListener<T extends HasId> {
         listener.onInsertOrUpdate(item);
     }
 
+    public void delete(@Nonnull T item) {
+        listener.onDelete(item);
+    }
+
     public String getName() {
         return name;
     }
 
     public interface Listener<T extends HasId> {
         void onInsertOrUpdate(T item);
+
+        /**
+         * Called when the item is deleted by {@link Inmemo#applyRows(Class, org.jacuzzi.core.RowRoll)}.
+         */
+        default void onDelete(T item) {
+            // No operations.
+        }
     }
 }
@@ -0,0 +1,24 @@
+package com.codeforces.inmemo;
+
+/**
+ * Alternative (detached) stores of table items, the default one is {@link HeapItemStore}.
+ *
+ * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
+ */
+enum ItemStorage {
+    COLUMNAR {
+        @Override
+        <T extends HasId> ItemStore<T> createStore(Class<T> clazz) {
+            return new ColumnarItemStore<>(clazz);
+        }
+    },
+
+    OFF_HEAP {
+        @Override
+        <T extends HasId> ItemStore<T> createStore(Class<T> clazz) {
+            return new OffHeapItemStore<>(clazz);
+        }
+    };
+
+    abstract <T extends HasId> ItemStore<T> createStore(Class<T> clazz);
+}
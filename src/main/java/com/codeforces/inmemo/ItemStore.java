@@ -0,0 +1,106 @@
+package com.codeforces.inmemo;
+
+import gnu.trove.impl.hash.TPrimitiveHash;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.function.LongPredicate;
+
+/**
+ * Storage of the current table items by id. Writes are made under the table lock.
+ *
+ * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
+ */
+interface ItemStore<T extends HasId> {
+    /**
+     * @param item Item to store.
+     * @return Replaced item with the same id or {@code null}.
+     */
+    @Nullable
+    T put(@Nonnull T item);
+
+    /**
+     * @param id Item id.
+     * @return Removed item or {@code null}.
+     */
+    @Nullable
+    T remove(long id);
+
+    /**
+     * Detached stores must support calls without the table lock.
+     *
+     * @param id Item id.
+     * @return Current item with the id or {@code null}.
+     */
+    @Nullable
+    T get(long id);
+
+    int size();
+
+    /**
+     * @return Ids of all the stored items, called under the table lock.
+     */
+    long[] ids();
+
+    /**
+     * Walks the ids in the slot order of the id map, called under the table lock. Doesn't allocate, so a walk
+     * can be continued from where the previous one stopped.
+     *
+     * @param slot    Slot to start from, any non-negative number (it is taken modulo the capacity).
+     * @param rounds  Maximal number of rounds over all the slots.
+     * @param visitor Returns {@code false} to stop the walk.
+     * @return Slot to continue from.
+     */
+    int walkIds(int slot, int rounds, @Nonnull LongPredicate visitor);
+
+    /**
+     * @return {@code true} iff the store keeps no item instances and {@link #get(long)} materializes a new one
+     * on each call. Indices of such tables keep only item ids.
+     */
+    boolean isDetached();
+
+    /**
+     * @return Estimated heap bytes of the store structures, without the items.
+     */
+    long getOverheadBytes();
+
+    /**
+     * @param sampleSize Maximal number of items to look into, the result is extrapolated.
+     * @return Estimated heap bytes of the items.
+     */
+    long estimatePayloadBytes(int sampleSize);
+
+    /**
+     * Called under the table lock.
+     *
+     * @param id Item id.
+     * @return Estimated heap bytes of the stored item without the store structures, zero if there is no item.
+     */
+    long getPayloadBytes(long id);
+
+    /**
+     * @return Bytes taken outside of the heap.
+     */
+    long getOffHeapBytes();
+
+    /**
+     * Implements {@link #walkIds(int, int, LongPredicate)} over the arrays of a Trove id map.
+     *
+     * @param keys   Key slots ({@code _set}).
+     * @param states Slot states ({@code _states}).
+     */
+    static int walkIds(long[] keys, byte[] states, int slot, int rounds, @Nonnull LongPredicate visitor) {
+        if (keys.length == 0) {
+            return 0;
+        }
+
+        int position = slot % keys.length;
+        for (long step = 0; step < (long) rounds * keys.length; step++) {
+            if (states[position] == TPrimitiveHash.FULL && !visitor.test(keys[position])) {
+                return (position + 1) % keys.length;
+            }
+            position = (position + 1) % keys.length;
+        }
+        return position;
+    }
+}
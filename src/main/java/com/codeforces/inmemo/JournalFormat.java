@@ -29,62 +29,17 @@ final class JournalFormat {
     }
 
     static int getBlockRows(Logger logger) {
-        return getIntProperty(logger, BLOCK_ROWS_PROPERTY, DEFAULT_BLOCK_ROWS, 1, MAX_BLOCK_ROWS);
+        return InmemoProperties.getIntProperty(logger, BLOCK_ROWS_PROPERTY, DEFAULT_BLOCK_ROWS, 1, MAX_BLOCK_ROWS);
     }
 
     static int getTargetRawBytes(Logger logger) {
-        return getIntProperty(logger, TARGET_RAW_BYTES_PROPERTY, DEFAULT_TARGET_RAW_BYTES,
+        return InmemoProperties.getIntProperty(logger, TARGET_RAW_BYTES_PROPERTY, DEFAULT_TARGET_RAW_BYTES,
                 MIN_TARGET_RAW_BYTES, MAX_BLOCK_RAW_BYTES / 2);
     }
 
     static long getMaxAgeMillis(Logger logger) {
-        long hours = getLongProperty(logger, MAX_AGE_HOURS_PROPERTY, DEFAULT_MAX_AGE_HOURS, 1L, 24L * 365L);
+        long hours = InmemoProperties.getLongProperty(logger, MAX_AGE_HOURS_PROPERTY, DEFAULT_MAX_AGE_HOURS,
+                1L, 24L * 365L);
         return hours * 60L * 60L * 1000L;
     }
-
-    private static int getIntProperty(Logger logger, String name, int defaultValue, int minValue, int maxValue) {
-        String value = System.getProperty(name);
-        if (value == null) {
-            return defaultValue;
-        }
-
-        try {
-            int parsedValue = Integer.parseInt(value.trim());
-            if (parsedValue < minValue) {
-                logger.warn("Property " + name + "=" + value + " is too small, using " + minValue + '.');
-                return minValue;
-            }
-            if (parsedValue > maxValue) {
-                logger.warn("Property " + name + "=" + value + " is too large, using " + maxValue + '.');
-                return maxValue;
-            }
-            return parsedValue;
-        } catch (NumberFormatException e) {
-            logger.warn("Property " + name + "=" + value + " is invalid, using " + defaultValue + '.', e);
-            return defaultValue;
-        }
-    }
-
-    private static long getLongProperty(Logger logger, String name, long defaultValue, long minValue, long maxValue) {
-        String value = System.getProperty(name);
-        if (value == null) {
-            return defaultValue;
-        }
-
-        try {
-            long parsedValue = Long.parseLong(value.trim());
-            if (parsedValue < minValue) {
-                logger.warn("Property " + name + "=" + value + " is too small, using " + minValue + '.');
-                return minValue;
-            }
-            if (parsedValue > maxValue) {
-                logger.warn("Property " + name + "=" + value + " is too large, using " + maxValue + '.');
-                return maxValue;
-            }
-            return parsedValue;
-        } catch (NumberFormatException e) {
-            logger.warn("Property " + name + "=" + value + " is invalid, using " + defaultValue + '.', e);
-            return defaultValue;
-        }
-    }
 }
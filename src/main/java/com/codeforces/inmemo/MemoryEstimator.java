@@ -0,0 +1,207 @@
+package com.codeforces.inmemo;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Estimates heap sizes of objects without instrumentation. Assumes 64-bit JVM with compressed oops: 12 bytes
+ * object header, 4 bytes reference, 16 bytes array header, 8 bytes alignment. Strings are estimated as in
+ * Java 8 (UTF-16 chars), enums and classes are shared and cost nothing.
+ *
+ * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
+ */
+final class MemoryEstimator {
+    static final int OBJECT_HEADER_BYTES = 12;
+    static final int REFERENCE_BYTES = 4;
+    static final int ARRAY_HEADER_BYTES = 16;
+
+    /**
+     * {@code ConcurrentHashMap} node: header, hash, key, value and next references.
+     */
+    static final int CONCURRENT_MAP_ENTRY_BYTES = align(OBJECT_HEADER_BYTES + 4 + 3 * REFERENCE_BYTES)
+            + REFERENCE_BYTES;
+
+    /**
+     * Objects deeper than this are not followed, only their shallow size counts.
+     */
+    private static final int MAX_DEPTH = 4;
+
+    private static final ConcurrentMap<Class<?>, ClassLayout> layouts = new ConcurrentHashMap<>();
+
+    private MemoryEstimator() {
+        // No operations.
+    }
+
+    static int align(long bytes) {
+        return (int) ((bytes + 7) & ~7L);
+    }
+
+    /**
+     * @return Estimated size of the object and the objects it references.
+     */
+    static long sizeOf(Object value) {
+        return sizeOf(value, 0);
+    }
+
+    /**
+     * @return Size of an instance of the class without the objects it references.
+     */
+    static long shallowSizeOf(Class<?> clazz) {
+        return layouts.computeIfAbsent(clazz, ClassLayout::new).shallowBytes;
+    }
+
+    /**
+     * @return Bytes taken by the arrays of Trove open addressing hash set or map of the given capacity.
+     */
+    static long troveHashBytes(int capacity, int... elementBytes) {
+        long result = align(ARRAY_HEADER_BYTES + capacity);
+        for (int bytes : elementBytes) {
+            result += align(ARRAY_HEADER_BYTES + (long) capacity * bytes);
+        }
+        return result;
+    }
+
+    private static long sizeOf(Object value, int depth) {
+        if (value == null) {
+            return 0;
+        }
+
+        Class<?> clazz = value.getClass();
+
+        if (clazz == String.class) {
+            return align(OBJECT_HEADER_BYTES + 4 + 4 + REFERENCE_BYTES)
+                    + align(ARRAY_HEADER_BYTES + 2L * ((String) value).length());
+        }
+        if (value instanceof Enum || value instanceof Class) {
+            return 0;
+        }
+        if (clazz == Long.class || clazz == Double.class) {
+            return 24;
+        }
+        if (clazz == Integer.class || clazz == Float.class || clazz == Short.class || clazz == Byte.class
+                || clazz == Character.class || clazz == Boolean.class) {
+            return 16;
+        }
+        if (clazz == Timestamp.class) {
+            return 32;
+        }
+        if (value instanceof Date) {
+            return 24;
+        }
+
+        if (clazz.isArray()) {
+            int length = Array.getLength(value);
+            Class<?> componentType = clazz.getComponentType();
+            if (componentType.isPrimitive()) {
+                return align(ARRAY_HEADER_BYTES + (long) length * primitiveBytes(componentType));
+            }
+
+            long result = align(ARRAY_HEADER_BYTES + (long) length * REFERENCE_BYTES);
+            if (depth < MAX_DEPTH) {
+                for (int i = 0; i < length; i++) {
+                    result += sizeOf(Array.get(value, i), depth + 1);
+                }
+            }
+            return result;
+        }
+
+        if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            long result = align(OBJECT_HEADER_BYTES + 4 * REFERENCE_BYTES)
+                    + align(ARRAY_HEADER_BYTES + (long) collection.size() * REFERENCE_BYTES);
+            if (depth < MAX_DEPTH) {
+                for (Object element : collection) {
+                    result += sizeOf(element, depth + 1);
+                }
+            }
+            return result;
+        }
+
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            long result = align(OBJECT_HEADER_BYTES + 4 * REFERENCE_BYTES)
+                    + (long) map.size() * CONCURRENT_MAP_ENTRY_BYTES;
+            if (depth < MAX_DEPTH) {
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    result += sizeOf(entry.getKey(), depth + 1) + sizeOf(entry.getValue(), depth + 1);
+                }
+            }
+            return result;
+        }
+
+        ClassLayout layout = layouts.computeIfAbsent(clazz, ClassLayout::new);
+        long result = layout.shallowBytes;
+        if (depth < MAX_DEPTH && layout.referenceFields != null) {
+            for (Field field : layout.referenceFields) {
+                try {
+                    result += sizeOf(field.get(value), depth + 1);
+                } catch (IllegalAccessException ignored) {
+                    // No operations: count only the reference.
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int primitiveBytes(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else {
+            return 1;
+        }
+    }
+
+    private static final class ClassLayout {
+        private final int shallowBytes;
+
+        // Null if the fields are inaccessible, then only the shallow size is counted.
+        private final List<Field> referenceFields;
+
+        private ClassLayout(Class<?> clazz) {
+            long bytes = OBJECT_HEADER_BYTES;
+            List<Field> fields = new ArrayList<>();
+
+            for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+
+                    Class<?> type = field.getType();
+                    if (type.isPrimitive()) {
+                        bytes += primitiveBytes(type);
+                    } else {
+                        bytes += REFERENCE_BYTES;
+                        fields.add(field);
+                    }
+                }
+            }
+
+            List<Field> accessibleFields = fields;
+            try {
+                for (Field field : fields) {
+                    field.setAccessible(true);
+                }
+            } catch (RuntimeException e) {
+                // Module system denies access to JDK internals.
+                accessibleFields = null;
+            }
+
+            shallowBytes = align(bytes);
+            referenceFields = accessibleFields;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.codeforces.inmemo;
+
+/**
+ * Estimated memory taken by a table or by an index, see {@link Inmemo#getMemoryStats(Class)} and
+ * {@link Inmemo#getIndexMemoryStats(Class)}. The figures are estimates: sizes of items are sampled and
+ * extrapolated, a 64-bit JVM with compressed oops is assumed.
+ *
+ * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
+ */
+@SuppressWarnings("WeakerAccess")
+public final class MemoryStats {
+    private final String name;
+    private final long items;
+    private final long buckets;
+    private final long keyBytes;
+    private final long bucketOverheadBytes;
+    private final long itemPayloadBytes;
+    private final long offHeapBytes;
+
+    MemoryStats(String name, long items, long buckets, long keyBytes, long bucketOverheadBytes,
+                long itemPayloadBytes, long offHeapBytes) {
+        this.name = name;
+        this.items = items;
+        this.buckets = buckets;
+        this.keyBytes = keyBytes;
+        this.bucketOverheadBytes = bucketOverheadBytes;
+        this.itemPayloadBytes = itemPayloadBytes;
+        this.offHeapBytes = offHeapBytes;
+    }
+
+    /**
+     * @return Table class name or index name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Number of table items or number of items referenced by the index.
+     */
+    public long getItems() {
+        return items;
+    }
+
+    /**
+     * @return Number of distinct index values, zero for tables.
+     */
+    public long getBuckets() {
+        return buckets;
+    }
+
+    /**
+     * @return Bytes of index values, zero for tables: the item store keeps the ids (see bucket overhead).
+     */
+    public long getKeyBytes() {
+        return keyBytes;
+    }
+
+    /**
+     * @return Bytes of the maps and arrays holding the items (or their ids), without the items themselves.
+     */
+    public long getBucketOverheadBytes() {
+        return bucketOverheadBytes;
+    }
+
+    /**
+     * @return Heap bytes of the items, zero for indices since they share the table items.
+     */
+    public long getItemPayloadBytes() {
+        return itemPayloadBytes;
+    }
+
+    /**
+     * @return Bytes of the items stored outside of the heap.
+     */
+    public long getOffHeapBytes() {
+        return offHeapBytes;
+    }
+
+    /**
+     * @return Estimated heap bytes.
+     */
+    public long getTotalBytes() {
+        return keyBytes + bucketOverheadBytes + itemPayloadBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryStats{name=" + name
+                + ", items=" + items
+                + ", buckets=" + buckets
+                + ", keyBytes=" + keyBytes
+                + ", bucketOverheadBytes=" + bucketOverheadBytes
+                + ", itemPayloadBytes=" + itemPayloadBytes
+                + ", offHeapBytes=" + offHeapBytes
+                + ", totalBytes=" + getTotalBytes()
+                + '}';
+    }
+}
@@ -0,0 +1,266 @@
+package com.codeforces.inmemo;
+
+import gnu.trove.iterator.TLongLongIterator;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongLongHashMap;
+import org.apache.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongPredicate;
+
+/**
+ * Keeps items serialized by {@link ItemCodec} in direct memory chunks outside of the heap, the heap holds only
+ * the id to address map. Records are appended, so an update leaves the previous record as garbage; while the
+ * garbage exceeds the live records, each write compacts one chunk having the least live records (moves them to
+ * the current chunk and releases it). An item is decoded into a new instance on each {@link #get(long)}.
+ * <p>
+ * Direct memory is limited by {@code -XX:MaxDirectMemorySize}, set it up for the large tables.
+ * </p>
+ * <p>
+ * Readers don't take the table lock: they read optimistically and retry under the read lock if a write
+ * happened meanwhile.
+ * </p>
+ *
+ * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
+ */
+final class OffHeapItemStore<T extends HasId> implements ItemStore<T> {
+    private static final Logger logger = Logger.getLogger(OffHeapItemStore.class);
+
+    static final String CHUNK_BYTES_PROPERTY = "Inmemo.OffHeapChunkBytes";
+    private static final int DEFAULT_CHUNK_BYTES = 64 * 1024 * 1024;
+
+    private static final long NO_ADDRESS = -1L;
+
+    private final Class<T> clazz;
+    private final ItemCodec<T> codec;
+    private final int chunkBytes;
+    private final StampedLock stampedLock = new StampedLock();
+    private final TLongLongHashMap addressById = new TLongLongHashMap(16, 0.5F, 0L, NO_ADDRESS);
+
+    // Released chunks are nulls, their indices are reused: the addresses keep the chunk index.
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private final TLongList chunkLiveBytes = new TLongArrayList();
+    private final TIntList freeChunks = new TIntArrayList();
+    private int currentChunk = -1;
+    private ByteBuffer encodeBuffer = ByteBuffer.allocate(256);
+    private long liveBytes;
+    private long usedBytes;
+
+    OffHeapItemStore(Class<T> clazz) {
+        this.clazz = clazz;
+        this.codec = new ItemCodec<>(clazz);
+        this.chunkBytes = InmemoProperties.getIntProperty(logger, CHUNK_BYTES_PROPERTY, DEFAULT_CHUNK_BYTES,
+                64 * 1024, 1 << 30);
+    }
+
+    @Override
+    public T put(@Nonnull T item) {
+        long stamp = stampedLock.writeLock();
+        try {
+            encodeBuffer = codec.encode(item, encodeBuffer);
+            int length = encodeBuffer.position();
+
+            long previousAddress = addressById.get(item.getId());
+            T previousItem = null;
+            if (previousAddress != NO_ADDRESS) {
+                previousItem = read(previousAddress);
+                release(previousAddress);
+            }
+
+            encodeBuffer.flip();
+            addressById.put(item.getId(), append(encodeBuffer, length));
+            liveBytes += 4 + length;
+
+            if (usedBytes > chunkBytes && usedBytes - liveBytes > liveBytes) {
+                compactChunk();
+            }
+
+            return previousItem;
+        } finally {
+            stampedLock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public T remove(long id) {
+        long stamp = stampedLock.writeLock();
+        try {
+            long address = addressById.remove(id);
+            if (address == NO_ADDRESS) {
+                return null;
+            }
+
+            T item = read(address);
+            release(address);
+            return item;
+        } finally {
+            stampedLock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public T get(long id) {
+        long stamp = stampedLock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                long address = addressById.get(id);
+                T item = address == NO_ADDRESS ? null : read(address);
+                if (stampedLock.validate(stamp)) {
+                    return item;
+                }
+            } catch (RuntimeException ignored) {
+                // Inconsistent state has been read, retry under the lock.
+            }
+        }
+
+        stamp = stampedLock.readLock();
+        try {
+            long address = addressById.get(id);
+            return address == NO_ADDRESS ? null : read(address);
+        } finally {
+            stampedLock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int size() {
+        return addressById.size();
+    }
+
+    @Override
+    public long[] ids() {
+        return addressById.keys();
+    }
+
+    @Override
+    public int walkIds(int slot, int rounds, @Nonnull LongPredicate visitor) {
+        return ItemStore.walkIds(addressById._set, addressById._states, slot, rounds, visitor);
+    }
+
+    @Override
+    public boolean isDetached() {
+        return true;
+    }
+
+    @Override
+    public long getOverheadBytes() {
+        return MemoryEstimator.troveHashBytes(addressById.capacity(), Long.BYTES, Long.BYTES)
+                + encodeBuffer.capacity();
+    }
+
+    @Override
+    public long estimatePayloadBytes(int sampleSize) {
+        return 0;
+    }
+
+    @Override
+    public long getPayloadBytes(long id) {
+        return 0;
+    }
+
+    @Override
+    public long getOffHeapBytes() {
+        long result = 0;
+        for (ByteBuffer chunk : chunks) {
+            if (chunk != null) {
+                result += chunk.capacity();
+            }
+        }
+        return result;
+    }
+
+    private long append(ByteBuffer record, int length) {
+        ByteBuffer chunk = currentChunk == -1 ? null : chunks.get(currentChunk);
+        if (chunk == null || chunk.remaining() < 4 + length) {
+            chunk = ByteBuffer.allocateDirect(Math.max(chunkBytes, 4 + length));
+            if (freeChunks.isEmpty()) {
+                currentChunk = chunks.size();
+                chunks.add(chunk);
+                chunkLiveBytes.add(0L);
+            } else {
+                currentChunk = freeChunks.removeAt(freeChunks.size() - 1);
+                chunks.set(currentChunk, chunk);
+            }
+        }
+
+        long address = ((long) currentChunk << 32) | chunk.position();
+        chunk.putInt(length);
+        chunk.put(record);
+        usedBytes += 4 + length;
+        chunkLiveBytes.set(currentChunk, chunkLiveBytes.get(currentChunk) + 4 + length);
+        return address;
+    }
+
+    private T read(long address) {
+        ByteBuffer record = chunks.get((int) (address >>> 32)).duplicate();
+        int position = (int) address;
+        int length = record.getInt(position);
+        if (length < 0 || position + 4 + length > record.capacity()) {
+            throw new InmemoException("Illegal off-heap record [class=" + clazz + ", address=" + address + "].");
+        }
+
+        record.limit(position + 4 + length);
+        record.position(position + 4);
+        return codec.decode(record);
+    }
+
+    /**
+     * Makes the record garbage.
+     */
+    private void release(long address) {
+        int chunk = (int) (address >>> 32);
+        int bytes = 4 + chunks.get(chunk).getInt((int) address);
+        liveBytes -= bytes;
+        chunkLiveBytes.set(chunk, chunkLiveBytes.get(chunk) - bytes);
+    }
+
+    /**
+     * Moves the live records of the chunk having the least of them to the current chunk and releases it, called
+     * under the write lock. A chunk which is mostly live (or the current one) is left as is.
+     */
+    private void compactChunk() {
+        int victim = -1;
+        for (int i = 0; i < chunks.size(); i++) {
+            if (i != currentChunk && chunks.get(i) != null
+                    && (victim == -1 || chunkLiveBytes.get(i) < chunkLiveBytes.get(victim))) {
+                victim = i;
+            }
+        }
+
+        if (victim == -1 || chunkLiveBytes.get(victim) * 2 > chunks.get(victim).position()) {
+            return;
+        }
+
+        long startTimeMillis = System.currentTimeMillis();
+        ByteBuffer chunk = chunks.get(victim);
+        long movedBytes = chunkLiveBytes.get(victim);
+
+        for (TLongLongIterator i = addressById.iterator(); i.hasNext(); ) {
+            i.advance();
+            if ((int) (i.value() >>> 32) == victim) {
+                ByteBuffer record = chunk.duplicate();
+                int position = (int) i.value();
+                int length = record.getInt(position);
+                record.limit(position + 4 + length);
+                record.position(position + 4);
+                i.setValue(append(record, length));
+            }
+        }
+
+        usedBytes -= chunk.position();
+        chunks.set(victim, null);
+        chunkLiveBytes.set(victim, 0L);
+        freeChunks.add(victim);
+
+        logger.info("Off-heap chunk has been compacted in " + (System.currentTimeMillis() - startTimeMillis)
+                + " ms [class=" + clazz.getName() + ", chunkBytes=" + chunk.position() + ", movedBytes="
+                + movedBytes + ", usedBytes=" + usedBytes + "].");
+    }
+}
@@ -0,0 +1,119 @@
+package com.codeforces.inmemo;
+
+import org.apache.log4j.Logger;
+import org.jacuzzi.core.RowRoll;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Long-lived database connection of a table updater with its prepared statements, so the polling queries
+ * (repeated several times per second) are parsed and planned only once. After a failure the connection is closed
+ * and the query is retried once on a new connection with the statements prepared again. Once closed (i.e. by
+ * {@code TableUpdater.stop()}) it is never reopened, the queries throw {@link IllegalStateException}.
+ * <p>
+ * The connection is used in auto-commit mode, so each query sees the latest committed rows. Rows are built the
+ * same way as {@code Jacuzzi#findRowRoll} does.
+ * </p>
+ *
+ * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
+ */
+final class PinnedConnection implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(PinnedConnection.class);
+
+    private final DataSource dataSource;
+    private final String name;
+
+    private Connection connection;
+    private boolean closed;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    PinnedConnection(DataSource dataSource, String name) {
+        this.dataSource = dataSource;
+        this.name = name;
+    }
+
+    synchronized RowRoll findRowRoll(String sql, Object... args) {
+        try {
+            return query(sql, args);
+        } catch (SQLException e) {
+            logger.warn("Pinned connection of " + name + " failed, reconnecting [sql=" + sql + "]: " + e);
+            disconnect();
+        }
+
+        try {
+            return query(sql, args);
+        } catch (SQLException e) {
+            disconnect();
+            throw new InmemoException("Can't find rows [sql=" + sql + "].", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        disconnect();
+    }
+
+    private void disconnect() {
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+                // No operations.
+            }
+        }
+        statements.clear();
+
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+                // No operations.
+            }
+            connection = null;
+        }
+    }
+
+    private RowRoll query(String sql, Object[] args) throws SQLException {
+        PreparedStatement statement = getStatement(sql);
+        for (int i = 0; i < args.length; i++) {
+            statement.setObject(i + 1, args[i]);
+        }
+
+        try (ResultSet resultSet = statement.executeQuery()) {
+            String[] keys = RowStream.getKeys(resultSet);
+            RowRoll rows = RowStream.newBatch(keys);
+            while (resultSet.next()) {
+                rows.addRow(RowStream.readRow(resultSet, keys));
+            }
+            return rows;
+        }
+    }
+
+    private PreparedStatement getStatement(String sql) throws SQLException {
+        if (closed) {
+            throw new IllegalStateException("Pinned connection of " + name + " has been closed [sql=" + sql + "].");
+        }
+
+        if (connection == null) {
+            connection = dataSource.getConnection();
+            if (!connection.getAutoCommit()) {
+                connection.setAutoCommit(true);
+            }
+            logger.info("Pinned connection of " + name + " has been opened.");
+        }
+
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+}
@@ -96,7 +96,7 @@ final class ReflectionUtil {
         return result;
     }
 
-    private static Map<String, FastMethod> getGettersMap(Class<?> clazz) {
+    static Map<String, FastMethod> getGettersMap(Class<?> clazz) {
         Map<String, FastMethod> result = gettersCache.get(clazz);
 
         while (result == null) {
@@ -126,7 +126,7 @@ final class ReflectionUtil {
         return result;
     }
 
-    private static Map<String, FastMethod> getSettersMap(Class<?> clazz) {
+    static Map<String, FastMethod> getSettersMap(Class<?> clazz) {
         Map<String, FastMethod> result = settersCache.get(clazz);
 
         while (result == null) {
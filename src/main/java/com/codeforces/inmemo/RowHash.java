@@ -0,0 +1,98 @@
+package com.codeforces.inmemo;
+
+import org.jacuzzi.core.Row;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * 64-bit content hash of a row, used to skip rows which have been read again without any change. Equal rows
+ * with the same column order always have the same hash, the different rows collide with negligible probability.
+ *
+ * @author MikeMirzayanov (mirzayanovmr@gmail.com)
+ */
+final class RowHash {
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+    private static final long MULTIPLIER = 0xC2B2AE3D27D4EB4FL;
+    private static final long NULL_HASH = 0x27BB2EE687B0B0FDL;
+
+    private RowHash() {
+        // No operations.
+    }
+
+    static long of(Row row) {
+        long hash = SEED;
+        for (Map.Entry<String, Object> entry : row.entrySet()) {
+            hash = combine(hash, entry.getKey().hashCode());
+            hash = combine(hash, valueHash(entry.getValue()));
+        }
+        return mix(hash);
+    }
+
+    private static long valueHash(Object value) {
+        if (value == null) {
+            return NULL_HASH;
+        }
+
+        if (value instanceof String) {
+            String s = (String) value;
+            long hash = s.length();
+            for (int i = 0; i < s.length(); i++) {
+                hash = hash * 31 + s.charAt(i);
+            }
+            return mix(hash);
+        }
+
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+
+        if (value instanceof Double || value instanceof Float) {
+            return Double.doubleToLongBits(((Number) value).doubleValue());
+        }
+
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1231 : 1237;
+        }
+
+        if (value instanceof java.sql.Timestamp) {
+            java.sql.Timestamp timestamp = (java.sql.Timestamp) value;
+            return combine(timestamp.getTime(), timestamp.getNanos());
+        }
+
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+
+        if (value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            return combine(decimal.unscaledValue().hashCode(), decimal.scale());
+        }
+
+        if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            long hash = bytes.length;
+            for (byte b : bytes) {
+                hash = hash * 31 + b;
+            }
+            return mix(hash);
+        }
+
+        return combine(value.getClass().hashCode(), value.hashCode());
+    }
+
+    private static long combine(long hash, long value) {
+        return (hash ^ mix(value)) * MULTIPLIER;
+    }
+
+    // Finalizer of MurmurHash3 (fmix64).
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -3,6 +3,9 @@ package com.codeforces.inmemo;
 import org.jacuzzi.core.Row;
 
 import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
@@ -11,10 +14,20 @@ import javax.annotation.Nonnull;
 public class RowListener {
     private final String name;
     private final Listener listener;
+    private final List<String> columns;
 
     public RowListener(@Nonnull String name, @Nonnull Listener listener) {
+        this(name, listener, new String[0]);
+    }
+
+    /**
+     * @param columns Columns the listener reads besides the item properties, they are selected if the table uses
+     *                {@link Inmemo#setColumnProjection(Class) column projection}.
+     */
+    public RowListener(@Nonnull String name, @Nonnull Listener listener, @Nonnull String... columns) {
         this.name = name;
         this.listener = listener;
+        this.columns = Collections.unmodifiableList(Arrays.asList(columns.clone()));
     }
 
     public void insertOrUpdate(@Nonnull Row row) {
@@ -25,6 +38,10 @@ public class RowListener {
         return name;
     }
 
+    public List<String> getColumns() {
+        return columns;
+    }
+
     public interface Listener {
         void onInsertOrUpdate(@Nonnull Row row);
     }
@@ -0,0 +1,198 @@
+package com.codeforces.inmemo;
+
+import org.apache.log4j.Logger;
+import org.jacuzzi.core.Row;
+import org.jacuzzi.core.RowRoll;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the query result in a background task and passes it by small batches, so the rows are applied while the
+ * rest of the result is still being fetched. The result set is read with a fetch size, at most
+ * {@link #QUEUE_CAPACITY} batches wait for the consumer.
+ * <p>
+ * A result read to the end within a single call is streamed row by row for MySQL ({@code Integer.MIN_VALUE}
+ * fetch size). A result read by a batch per scheduler turn is not: an open server-side stream would hit
+ * {@code net_write_timeout} between the turns, and closing it early would drain the rest of it. Such a result
+ * is read with a positive fetch size: MySQL Connector/J fetches by it with {@code useCursorFetch=true} in the
+ * connection URL, otherwise it reads the whole result at once, so the query should have a limit.
+ * </p>
+ * <p>
+ * Rows are built the same way as {@code Jacuzzi#findRowRoll} does: keys are column labels, values are
+ * {@code ResultSet#getObject}. The stream holds a database connection until it is read to the end or closed.
+ * </p>
+ *
+ * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
+ */
+final class RowStream implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(RowStream.class);
+
+    private static final int QUEUE_CAPACITY = 2;
+
+    /**
+     * The producer gives up if the consumer takes no batch for so long (i.e. the updater has been stopped).
+     */
+    private static final long STALL_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    // Marks the end of the result.
+    private static final RowRoll END = new RowRoll();
+
+    private final String sql;
+    private final BlockingQueue<RowRoll> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private boolean finished;
+    private int rowCount;
+
+    /**
+     * @param readAtOnce {@code true} iff the consumer reads the whole result within a single call.
+     */
+    RowStream(ExecutorService executor, DataSource dataSource, String sql, Object[] args, int batchRows,
+              boolean readAtOnce) {
+        this.sql = sql;
+        executor.execute(() -> produce(dataSource, args, batchRows, readAtOnce));
+    }
+
+    /**
+     * @return Next batch of rows or {@code null} if the result is over.
+     */
+    RowRoll nextBatch() {
+        if (finished) {
+            return null;
+        }
+
+        RowRoll batch;
+        try {
+            batch = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new InmemoException("Interrupted while reading rows [sql=" + sql + "].", e);
+        }
+
+        if (batch == END) {
+            finished = true;
+            if (failure != null) {
+                throw new InmemoException("Can't read rows [sql=" + sql + "].", failure);
+            }
+            return null;
+        }
+
+        rowCount += batch.size();
+        return batch;
+    }
+
+    /**
+     * @return Number of rows passed to the consumer.
+     */
+    int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        finished = true;
+        queue.clear();
+    }
+
+    private void produce(DataSource dataSource, Object[] args, int batchRows, boolean readAtOnce) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql,
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // MySQL Connector/J streams the result only with this special fetch size.
+            boolean mysql = "MySQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName());
+            statement.setFetchSize(mysql && readAtOnce ? Integer.MIN_VALUE : batchRows);
+            for (int i = 0; i < args.length; i++) {
+                statement.setObject(i + 1, args[i]);
+            }
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                String[] keys = getKeys(resultSet);
+
+                RowRoll batch = newBatch(keys);
+                int batchSize = 0;
+                while (!closed && resultSet.next()) {
+                    batch.addRow(readRow(resultSet, keys));
+
+                    if (++batchSize == batchRows) {
+                        offer(batch);
+                        batch = newBatch(keys);
+                        batchSize = 0;
+                    }
+                }
+
+                if (batchSize > 0) {
+                    offer(batch);
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            failure = e;
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                offer(END);
+            } catch (InterruptedException e) {
+                closed = true;
+            }
+            if (closed) {
+                // Nobody waits for the rows.
+                queue.clear();
+                queue.offer(END);
+            }
+        }
+    }
+
+    private void offer(RowRoll batch) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + STALL_TIMEOUT_MILLIS;
+        while (!closed) {
+            if (queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                failure = new InmemoException("Rows are not consumed for " + STALL_TIMEOUT_MILLIS
+                        + " ms, stop reading [sql=" + sql + "].");
+                logger.warn(failure.getMessage());
+                closed = true;
+            }
+        }
+    }
+
+    /**
+     * @return Row keys as {@code Jacuzzi#findRowRoll} makes them: the column labels.
+     */
+    static String[] getKeys(ResultSet resultSet) throws SQLException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        String[] keys = new String[metaData.getColumnCount()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = metaData.getColumnLabel(i + 1);
+        }
+        return keys;
+    }
+
+    static Row readRow(ResultSet resultSet, String[] keys) throws SQLException {
+        Row row = new Row(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            row.put(keys[i], resultSet.getObject(i + 1));
+        }
+        return row;
+    }
+
+    static RowRoll newBatch(String[] keys) {
+        RowRoll batch = new RowRoll();
+        batch.setKeys(keys);
+        return batch;
+    }
+}
@@ -1,7 +1,5 @@
 package com.codeforces.inmemo;
 
-import gnu.trove.set.TLongSet;
-import gnu.trove.set.hash.TLongHashSet;
 import org.apache.log4j.Logger;
 import org.jacuzzi.core.Row;
 import org.jacuzzi.core.RowRoll;
@@ -13,14 +11,26 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 
 /**
@@ -31,7 +41,45 @@ public class Table<T extends HasId> {
     private static final Logger logger = Logger.getLogger(Table.class);
     private static final Pattern INDICATOR_FIELD_SPLIT_PATTERN = Pattern.compile("@");
 
+    /**
+     * Smaller batches are converted and indexed in the calling thread. It is well below the preload stream batch
+     * ({@code Inmemo.StreamBatchRows}, 1000 rows by default), so the preload batches go to the batch workers.
+     */
+    private static final int PARALLEL_BATCH_MIN_SIZE = 256;
+
+    /**
+     * Online index build takes the lock for this number of items at a time.
+     */
+    private static final int INDEX_BUILD_CHUNK_SIZE = 10_000;
+
+    /**
+     * Memory budget is checked after the table has this number of items, then the estimate of item size is
+     * refreshed each time the table doubles.
+     */
+    private static final int EVICTION_MIN_ESTIMATE_ITEMS = 1024;
+
+    static final String MEMORY_SAMPLE_SIZE_PROPERTY = "Inmemo.MemorySampleSize";
+    private static final int DEFAULT_MEMORY_SAMPLE_SIZE = 1000;
+
+    private static final int BATCH_WORKER_COUNT = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final AtomicInteger batchWorkerCount = new AtomicInteger();
+    private static final ExecutorService batchExecutor = Executors.newFixedThreadPool(
+            BATCH_WORKER_COUNT, runnable -> {
+                Thread thread = new Thread(runnable, "InmemoBatchWorker#" + batchWorkerCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // Not the batch workers: a builder waits for the lock, and the lock holder may wait for the batch workers.
+    private static final AtomicInteger indexBuilderCount = new AtomicInteger();
+    private static final ExecutorService indexBuildExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "InmemoIndexBuilder#" + indexBuilderCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final Lock lock = new ReentrantLock();
+    private final AtomicLong parallelBatchCount = new AtomicLong();
 
     private final Map<String, Index<T, ?>> indices = new ConcurrentHashMap<>();
     private final List<RowListener> rowListeners = new ArrayList<>();
@@ -42,10 +90,33 @@ public class Table<T extends HasId> {
     private final String indicatorField;
     private final String databaseIndex;
     private final Inmemo.Filter<T> rowFilter;
+    private final ValueInterner valueInterner;
 
     private TableUpdater<T> tableUpdater;
     private volatile boolean preloaded;
-    private final TLongSet ids;
+    private final CompletableFuture<Void> preloadFuture = new CompletableFuture<>();
+    private final boolean sizeSupported;
+
+    // Current item by id, written under lock.
+    private final ItemStore<T> items;
+    // Number of the stored items, published on commit to be read without lock.
+    private volatile int size;
+
+    // Not null iff the table has a memory budget, see Inmemo#setMemoryBudget.
+    private final ItemEvictor evictor;
+    private int itemBytesEstimatedAtSize = EVICTION_MIN_ESTIMATE_ITEMS / 2;
+    // Payload bytes of the stored items, kept under lock iff the table has a memory budget.
+    private long payloadBytes;
+
+    // Each item write gets the next version, snapshots are pinned to committedVersion.
+    private volatile long writingVersion;
+    private volatile long committedVersion;
+    private final VersionLog<T> versionLog = new VersionLog<>(() -> committedVersion);
+
+    // Snapshots opened while an item write is in progress wait for its commit.
+    private final Lock commitLock = new ReentrantLock();
+    private final Condition commitCondition = commitLock.newCondition();
+    private final AtomicInteger commitWaiterCount = new AtomicInteger();
 
     private JournalWriter journalWriter;
     private boolean useJournal = true;
@@ -89,8 +160,14 @@ public class Table<T extends HasId> {
             this.databaseIndex = null;
         }
         clazzSpec = ReflectionUtil.getTableClassSpec(clazz);
-        ids = Inmemo.getNoSizeSupportClasses().contains(clazz) ? null : new TLongHashSet();
+        sizeSupported = !Inmemo.getNoSizeSupportClasses().contains(clazz);
+        ItemStorage itemStorage = Inmemo.getItemStorage(clazz);
+        items = itemStorage == null ? new HeapItemStore<>() : itemStorage.createStore(clazz);
+        Long memoryBudget = Inmemo.getMemoryBudget(clazz);
+        evictor = memoryBudget == null ? null : new ItemEvictor(memoryBudget);
         this.rowFilter = rowFilter;
+        Set<String> internedFields = Inmemo.getValueInterningFields(clazz);
+        valueInterner = internedFields == null ? null : ValueInterner.create(clazz, internedFields);
         if (Inmemo.isJournalSupportUnset(clazz)) {
             useJournal = false;
             deleteStaleJournalFileQuietly();
@@ -126,7 +203,8 @@ public class Table<T extends HasId> {
 
     void startAppendJournalWriter() {
         if (useJournal) {
-            setJournalWriter(JournalWriter.append(new File(journalsDir, getInmemoFilename()), clazz, clazzSpec));
+            setJournalWriter(JournalWriter.append(new File(journalsDir, getInmemoFilename()), clazz,
+                    getJournalClassSpec()));
         }
     }
 
@@ -159,6 +237,29 @@ public class Table<T extends HasId> {
         this.preloaded = preloaded;
     }
 
+    /**
+     * Completes the preload future. The updater calls it out of its lock, as the dependent actions (i.e. the
+     * next preload of {@link Inmemo#createTables(List, int)}) run in the calling thread.
+     */
+    void completePreload() {
+        preloadFuture.complete(null);
+    }
+
+    /**
+     * Completes the preload future exceptionally unless it is already completed.
+     */
+    void failPreload(Throwable cause) {
+        preloadFuture.completeExceptionally(cause);
+    }
+
+    /**
+     * @return Future completed when the table is preloaded.
+     */
+    CompletableFuture<Void> getPreloadFuture() {
+        // A dependent future, so the callers can't complete the table one.
+        return preloadFuture.thenApply(Function.identity());
+    }
+
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
     boolean isCompatibleItemClass(Class<? extends HasId> otherItemClass) {
         return clazz == otherItemClass
@@ -191,6 +292,123 @@ public class Table<T extends HasId> {
         index.setTable(this);
     }
 
+    /**
+     * Adds index to the live table. The index is registered at once, so all the following writes maintain it,
+     * and the items stored before are added in background by chunks under the lock, each in its current state
+     * (the same as a writer would put). Queries against the index throw {@link IndexNotReadyException} until
+     * the build is completed. A duplicate in a unique index, met either by the build or by a writer, fails the
+     * build and drops the index; the writer isn't failed.
+     */
+    <V> CompletableFuture<Void> addIndexOnline(Index<T, V> index) {
+        long[] buildIds;
+
+        lock.lock();
+        try {
+            if (indices.containsKey(index.getName())) {
+                throw new IllegalArgumentException("Index `" + index.getName() + "` already exists [tableClass="
+                        + ReflectionUtil.getTableClassName(clazz) + "].");
+            }
+
+            index.setTable(this);
+            index.setReady(false);
+            indices.put(index.getName(), index);
+            buildIds = items.ids();
+        } finally {
+            lock.unlock();
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        indexBuildExecutor.execute(() -> buildIndex(index, buildIds, future));
+        return future;
+    }
+
+    private void buildIndex(Index<T, ?> index, long[] buildIds, CompletableFuture<Void> future) {
+        long startTimeMillis = System.currentTimeMillis();
+
+        try {
+            if (buildIds.length == 0) {
+                // Nothing to add, but the writers may have put a duplicate since the index was registered.
+                if (!buildIndexChunk(index, buildIds, 0, 0)) {
+                    future.cancel(false);
+                    return;
+                }
+            }
+
+            for (int from = 0; from < buildIds.length; from += INDEX_BUILD_CHUNK_SIZE) {
+                int to = Math.min(buildIds.length, from + INDEX_BUILD_CHUNK_SIZE);
+                if (!buildIndexChunk(index, buildIds, from, to)) {
+                    future.cancel(false);
+                    return;
+                }
+            }
+
+            logger.info("Index `" + index.getName() + "` has been built in "
+                    + (System.currentTimeMillis() - startTimeMillis) + " ms [tableClass="
+                    + ReflectionUtil.getTableClassName(clazz) + ", items=" + buildIds.length + "].");
+            future.complete(null);
+        } catch (RuntimeException e) {
+            lock.lock();
+            try {
+                indices.remove(index.getName(), index);
+            } finally {
+                lock.unlock();
+            }
+
+            logger.error("Index `" + index.getName() + "` can't be built, it has been dropped [tableClass="
+                    + ReflectionUtil.getTableClassName(clazz) + "].", e);
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Adds the items {@code buildIds[from, to)} to the index under the lock, the index gets ready after the last
+     * chunk unless it has met a duplicate.
+     *
+     * @return {@code false} iff the index has been dropped.
+     */
+    private boolean buildIndexChunk(Index<T, ?> index, long[] buildIds, int from, int to) {
+        lock.lock();
+        try {
+            if (indices.get(index.getName()) != index) {
+                logger.info("Index `" + index.getName() + "` has been dropped while building [tableClass="
+                        + ReflectionUtil.getTableClassName(clazz) + "].");
+                return false;
+            }
+
+            for (int i = from; i < to; i++) {
+                // Current state: writers have already put the newer ones into the index.
+                T item = items.get(buildIds[i]);
+                if (item != null) {
+                    index.insertOrUpdate(null, item);
+                }
+            }
+
+            InmemoException violation = index.getBuildViolation();
+            if (violation != null) {
+                throw violation;
+            }
+
+            if (to == buildIds.length) {
+                index.setReady(true);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return {@code true} iff there was such index (ready or being built).
+     */
+    boolean dropIndex(String indexName) {
+        lock.lock();
+        try {
+            return indices.remove(indexName) != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     void add(RowListener rowListener) {
         rowListeners.add(rowListener);
     }
@@ -203,8 +421,41 @@ public class Table<T extends HasId> {
         return !rowListeners.isEmpty();
     }
 
+    /**
+     * @return Columns declared by the row listeners and the row filter.
+     */
+    List<String> getRowColumns() {
+        List<String> columns = new ArrayList<>();
+        for (RowListener rowListener : rowListeners) {
+            columns.addAll(rowListener.getColumns());
+        }
+        if (rowFilter != null) {
+            columns.addAll(rowFilter.getRowColumns());
+        }
+        return columns;
+    }
+
     boolean hasSize() {
-        return ids != null;
+        return sizeSupported;
+    }
+
+    /**
+     * @return {@code true} iff indices should keep item ids and get the items by {@link #getItem(long)}.
+     */
+    boolean isDetachedItemStore() {
+        return items.isDetached();
+    }
+
+    @Nullable
+    T getItem(long id) {
+        return items.get(id);
+    }
+
+    /**
+     * @return {@code true} if the table has the item (maybe evicted).
+     */
+    boolean containsItem(long id) {
+        return items.get(id) != null || (evictor != null && evictor.isEvicted(id));
     }
 
     <U extends HasId> void insertOrUpdate(@Nonnull U item, @Nullable Row row) {
@@ -215,6 +466,9 @@ public class Table<T extends HasId> {
             T tableItem = ReflectionUtil.newInstance(clazz);
             ReflectionUtil.copyProperties(item, tableItem);
             if (rowFilter == null || (rowFilter.testItem(tableItem) && (row == null || rowFilter.testRow(row)))) {
+                if (valueInterner != null) {
+                    valueInterner.internProperties(tableItem);
+                }
                 internalInsertOrUpdate(tableItem, row);
             }
         } else {
@@ -229,6 +483,21 @@ public class Table<T extends HasId> {
         }
     }
 
+    @Nullable
+    UpdateStats getUpdateStats() {
+        return tableUpdater == null ? null : tableUpdater.getUpdateStats();
+    }
+
+    void notifyChanged() {
+        if (tableUpdater != null) {
+            tableUpdater.notifyChanged();
+        }
+    }
+
+    boolean awaitVisible(long id, long timeoutMillis) {
+        return tableUpdater != null && tableUpdater.awaitVisible(id, timeoutMillis);
+    }
+
     void insertOrUpdate(Row row) {
         if (rowFilter == null || rowFilter.testRow(row)) {
             for (RowListener rowListener : rowListeners) {
@@ -237,40 +506,86 @@ public class Table<T extends HasId> {
         }
     }
 
-    int size() {
-        if (ids == null) {
-            throw new UnsupportedOperationException("The operation is unsupported due Inmemo.unsetSizeSupport(clazz).");
-        }
-
+    /**
+     * Removes the item from the table and its indices.
+     *
+     * @param id        Item id.
+     * @param tombstone Row to write into the journal, so the item is deleted on the journal replay too.
+     */
+    void delete(long id, @Nullable Row tombstone) {
         lock.lock();
         try {
-            return ids.size();
+            long version = committedVersion + 1;
+            writingVersion = version;
+
+            if (journalWriter != null && tombstone != null) {
+                journalWriter.addRow(tombstone);
+            }
+            if (evictor != null) {
+                evictor.forget(id);
+            }
+
+            T item = removeItem(id);
+            if (item == null) {
+                return;
+            }
+
+            if (versionLog.isActive()) {
+                versionLog.add(id, version, item);
+            }
+            for (Index<T, ?> index : indices.values()) {
+                index.delete(item);
+            }
+            for (ItemListener<T> itemListener : itemListeners) {
+                itemListener.delete(item);
+            }
         } finally {
+            commitVersion();
             lock.unlock();
         }
     }
 
+    int size() {
+        if (!sizeSupported) {
+            throw new UnsupportedOperationException("The operation is unsupported due Inmemo.unsetSizeSupport(clazz).");
+        }
+
+        return size;
+    }
+
     private void internalInsertOrUpdate(@Nonnull T item, @Nullable Row row) {
         lock.lock();
         try {
+            long version = committedVersion + 1;
+            writingVersion = version;
+
             if (journalWriter != null && row != null) {
                 journalWriter.addRow(row);
             }
 
-            if (ids != null) {
-                ids.add(item.getId());
+            T previousItem = putItem(item);
+            if (previousItem == null) {
+                if (evictor != null) {
+                    evictor.forget(item.getId());
+                }
+            }
+            if (versionLog.isActive()) {
+                versionLog.add(item.getId(), version, previousItem);
             }
 
             for (Index<T, ?> index : indices.values()) {
-                index.insertOrUpdate(item);
+                index.insertOrUpdate(previousItem, item);
             }
             for (ItemListener<T> itemListener : itemListeners) {
                 itemListener.insertOrUpdate(item);
             }
         } finally {
+            commitVersion();
             lock.unlock();
         }
 
+        evictIfNeeded();
+
         int count = insertOrUpdateCount.incrementAndGet();
         if (count % 100000 == 0) {
             logger.info("Inmemo: table " + ReflectionUtil.getTableClassName(getClazz())
@@ -278,7 +593,207 @@ public class Table<T extends HasId> {
         }
     }
 
-    List<T> find(IndexConstraint<?> indexConstraint, Matcher<T> predicate) {
+    /**
+     * Applies the rows as a single write: rows are converted to items by the batch workers (and the converted
+     * items are stored as is, without extra copying), the lock is taken once, each index is updated by its own
+     * worker and the whole batch gets a single version. Unlike a single item write, the item listeners are
+     * notified after all the indices have got the whole batch, in the batch order.
+     *
+     * @param rows      Rows to apply in order, the latter row wins for the same id.
+     * @param converter Converts row to an item of the table class (or of a compatible class).
+     */
+    void insertOrUpdate(@Nonnull List<Row> rows, @Nonnull Function<Row, ? extends HasId> converter) {
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        List<T> batchItems = toTableItems(rows, converter);
+
+        List<T> appliedItems = new ArrayList<>(batchItems.size());
+        List<T> replacedItems = new ArrayList<>(batchItems.size());
+
+        lock.lock();
+        try {
+            long version = committedVersion + 1;
+            writingVersion = version;
+
+            for (int i = 0; i < batchItems.size(); i++) {
+                T item = batchItems.get(i);
+                if (item == null) {
+                    continue;
+                }
+
+                if (journalWriter != null) {
+                    journalWriter.addRow(rows.get(i));
+                }
+
+                T previousItem = putItem(item);
+                if (previousItem == null) {
+                    if (evictor != null) {
+                        evictor.forget(item.getId());
+                    }
+                }
+                if (versionLog.isActive()) {
+                    versionLog.add(item.getId(), version, previousItem);
+                }
+
+                appliedItems.add(item);
+                replacedItems.add(previousItem);
+            }
+
+            updateIndices(replacedItems, appliedItems);
+
+            for (T item : appliedItems) {
+                for (ItemListener<T> itemListener : itemListeners) {
+                    itemListener.insertOrUpdate(item);
+                }
+            }
+        } finally {
+            commitVersion();
+            lock.unlock();
+        }
+
+        evictIfNeeded();
+
+        int previousCount = insertOrUpdateCount.getAndAdd(appliedItems.size());
+        int count = previousCount + appliedItems.size();
+        if (count / 100000 != previousCount / 100000) {
+            logger.info("Inmemo: table " + ReflectionUtil.getTableClassName(getClazz())
+                    + " insertOrUpdateCount=" + count + ".");
+        }
+    }
+
+    /**
+     * Converts the rows by slices, each slice by a batch worker.
+     *
+     * @return Table items in the order of rows, {@code null} for the rows rejected by the row filter.
+     */
+    private List<T> toTableItems(List<Row> rows, Function<Row, ? extends HasId> converter) {
+        List<T> batchItems = new ArrayList<>(Collections.<T>nCopies(rows.size(), null));
+
+        if (rows.size() < PARALLEL_BATCH_MIN_SIZE) {
+            for (int i = 0; i < rows.size(); i++) {
+                batchItems.set(i, toTableItem(rows.get(i), converter));
+            }
+            return batchItems;
+        }
+
+        int sliceCount = Math.min(BATCH_WORKER_COUNT, rows.size() / PARALLEL_BATCH_MIN_SIZE);
+        int sliceSize = (rows.size() + sliceCount - 1) / sliceCount;
+
+        List<Future<?>> futures = new ArrayList<>(sliceCount);
+        for (int from = 0; from < rows.size(); from += sliceSize) {
+            int sliceFrom = from;
+            int sliceTo = Math.min(rows.size(), from + sliceSize);
+            futures.add(batchExecutor.submit(() -> {
+                for (int i = sliceFrom; i < sliceTo; i++) {
+                    batchItems.set(i, toTableItem(rows.get(i), converter));
+                }
+            }));
+        }
+
+        awaitBatchWorkers(futures, "Can't convert rows");
+        return batchItems;
+    }
+
+    /**
+     * @return Table item for the row or {@code null} if it is rejected by the row filter.
+     */
+    private T toTableItem(Row row, Function<Row, ? extends HasId> converter) {
+        if (rowFilter != null && !rowFilter.testRow(row)) {
+            return null;
+        }
+
+        HasId item = converter.apply(row);
+        Class<?> itemClass = item.getClass();
+
+        T tableItem;
+        if (itemClass == clazz) {
+            tableItem = clazz.cast(item);
+        } else if (clazzSpec.equals(ReflectionUtil.getTableClassSpec(itemClass))) {
+            tableItem = ReflectionUtil.newInstance(clazz);
+            ReflectionUtil.copyProperties(item, tableItem);
+        } else {
+            throw new InmemoException("Table class is incompatible with the class of object [tableClass=" + clazz
+                    + ", clazz=" + itemClass + "].");
+        }
+
+        if (rowFilter != null && !rowFilter.testItem(tableItem)) {
+            return null;
+        }
+
+        if (valueInterner != null) {
+            valueInterner.internProperties(tableItem);
+        }
+
+        return tableItem;
+    }
+
+    /**
+     * Indices share no state, so each of them is updated by a separate worker. Each worker applies the items
+     * in the batch order.
+     */
+    private void updateIndices(List<T> replacedItems, List<T> appliedItems) {
+        Collection<Index<T, ?>> tableIndices = indices.values();
+
+        if (tableIndices.size() < 2 || appliedItems.size() < PARALLEL_BATCH_MIN_SIZE) {
+            for (Index<T, ?> index : tableIndices) {
+                updateIndex(index, replacedItems, appliedItems);
+            }
+            return;
+        }
+
+        parallelBatchCount.incrementAndGet();
+        List<Future<?>> futures = new ArrayList<>(tableIndices.size());
+        for (Index<T, ?> index : tableIndices) {
+            futures.add(batchExecutor.submit(() -> updateIndex(index, replacedItems, appliedItems)));
+        }
+
+        awaitBatchWorkers(futures, "Can't update index");
+    }
+
+    /**
+     * Waits for all the workers even if some of them failed, the first failure is thrown.
+     */
+    private void awaitBatchWorkers(List<Future<?>> futures, String failureMessage) {
+        RuntimeException failure = null;
+        boolean interrupted = false;
+
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // Can't leave while workers still change indices, so wait and restore the flag later.
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof RuntimeException
+                                ? (RuntimeException) e.getCause()
+                                : new InmemoException(failureMessage + " [tableClass=" + clazz + "].", e.getCause());
+                    }
+                    break;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static <T extends HasId> void updateIndex(Index<T, ?> index, List<T> replacedItems, List<T> appliedItems) {
+        for (int i = 0; i < appliedItems.size(); i++) {
+            index.insertOrUpdate(replacedItems.get(i), appliedItems.get(i));
+        }
+    }
+
+    private Index<T, ?> getReadyIndex(IndexConstraint<?> indexConstraint) {
         if (indexConstraint == null) {
             throw new InmemoException("Nonnul IndexConstraint is required [tableClass="
                     + ReflectionUtil.getTableClassName(clazz) + "].");
@@ -289,47 +804,253 @@ public class Table<T extends HasId> {
             throw new IllegalArgumentException("Unexpected index name `" + indexConstraint.getIndexName() + "`.");
         }
 
-        return index.find(indexConstraint.getValue(), predicate);
+        if (!index.isReady()) {
+            throw new IndexNotReadyException("Index `" + indexConstraint.getIndexName()
+                    + "` is still being built [tableClass=" + ReflectionUtil.getTableClassName(clazz) + "].");
+        }
+
+        return index;
+    }
+
+    List<T> find(IndexConstraint<?> indexConstraint, Matcher<T> predicate) {
+        Index<T, ?> index = getReadyIndex(indexConstraint);
+        List<T> result = index.find(indexConstraint.getValue(), predicate);
+        markAccessed(result);
+        return result;
+    }
+
+    private void markAccessed(List<T> foundItems) {
+        if (evictor != null) {
+            for (T item : foundItems) {
+                evictor.markAccessed(item.getId());
+            }
+        }
     }
 
     T findOnly(boolean throwOnNotUnique, IndexConstraint<?> indexConstraint, Matcher<T> predicate) {
-        if (indexConstraint == null) {
-            throw new InmemoException("Nonnul IndexConstraint is required [tableClass="
-                    + ReflectionUtil.getTableClassName(clazz) + "].");
+        Index<T, ?> index = getReadyIndex(indexConstraint);
+        T result = index.findOnly(throwOnNotUnique, indexConstraint.getValue(), predicate);
+        if (evictor != null && result != null) {
+            evictor.markAccessed(result.getId());
         }
+        return result;
+    }
 
-        Index<T, ?> index = indices.get(indexConstraint.getIndexName());
-        if (index == null) {
-            throw new IllegalArgumentException("Unexpected index name `" + indexConstraint.getIndexName() + "`.");
+    /**
+     * Loads the evicted item back by a primary key query.
+     *
+     * @param id Item id.
+     * @return Loaded item or {@code null} if the item has not been evicted or it is not in the database anymore.
+     */
+    @Nullable
+    T faultIn(long id) {
+        if (evictor == null || tableUpdater == null || !evictor.isEvicted(id)) {
+            return null;
         }
 
-        return index.findOnly(throwOnNotUnique, indexConstraint.getValue(), predicate);
+        // Second chance for the item just loaded.
+        evictor.markAccessed(id);
+        tableUpdater.insertOrUpdateById(id);
+
+        T item = items.get(id);
+        if (item == null) {
+            evictor.forget(id);
+        }
+        return item;
     }
 
-    long findCount(IndexConstraint<?> indexConstraint, Matcher<T> predicate) {
-        if (indexConstraint == null) {
-            throw new InmemoException("Nonnul IndexConstraint is required [tableClass="
-                    + ReflectionUtil.getTableClassName(clazz) + "].");
+    /**
+     * Evicts cold items if the table exceeds its memory budget. An eviction is a write: it gets its own version,
+     * so snapshots still see the evicted items.
+     */
+    private void evictIfNeeded() {
+        if (evictor == null) {
+            return;
         }
 
-        Index<T, ?> index = indices.get(indexConstraint.getIndexName());
-        if (index == null) {
-            throw new IllegalArgumentException("Unexpected index name `" + indexConstraint.getIndexName() + "`.");
+        int size = this.size;
+        if (size <= evictor.getMaxItems() && size < 2 * itemBytesEstimatedAtSize) {
+            return;
         }
 
+        lock.lock();
+        try {
+            size = items.size();
+            if (size < EVICTION_MIN_ESTIMATE_ITEMS) {
+                return;
+            }
+
+            if (size > evictor.getMaxItems() || size >= 2 * itemBytesEstimatedAtSize) {
+                estimateItemBytes();
+            }
+            if (size <= evictor.getMaxItems()) {
+                return;
+            }
+
+            long startTimeMillis = System.currentTimeMillis();
+            int victimCount = (int) (size - evictor.getMaxItems() * ItemEvictor.LOW_WATERMARK);
+            long[] victims = evictor.selectVictims(items, victimCount);
+
+            long version = committedVersion + 1;
+            writingVersion = version;
+            try {
+                for (long id : victims) {
+                    T item = removeItem(id);
+                    if (item == null) {
+                        continue;
+                    }
+
+                    evictor.onEvicted(id);
+                    if (versionLog.isActive()) {
+                        versionLog.add(id, version, item);
+                    }
+                    for (Index<T, ?> index : indices.values()) {
+                        index.delete(item);
+                    }
+                }
+            } finally {
+                commitVersion();
+            }
+
+            logger.info("Inmemo evicted " + victims.length + " items in "
+                    + (System.currentTimeMillis() - startTimeMillis) + " ms [table="
+                    + ReflectionUtil.getTableClassName(clazz) + ", items=" + items.size()
+                    + ", evicted=" + evictor.getEvictedCount() + ", itemBytes="
+                    + String.format(Locale.US, "%.1f", evictor.getItemBytes()) + ", budgetBytes="
+                    + evictor.getBudgetBytes() + "].");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Estimates heap bytes per item including its index entries, called under the lock. Cheap: it takes the
+     * running payload bytes and the counters of the store and of the indices.
+     */
+    private void estimateItemBytes() {
+        int size = items.size();
+
+        long totalBytes = payloadBytes + items.getOverheadBytes();
+        for (Index<T, ?> index : indices.values()) {
+            totalBytes += index.getMemoryStats().getTotalBytes();
+        }
+
+        evictor.setItemBytes((double) totalBytes / Math.max(1, size));
+        itemBytesEstimatedAtSize = size;
+    }
+
+    /**
+     * Stores the item keeping {@link #payloadBytes}, called under the lock.
+     */
+    private T putItem(T item) {
+        if (evictor == null) {
+            return items.put(item);
+        }
+
+        payloadBytes -= items.getPayloadBytes(item.getId());
+        T previousItem = items.put(item);
+        payloadBytes += items.getPayloadBytes(item.getId());
+        return previousItem;
+    }
+
+    /**
+     * Removes the item keeping {@link #payloadBytes}, called under the lock.
+     */
+    private T removeItem(long id) {
+        if (evictor != null) {
+            payloadBytes -= items.getPayloadBytes(id);
+        }
+        return items.remove(id);
+    }
+
+    int getEvictedCountForTesting() {
+        return evictor == null ? 0 : evictor.getEvictedCount();
+    }
+
+    long findCount(IndexConstraint<?> indexConstraint, Matcher<T> predicate) {
+        if (evictor != null) {
+            return find(indexConstraint, predicate).size();
+        }
+
+        Index<T, ?> index = getReadyIndex(indexConstraint);
         return index.findCount(indexConstraint.getValue(), predicate);
     }
 
-    void insertOrUpdateByIds(Long[] ids) {
-        for (Long id : ids) {
-            if (id == null) {
-                continue;
+    /**
+     * Pins a snapshot to the last committed version. It never takes the lock. The write in progress may have
+     * missed the open log, so the snapshot blocks until that write is committed; the writes started after
+     * {@link VersionLog#open()} record the replaced items and are not waited for.
+     */
+    <U extends HasId> TableSnapshot<U> snapshot(Class<U> snapshotClass) {
+        versionLog.open();
+
+        long startedVersion = writingVersion;
+        if (committedVersion < startedVersion) {
+            awaitCommittedVersion(startedVersion);
+        }
+
+        long version = committedVersion;
+        versionLog.pin(version);
+        return new TableSnapshot<>(this, snapshotClass, version);
+    }
+
+    private void awaitCommittedVersion(long version) {
+        commitWaiterCount.incrementAndGet();
+        commitLock.lock();
+        try {
+            while (committedVersion < version) {
+                commitCondition.awaitUninterruptibly();
             }
+        } finally {
+            commitLock.unlock();
+            commitWaiterCount.decrementAndGet();
+        }
+    }
 
-            tableUpdater.insertOrUpdateById(id);
+    /**
+     * Publishes the version being written, called by the writer under the lock.
+     */
+    private void commitVersion() {
+        size = items.size();
+        committedVersion = writingVersion;
+
+        if (commitWaiterCount.get() > 0) {
+            commitLock.lock();
+            try {
+                commitCondition.signalAll();
+            } finally {
+                commitLock.unlock();
+            }
         }
     }
 
+    void releaseSnapshot(long version) {
+        versionLog.release(version);
+    }
+
+    long getCommittedVersion() {
+        return committedVersion;
+    }
+
+    int getVersionLogSizeForTesting() {
+        return versionLog.size();
+    }
+
+    List<T> findAt(long version, IndexConstraint<?> indexConstraint, Matcher<T> predicate) {
+        Index<T, ?> index = getReadyIndex(indexConstraint);
+        List<T> result = index.findAt(indexConstraint.getValue(), predicate, versionLog, version);
+        markAccessed(result);
+        return result;
+    }
+
+    void applyRows(RowRoll rows) {
+        tableUpdater.applyRows(rows);
+    }
+
+    void insertOrUpdateByIds(Long[] ids) {
+        tableUpdater.insertOrUpdateByIds(ids);
+    }
+
     List<T> findAndUpdateByEmergencyQueryFields(Object[] fields) {
         return tableUpdater.findAndUpdateByEmergencyQueryFields(fields);
     }
@@ -362,6 +1083,59 @@ public class Table<T extends HasId> {
         }
     }
 
+    /**
+     * @return Estimated memory of the items: store structures and items (sampled).
+     */
+    MemoryStats getMemoryStats() {
+        int sampleSize = getMemorySampleSize();
+
+        lock.lock();
+        try {
+            return new MemoryStats(ReflectionUtil.getTableClassName(clazz), items.size(), 0, 0,
+                    items.getOverheadBytes(), items.estimatePayloadBytes(sampleSize), items.getOffHeapBytes());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Estimated memory of each index by index name, takes no lock.
+     */
+    Map<String, MemoryStats> getIndexMemoryStats() {
+        Map<String, MemoryStats> result = new LinkedHashMap<>();
+        for (Index<T, ?> index : indices.values()) {
+            result.put(index.getName(), index.getMemoryStats());
+        }
+        return result;
+    }
+
+    void logMemoryStats() {
+        MemoryStats tableStats = getMemoryStats();
+        logger.info("Inmemo memory stats [table=" + tableStats.getName()
+                + ", items=" + tableStats.getItems()
+                + ", storeOverheadBytes=" + tableStats.getBucketOverheadBytes()
+                + ", itemPayloadBytes=" + tableStats.getItemPayloadBytes()
+                + ", offHeapBytes=" + tableStats.getOffHeapBytes()
+                + ", totalBytes=" + tableStats.getTotalBytes()
+                + "].");
+
+        for (MemoryStats indexStats : getIndexMemoryStats().values()) {
+            logger.info("Inmemo memory stats [table=" + tableStats.getName()
+                    + ", index=" + indexStats.getName()
+                    + ", items=" + indexStats.getItems()
+                    + ", buckets=" + indexStats.getBuckets()
+                    + ", keyBytes=" + indexStats.getKeyBytes()
+                    + ", bucketOverheadBytes=" + indexStats.getBucketOverheadBytes()
+                    + ", totalBytes=" + indexStats.getTotalBytes()
+                    + "].");
+        }
+    }
+
+    private static int getMemorySampleSize() {
+        return InmemoProperties.getIntProperty(logger, MEMORY_SAMPLE_SIZE_PROPERTY, DEFAULT_MEMORY_SAMPLE_SIZE,
+                1, Integer.MAX_VALUE);
+    }
+
     void deleteJournal() throws IOException {
         File journalFile = new File(journalsDir, getInmemoFilename());
         deleteFile(journalFile);
@@ -419,7 +1193,7 @@ public class Table<T extends HasId> {
 
         File journalFile = new File(journalsDir, getInmemoFilename());
         try {
-            return JournalReader.readAll(journalFile, clazz, clazzSpec);
+            return JournalReader.readAll(journalFile, clazz, getJournalClassSpec());
         } catch (Exception e) {
             logger.error("Unexpected exception while reading journal [table='" + clazz.getSimpleName() + "'].", e);
             return null;
@@ -427,7 +1201,14 @@ public class Table<T extends HasId> {
     }
 
     JournalReader openJournalReader() {
-        return new JournalReader(new File(journalsDir, getInmemoFilename()), clazz, clazzSpec);
+        return new JournalReader(new File(journalsDir, getInmemoFilename()), clazz, getJournalClassSpec());
+    }
+
+    /**
+     * @return Number of batches whose indices have been updated by the batch workers.
+     */
+    long getParallelBatchCountForTesting() {
+        return parallelBatchCount.get();
     }
 
     TableUpdater<T> getTableUpdaterForTesting() {
@@ -445,7 +1226,18 @@ public class Table<T extends HasId> {
     }
 
     private JournalWriter createJournalWriter() {
-        return new JournalWriter(new File(journalsDir, getInmemoFilename()), clazz, clazzSpec);
+        return new JournalWriter(new File(journalsDir, getInmemoFilename()), clazz, getJournalClassSpec());
+    }
+
+    /**
+     * @return Class spec written into the journal, with the projected columns if the table uses column projection:
+     * the journal rows have only them, so they must be the same on replay.
+     */
+    String getJournalClassSpec() {
+        List<String> columns = tableUpdater == null
+                ? Collections.<String>emptyList()
+                : tableUpdater.getProjectedColumns();
+        return columns.isEmpty() ? clazzSpec : clazzSpec + "columns=" + String.join(",", columns) + ';';
     }
 
     private void setJournalWriter(JournalWriter journalWriter) {
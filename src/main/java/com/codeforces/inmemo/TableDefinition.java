@@ -0,0 +1,58 @@
+package com.codeforces.inmemo;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Arguments of {@link Inmemo#createTable(Class, String, Object, Indices, Inmemo.Filter, boolean)} for creating
+ * many tables at once by {@link Inmemo#createTables(java.util.List, int)}.
+ *
+ * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
+ */
+@SuppressWarnings("WeakerAccess")
+public final class TableDefinition<T extends HasId> {
+    private final Class<T> clazz;
+    private final String indicatorField;
+    private final Object initialIndicatorValue;
+    private final Indices<T> indices;
+    private final Inmemo.Filter<T> rowFilter;
+
+    public TableDefinition(@Nonnull Class<T> clazz,
+                           @Nonnull String indicatorField,
+                           @Nullable Object initialIndicatorValue,
+                           @Nonnull Indices<T> indices) {
+        this(clazz, indicatorField, initialIndicatorValue, indices, null);
+    }
+
+    public TableDefinition(@Nonnull Class<T> clazz,
+                           @Nonnull String indicatorField,
+                           @Nullable Object initialIndicatorValue,
+                           @Nonnull Indices<T> indices,
+                           @Nullable Inmemo.Filter<T> rowFilter) {
+        this.clazz = clazz;
+        this.indicatorField = indicatorField;
+        this.initialIndicatorValue = initialIndicatorValue;
+        this.indices = indices;
+        this.rowFilter = rowFilter;
+    }
+
+    public Class<T> getClazz() {
+        return clazz;
+    }
+
+    public String getIndicatorField() {
+        return indicatorField;
+    }
+
+    public Object getInitialIndicatorValue() {
+        return initialIndicatorValue;
+    }
+
+    public Indices<T> getIndices() {
+        return indices;
+    }
+
+    public Inmemo.Filter<T> getRowFilter() {
+        return rowFilter;
+    }
+}
@@ -0,0 +1,144 @@
+package com.codeforces.inmemo;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Read view of a table pinned to its version at the moment of {@link Inmemo#snapshot(Class)}. All the reads
+ * are consistent across all the indices: an item changed after the snapshot has been taken is seen in its
+ * previous state. Snapshot reads never block the table updater and never query the database (no emergency
+ * queries).
+ * <p>
+ * The table keeps all the replaced items while there is an open snapshot, so use short-living snapshots and
+ * always close them (try-with-resources).
+ * </p>
+ *
+ * @author MikeMirzayanov (mirzayanovmr@gmail.com)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class TableSnapshot<T extends HasId> implements AutoCloseable {
+    private final Table<? extends HasId> table;
+    private final Class<T> clazz;
+    private final long version;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    TableSnapshot(Table<? extends HasId> table, Class<T> clazz, long version) {
+        this.table = table;
+        this.clazz = clazz;
+        this.version = version;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @param indexConstraint Index to use in search, index value.
+     * @return List of _copies_ of satisfying indexConstraint items.
+     */
+    public List<T> find(@Nonnull IndexConstraint<?> indexConstraint) {
+        return find(indexConstraint, Inmemo.acceptAnyMatcher());
+    }
+
+    /**
+     * @param indexConstraint Index to use in search, index value.
+     * @param matcher         Predicate to choose items.
+     * @return List of _copies_ of matched items.
+     */
+    public List<T> find(@Nonnull IndexConstraint<?> indexConstraint, @Nonnull Matcher<T> matcher) {
+        List<? extends HasId> result = internalFind(indexConstraint, matcher);
+
+        if (result.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<T> tableClassResult = new ArrayList<>(result.size());
+        for (HasId tableItem : result) {
+            tableClassResult.add(copy(tableItem));
+        }
+
+        return Collections.unmodifiableList(tableClassResult);
+    }
+
+    /**
+     * @param throwOnNotUnique Throw exception if resulting item is not unique.
+     * @param indexConstraint  Index to use in search, index value.
+     * @return _Copy_ of the only satisfying indexConstraint item or {@code null}.
+     */
+    public T findOnly(boolean throwOnNotUnique, @Nonnull IndexConstraint<?> indexConstraint) {
+        return findOnly(throwOnNotUnique, indexConstraint, Inmemo.acceptAnyMatcher());
+    }
+
+    /**
+     * @param throwOnNotUnique Throw exception if resulting item is not unique.
+     * @param indexConstraint  Index to use in search, index value.
+     * @param matcher          Predicate to choose items.
+     * @return _Copy_ of the only matched item or {@code null}.
+     */
+    public T findOnly(boolean throwOnNotUnique,
+                      @Nonnull IndexConstraint<?> indexConstraint,
+                      @Nonnull Matcher<T> matcher) {
+        List<? extends HasId> result = internalFind(indexConstraint, matcher);
+
+        if (result.isEmpty()) {
+            return null;
+        }
+
+        if (throwOnNotUnique && result.size() >= 2) {
+            throw new InmemoException("Expected at most one item of " + clazz
+                    + " matching index " + indexConstraint.getIndexName()
+                    + " with value=" + indexConstraint.getValue() + '.');
+        }
+
+        return copy(result.get(0));
+    }
+
+    /**
+     * @param indexConstraint Index to use in search, index value.
+     * @return Number of satisfying indexConstraint items.
+     */
+    public long findCount(@Nonnull IndexConstraint<?> indexConstraint) {
+        return findCount(indexConstraint, Inmemo.acceptAnyMatcher());
+    }
+
+    /**
+     * @param indexConstraint Index to use in search, index value.
+     * @param matcher         Predicate to choose items.
+     * @return Number of matched items.
+     */
+    public long findCount(@Nonnull IndexConstraint<?> indexConstraint, @Nonnull Matcher<T> matcher) {
+        return internalFind(indexConstraint, matcher).size();
+    }
+
+    /**
+     * Releases the snapshot, repeated calls are no-op.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            table.releaseSnapshot(version);
+        }
+    }
+
+    private List<? extends HasId> internalFind(IndexConstraint<?> indexConstraint, Matcher<T> matcher) {
+        if (closed.get()) {
+            throw new InmemoException("Snapshot is closed [tableClass=" + table.getClazz()
+                    + ", version=" + version + "].");
+        }
+
+        //noinspection rawtypes
+        Matcher tableMatcher = table.convertMatcher(clazz, matcher);
+
+        //noinspection unchecked
+        return table.findAt(version, indexConstraint, tableMatcher);
+    }
+
+    private T copy(HasId tableItem) {
+        T item = ReflectionUtil.newInstance(clazz);
+        ReflectionUtil.copyProperties(tableItem, item);
+        return item;
+    }
+}
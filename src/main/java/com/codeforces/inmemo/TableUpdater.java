@@ -1,5 +1,11 @@
 package com.codeforces.inmemo;
 
+import gnu.trove.map.TLongLongMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongLongHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.jacuzzi.core.Jacuzzi;
@@ -11,12 +17,18 @@ import javax.sql.DataSource;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
 
 /**
  * @author MikeMirzayanov (mirzayanovmr@gmail.com)
@@ -24,18 +36,61 @@ import java.util.concurrent.locks.ReentrantLock;
 class TableUpdater<T extends HasId> {
     private static final Logger logger = Logger.getLogger(TableUpdater.class);
 
-    private static final List<Thread> tableUpdaterThreads
-            = Collections.synchronizedList(new ArrayList<>());
-
-    private static final AtomicInteger tableUpdaterThreadCount
-            = new AtomicInteger(0);
+    /**
+     * Fetches the next journal block or streams the preload query rows while the current ones are applied.
+     */
+    private static final ExecutorService readAheadExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "InmemoReadAhead");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
-     * Delay after meaningless update try.
+     * Delay after meaningless update try: the idle delay grows twice on each such try up to the maximum, a try
+     * which has found rows drops it to the minimum. The maximum is well above the former fixed 750 ms delay, so
+     * the idle tables (most of them) are polled much less often; the update latency of a table replaces it.
      */
-    private static final long RESCAN_TIME_MILLIS = 750;
+    static final String MIN_RESCAN_MILLIS_PROPERTY = "Inmemo.MinRescanMillis";
+    static final String MAX_RESCAN_MILLIS_PROPERTY = "Inmemo.MaxRescanMillis";
+    private static final long DEFAULT_MIN_RESCAN_MILLIS = 100;
+    private static final long DEFAULT_MAX_RESCAN_MILLIS = 5000;
 
     private static final int MAX_ROWS_IN_SINGLE_SQL_STATEMENT = 2_000_000;
+
+    /**
+     * Preload reads the table by pages of this number of rows, each page is applied before the next one is read.
+     */
+    static final String PRELOAD_CHUNK_ROWS_PROPERTY = "Inmemo.PreloadChunkRows";
+    private static final int DEFAULT_PRELOAD_CHUNK_ROWS = 50_000;
+
+    /**
+     * Streamed rows (preload and emergency queries) are fetched with this fetch size and passed by batches of this
+     * size.
+     */
+    static final String STREAM_BATCH_ROWS_PROPERTY = "Inmemo.StreamBatchRows";
+    private static final int DEFAULT_STREAM_BATCH_ROWS = 1000;
+
+    /**
+     * Items requested by ids are read by {@code IN (...)} queries having at most this number of ids.
+     */
+    static final String IDS_QUERY_CHUNK_SIZE_PROPERTY = "Inmemo.IdsQueryChunkSize";
+    private static final int DEFAULT_IDS_QUERY_CHUNK_SIZE = 500;
+    private static final int MAX_IDS_QUERY_CHUNK_SIZE = 10_000;
+
+    /**
+     * Even if the change probe shows no changes, the polling query runs at least once in this interval: a probe
+     * can miss a change (i.e. an update which keeps the indicator value of the row).
+     */
+    static final String MAX_PROBE_SKIP_MILLIS_PROPERTY = "Inmemo.MaxProbeSkipMillis";
+    private static final long DEFAULT_MAX_PROBE_SKIP_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * The preload future of the table fails after this number of failed updates in a row, so the waiters and
+     * {@link Inmemo#createTables(List, int)} don't wait forever. The updater keeps trying to preload the table.
+     */
+    static final String MAX_PRELOAD_FAILURES_PROPERTY = "Inmemo.MaxPreloadFailures";
+    private static final int DEFAULT_MAX_PRELOAD_FAILURES = 10;
+
     private static final int MAX_UPDATE_SAME_INDICATOR_TIMES = 10;
 
     private final Lock updateLock = new ReentrantLock();
@@ -46,22 +101,98 @@ class TableUpdater<T extends HasId> {
             = Collections.synchronizedList(new ArrayList<>());
 
     private final Table<?> table;
-    private final Thread thread;
-    private final String threadName;
+    private final String name;
     private volatile boolean running;
 
+    // {@code true} iff the last update has found rows to apply.
+    private volatile boolean lagging;
+
+    // Current delay between the updates, adapted to the change rate of the table.
+    private final long minRescanMillis;
+    private final long maxRescanMillis;
+    private volatile long rescanMillis;
+
+    // Fixed delay between the polls of the preloaded table (zero to stop polling) or null to adapt it.
+    private final Long pollingIntervalMillis;
+
+    private final DataSource rowsDataSource;
     private final Jacuzzi jacuzzi;
     private final TypeOracle<T> typeOracle;
 
     private final AtomicReference<Object> lastIndicatorValue = new AtomicReference<>();
     private final long startTimeMillis;
 
+    // If true, no row is read twice with the same indicator value, so the boundary rows are not tracked.
+    private final boolean strictlyIncreasingIndicator;
+
     private final Map<Long, Integer> lastEntityIdsUpdateCount = new ConcurrentHashMap<>();
+
+    // Sequence numbers of the started updates and the greatest one completed on the preloaded table.
+    private final AtomicLong startedUpdateSequence = new AtomicLong();
+    private final Object completedUpdateMonitor = new Object();
+    private long completedUpdateSequence;
+
+    // Content hashes of the applied rows having indicator equal to lastIndicatorValue, guarded by updateLock.
+    private final TLongLongMap boundaryRowHashes = new TLongLongHashMap();
+
+    // Rows applied by applyRows which the poller hasn't read yet, by id, guarded by updateLock. A polled row with
+    // the same content is not applied again; the entries behind the poll position are dropped.
+    private final TLongObjectMap<PushedRow> pushedRows = new TLongObjectHashMap<>();
     private final boolean journalReplayEligible;
     private boolean replayFinished;
     private JournalReader replayReader;
     private long replayedRows;
 
+    // Read-ahead of the next journal block, accessed under updateLock.
+    private Future<RowRoll> journalReadAhead;
+
+    private final int preloadChunkRows;
+    private final int streamBatchRows;
+    private final int idsQueryChunkSize;
+
+    // Frozen by start(), as the row listeners are added after the updater is created: the columns the rows are
+    // projected to (empty if the table doesn't use column projection) and the SELECT clause of them.
+    private volatile List<String> projectedColumns;
+    private volatile String selectClause;
+
+    // Polling queries (accessed under updateLock) and the connection to run them on if the table pins it.
+    private String pollingSql;
+    private String initialPollingSql;
+    private final PinnedConnection pinnedConnection;
+
+    // Clock of the lag measurement (a query or a supplied clock, the local clock if none) and the last stats.
+    private final String databaseClockSql;
+    private final LongSupplier databaseClock;
+    private volatile UpdateStats updateStats;
+
+    // Database time before the current update, guarded by updateLock. The clock query runs only before the
+    // polling query, the other updates (preload batches, polls skipped by the probe) get -1 from it.
+    private long databaseTimeMillis;
+
+    // Change probe query (null if the table has no probe) and its result before the last completed poll. The
+    // default probe has a parameter (the last indicator value) and its variant for the empty table.
+    private final String changeProbeSql;
+    private final String initialChangeProbeSql;
+    private final long maxProbeSkipMillis;
+    private List<Object> lastProbeValues;
+    private long lastPollMillis;
+    private long skippedPollCount;
+
+    // Preload keyset: (indicator, id) of the last applied row and the stream of the current page, accessed under
+    // updateLock.
+    private Object preloadCursorIndicatorValue;
+    private Long preloadCursorId;
+    private RowStream preloadStream;
+    private long preloadedRows;
+
+    // Number of id ranges to load concurrently on the initial load, guarded by updateLock.
+    private final int preloadParallelism;
+    private boolean parallelPreloadDone;
+
+    // Failed updates in a row while the table is not preloaded.
+    private final int maxPreloadFailures;
+    private final AtomicInteger preloadFailureCount = new AtomicInteger();
+
     TableUpdater(Table<T> table, Object initialIndicatorValue) {
         if (dataSource == null) {
             logger.error("It should be called static Inmemo#setDataSource()"
@@ -75,17 +206,54 @@ class TableUpdater<T extends HasId> {
         this.journalReplayEligible = initialIndicatorValue == null && table.isUseJournal();
         this.replayFinished = !journalReplayEligible;
 
+        Long updateLatencyMillis = Inmemo.getUpdateLatency(table.getClazz());
+        maxRescanMillis = updateLatencyMillis != null ? updateLatencyMillis
+                : InmemoProperties.getLongProperty(logger, MAX_RESCAN_MILLIS_PROPERTY, DEFAULT_MAX_RESCAN_MILLIS,
+                1, TimeUnit.HOURS.toMillis(1));
+        minRescanMillis = Math.min(maxRescanMillis, InmemoProperties.getLongProperty(logger,
+                MIN_RESCAN_MILLIS_PROPERTY, DEFAULT_MIN_RESCAN_MILLIS, 1, TimeUnit.HOURS.toMillis(1)));
+        rescanMillis = minRescanMillis;
+        pollingIntervalMillis = Inmemo.getPollingInterval(table.getClazz());
+        strictlyIncreasingIndicator = Inmemo.isStrictlyIncreasingIndicator(table.getClazz());
+        preloadChunkRows = InmemoProperties.getIntProperty(logger, PRELOAD_CHUNK_ROWS_PROPERTY,
+                DEFAULT_PRELOAD_CHUNK_ROWS, 1, MAX_ROWS_IN_SINGLE_SQL_STATEMENT);
+        streamBatchRows = InmemoProperties.getIntProperty(logger, STREAM_BATCH_ROWS_PROPERTY,
+                DEFAULT_STREAM_BATCH_ROWS, 1, MAX_ROWS_IN_SINGLE_SQL_STATEMENT);
+        idsQueryChunkSize = InmemoProperties.getIntProperty(logger, IDS_QUERY_CHUNK_SIZE_PROPERTY,
+                DEFAULT_IDS_QUERY_CHUNK_SIZE, 1, MAX_IDS_QUERY_CHUNK_SIZE);
+        maxPreloadFailures = InmemoProperties.getIntProperty(logger, MAX_PRELOAD_FAILURES_PROPERTY,
+                DEFAULT_MAX_PRELOAD_FAILURES, 1, Integer.MAX_VALUE);
+        Integer parallelism = Inmemo.getPreloadParallelism(table.getClazz());
+        preloadParallelism = parallelism == null ? 1 : parallelism;
+
         DataSource clazzDataSource = dataSourceByClazzName.get(table.getClazz().getName());
-        jacuzzi = Jacuzzi.getJacuzzi(clazzDataSource == null ? dataSource : clazzDataSource);
+        rowsDataSource = clazzDataSource == null ? dataSource : clazzDataSource;
+        jacuzzi = Jacuzzi.getJacuzzi(rowsDataSource);
 
         typeOracle = TypeOracle.getTypeOracle(table.getClazz());
 
-        threadName = "InmemoUpdater#" + table.getClazz();
-        thread = new Thread(new TableUpdaterRunnable(this), threadName);
-        thread.setDaemon(true);
-        tableUpdaterThreads.add(thread);
+        databaseClockSql = Inmemo.getDatabaseClockSql(table.getClazz());
+        databaseClock = Inmemo.getDatabaseClock(table.getClazz());
 
-        logger.info("Started Inmemo table updater thread '" + threadName + "'.");
+        String changeProbe = Inmemo.getChangeProbe(table.getClazz());
+        if (changeProbe == null || !changeProbe.isEmpty()) {
+            changeProbeSql = changeProbe;
+            initialChangeProbeSql = null;
+        } else {
+            // Counts the rows at the last indicator value too: a write in the same second doesn't change the MAX.
+            initialChangeProbeSql = "SELECT COUNT(*) AS CHANGED_ROWS, MAX(" + table.getIndicatorField()
+                    + ") AS MAX_INDICATOR FROM " + typeOracle.getTableName();
+            changeProbeSql = initialChangeProbeSql + " WHERE " + table.getIndicatorField() + " >= ?";
+        }
+        maxProbeSkipMillis = InmemoProperties.getLongProperty(logger, MAX_PROBE_SKIP_MILLIS_PROPERTY,
+                DEFAULT_MAX_PROBE_SKIP_MILLIS, 0, TimeUnit.HOURS.toMillis(1));
+
+        name = "InmemoUpdater#" + table.getClazz();
+        pinnedConnection = Inmemo.isPinnedPollingConnection(table.getClazz())
+                ? new PinnedConnection(rowsDataSource, name)
+                : null;
+
+        logger.info("Created Inmemo table updater '" + name + "'.");
         startTimeMillis = System.currentTimeMillis();
 
         //noinspection ThisEscapedInObjectConstruction
@@ -102,13 +270,34 @@ class TableUpdater<T extends HasId> {
         synchronized (instances) {
             for (TableUpdater<? extends HasId> instance : instances) {
                 instance.running = false;
+                if (instance.pinnedConnection != null) {
+                    instance.pinnedConnection.close();
+                }
             }
         }
     }
 
     void start() {
+        projectedColumns = newProjectedColumns();
+        selectClause = newSelectClause(projectedColumns);
         running = true;
-        thread.start();
+        UpdaterScheduler.start(this);
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    boolean isPreloading() {
+        return !table.isPreloaded();
+    }
+
+    boolean isLagging() {
+        return lagging;
     }
 
     private int getMaxUpdateSameIndicatorTimes() {
@@ -124,12 +313,11 @@ class TableUpdater<T extends HasId> {
             return;
         }
 
-        RowRoll rows = jacuzzi.findRowRoll("SELECT * FROM "
+        RowRoll rows = jacuzzi.findRowRoll(getSelectClause() + " FROM "
                 + typeOracle.getTableName()
                 + " WHERE "
                 + typeOracle.getIdColumn()
-                + " = "
-                + id);
+                + " = ?", id);
 
         if (rows == null || rows.isEmpty()) {
             return;
@@ -147,6 +335,64 @@ class TableUpdater<T extends HasId> {
         }
     }
 
+    /**
+     * Reads the rows by {@code IN (...)} queries of at most {@link #IDS_QUERY_CHUNK_SIZE_PROPERTY} ids and applies
+     * all of them as a single batch. Null and repeated ids are ignored.
+     */
+    void insertOrUpdateByIds(Long[] ids) {
+        TLongSet idSet = new TLongHashSet(ids.length);
+        for (Long id : ids) {
+            if (id != null) {
+                idSet.add(id);
+            }
+        }
+
+        if (idSet.isEmpty()) {
+            return;
+        }
+
+        long[] sortedIds = idSet.toArray();
+        Arrays.sort(sortedIds);
+
+        List<Row> rows = new ArrayList<>(sortedIds.length);
+        TLongSet foundIds = new TLongHashSet(sortedIds.length);
+        for (int from = 0; from < sortedIds.length; from += idsQueryChunkSize) {
+            int to = Math.min(sortedIds.length, from + idsQueryChunkSize);
+            Object[] args = new Object[to - from];
+            for (int i = from; i < to; i++) {
+                args[i - from] = sortedIds[i];
+            }
+
+            RowRoll chunkRows = jacuzzi.findRowRoll(getRowsByIdsSql(args.length), args);
+            if (chunkRows == null) {
+                continue;
+            }
+
+            for (int i = 0; i < chunkRows.size(); i++) {
+                Row row = chunkRows.getRow(i);
+                if (!foundIds.add(getRowId(row))) {
+                    throw new InmemoException("Expected at most one item of "
+                            + table.getClazz() + " with id = " + getRowId(row) + '.');
+                }
+                rows.add(row);
+            }
+        }
+
+        applyRowBatch(rows);
+    }
+
+    private String getRowsByIdsSql(int idCount) {
+        StringBuilder sql = new StringBuilder(getSelectClause()).append(" FROM ")
+                .append(typeOracle.getTableName())
+                .append(" WHERE ")
+                .append(typeOracle.getIdColumn())
+                .append(" IN (");
+        for (int i = 0; i < idCount; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(')').toString();
+    }
+
     List<T> findAndUpdateByEmergencyQueryFields(Object[] fields) {
         validateFieldsArray(fields);
 
@@ -160,44 +406,47 @@ class TableUpdater<T extends HasId> {
 
         String formattedFields = typeOracle.getQueryFindSql(fieldNames);
 
-        RowRoll rows = jacuzzi.findRowRoll("SELECT * FROM "
+        List<T> result = new ArrayList<>();
+        try (RowStream rows = streamRows(getSelectClause() + " FROM "
                 + typeOracle.getTableName()
                 + " WHERE "
                 + formattedFields
                 + " ORDER BY "
-                + typeOracle.getIdColumn(), fieldValues);
+                + typeOracle.getIdColumn(), fieldValues)) {
+            RowRoll batch;
+            while ((batch = rows.nextBatch()) != null) {
+                for (int i = 0; i < batch.size(); i++) {
+                    Row row = batch.getRow(i);
+
+                    T entity = typeOracle.convertFromRow(row);
+                    logger.warn("Emergency found: "
+                            + table.getClazz().getName()
+                            + " id="
+                            + entity.getId()
+                            + " [fields="
+                            + formattedFields
+                            + "].");
 
-        if (rows == null || rows.isEmpty()) {
+                    result.add(entity);
+
+                    table.insertOrUpdate(entity, row);
+                    table.insertOrUpdate(row);
+                }
+            }
+        }
+
+        if (result.isEmpty()) {
             return Collections.emptyList();
         }
 
         logger.warn("Emergency case: found "
-                + rows.size()
+                + result.size()
                 + " items of class "
                 + table.getClazz().getName()
                 + " [fields="
                 + formattedFields
                 + "].");
 
-        List<T> result = new ArrayList<>(rows.size());
-        for (int i = 0; i < rows.size(); i++) {
-            Row row = rows.getRow(i);
-
-            T entity = typeOracle.convertFromRow(row);
-            logger.warn("Emergency found: "
-                    + table.getClazz().getName()
-                    + " id="
-                    + entity.getId()
-                    + " [fields="
-                    + formattedFields
-                    + "].");
-
-            result.add(entity);
-
-            table.insertOrUpdate(entity, row);
-            table.insertOrUpdate(row);
-        }
-
         return result;
     }
 
@@ -224,27 +473,171 @@ class TableUpdater<T extends HasId> {
         }
     }
 
-    void randomizedUpdate() {
+    /**
+     * Runs a single update on behalf of {@link UpdaterScheduler}.
+     *
+     * @return Delay before the next update of the table, zero to run it again right away, {@code Long.MAX_VALUE}
+     * if polling is disabled.
+     */
+    long scheduledUpdate() {
         UpdateResult updateResult = internalUpdate();
-        if (!updateResult.journalReplayInProgress) {
-            sleepBetweenRescans(updateResult.updatedIds.size());
+        lagging = !updateResult.updatedIds.isEmpty();
+
+        if (updateResult.journalReplayInProgress) {
+            return 0;
         }
+        return getDelayBetweenRescans(updateResult.updatedIds.size(), updateResult.morePages);
     }
 
     UpdateResult internalUpdate() {
+        long sequence = startedUpdateSequence.incrementAndGet();
+        long updateStartMillis = System.currentTimeMillis();
+
+        // The update completing the preload has read the table after the start too.
+        UpdateResult updateResult;
+        try {
+            updateResult = lockedUpdate();
+        } catch (RuntimeException e) {
+            closePreloadStream();
+            countPreloadFailure(e);
+            throw e;
+        }
+        preloadFailureCount.set(0);
+
+        updateStats = new UpdateStats(ReflectionUtil.getTableClassName(table.getClazz()), table.isPreloaded(),
+                lastIndicatorValue.get(), updateStartMillis, System.currentTimeMillis() - updateStartMillis,
+                updateResult.readRows, updateResult.morePages, updateResult.databaseTimeMillis);
+        if (table.isPreloaded()) {
+            // Out of updateLock: the dependent actions of the future run in this thread.
+            table.completePreload();
+            synchronized (completedUpdateMonitor) {
+                completedUpdateSequence = Math.max(completedUpdateSequence, sequence);
+                completedUpdateMonitor.notifyAll();
+            }
+        }
+        return updateResult;
+    }
+
+    /**
+     * The next preload batch is read from the cursor, i.e. right after the last applied one.
+     */
+    private void closePreloadStream() {
+        updateLock.lock();
+        try {
+            if (preloadStream != null) {
+                preloadStream.close();
+                preloadStream = null;
+            }
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    private void countPreloadFailure(RuntimeException e) {
+        if (!table.isPreloaded() && preloadFailureCount.incrementAndGet() == maxPreloadFailures) {
+            logger.error("Inmemo failed to preload table " + ReflectionUtil.getTableClassName(table.getClazz())
+                    + " " + maxPreloadFailures + " times in a row, its preload future is failed.", e);
+            table.failPreload(new InmemoException("Unable to preload table "
+                    + ReflectionUtil.getTableClassName(table.getClazz()) + " [failures=" + maxPreloadFailures
+                    + "].", e));
+        }
+    }
+
+    UpdateStats getUpdateStats() {
+        UpdateStats result = updateStats;
+        if (result == null) {
+            result = new UpdateStats(ReflectionUtil.getTableClassName(table.getClazz()), table.isPreloaded(),
+                    lastIndicatorValue.get(), 0, 0, 0, false, -1);
+        }
+        return result;
+    }
+
+    /**
+     * @param polling {@code true} iff the update is going to run the polling query, only then the clock query runs.
+     * @return Database time by the table clock: the clock query, the supplied clock or the local clock; -1 if the
+     * clock query doesn't run, has failed or has returned no time.
+     */
+    private long getDatabaseTimeMillis(boolean polling) {
+        try {
+            if (databaseClock != null) {
+                return databaseClock.getAsLong();
+            }
+            if (databaseClockSql == null) {
+                return System.currentTimeMillis();
+            }
+            if (!polling) {
+                return -1;
+            }
+
+            RowRoll rows = findPollingRows(databaseClockSql);
+            Object time = rows == null || rows.isEmpty() || rows.getRow(0).isEmpty()
+                    ? null
+                    : rows.getRow(0).values().iterator().next();
+            return time instanceof Number ? ((Number) time).longValue() : UpdateStats.getTimeMillis(time);
+        } catch (RuntimeException e) {
+            // Only the lag is unknown, the update goes on.
+            logger.warn("Inmemo failed to get the database time [table="
+                    + ReflectionUtil.getTableClassName(table.getClazz()) + "]: " + e, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Makes the scheduler run the next update as soon as possible, the notifications are coalesced.
+     */
+    void notifyChanged() {
+        if (running) {
+            UpdaterScheduler.notifyChanged(this);
+        }
+    }
+
+    /**
+     * Requests an update and waits until an update of the preloaded table started after this call has completed
+     * and the table contains the item.
+     *
+     * @return {@code true} if the item is visible, {@code false} on timeout or interruption.
+     */
+    boolean awaitVisible(long id, long timeoutMillis) {
+        long sequence = startedUpdateSequence.get() + 1;
+        long deadlineMillis = System.currentTimeMillis() + timeoutMillis;
+        notifyChanged();
+
+        synchronized (completedUpdateMonitor) {
+            while (completedUpdateSequence < sequence || !table.containsItem(id)) {
+                long waitMillis = deadlineMillis - System.currentTimeMillis();
+                if (waitMillis <= 0) {
+                    return false;
+                }
+
+                try {
+                    completedUpdateMonitor.wait(waitMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private UpdateResult lockedUpdate() {
         updateLock.lock();
 
         try {
             long startTimeMillis = System.currentTimeMillis();
+            databaseTimeMillis = getDatabaseTimeMillis(false);
             Object prevLastIndicatorValue = lastIndicatorValue.get();
+
+            // Preload batches are large and frequent by design, the preload logs its progress once per page.
+            boolean preloading = !table.isPreloaded();
             RowsResult rowsResult = getRecentlyChangedRows(prevLastIndicatorValue);
             RowRoll rows = rowsResult.rows;
 
             long afterGetRecentlyChangedRowsMillis = System.currentTimeMillis();
             long getRecentlyChangedMillis = afterGetRecentlyChangedRowsMillis - startTimeMillis;
 
-            if (rows.size() >= 100
-                    || getRecentlyChangedMillis >= TimeUnit.SECONDS.toMillis(1)) {
+            if (!preloading && (rows.size() >= 100
+                    || getRecentlyChangedMillis >= TimeUnit.SECONDS.toMillis(1))) {
                 logger.error("Table '"
                         + table.getClazz().getSimpleName()
                         + "': getRecentlyChangedRows returns "
@@ -253,8 +646,8 @@ class TableUpdater<T extends HasId> {
                         + prevLastIndicatorValue
                         + ", lastIndicatorValue="
                         + lastIndicatorValue.get()
-                        + ", thread="
-                        + threadName
+                        + ", updater="
+                        + name
                         + ", time=" + getRecentlyChangedMillis + " ms].");
             }
 
@@ -264,30 +657,84 @@ class TableUpdater<T extends HasId> {
             int idColumn = getIdColumn(rows);
             int indicatorFieldColumn = rows.getColumn(table.getIndicatorField());
 
+            List<Row> updatedRows = new ArrayList<>();
+
+            // Rows already applied by applyRows: not applied again, but the poll position moves past them.
+            List<Row> pushedRows = new ArrayList<>();
+            List<Long> pushedIds = new ArrayList<>();
+            int lastReadRow = -1;
+
+            // Ids deleted by the journal tombstones, the rows after a tombstone restore the item.
+            Set<Long> deletedIds = null;
+
             for (int i = 0; i < rows.size(); i++) {
+                if (isDeletedRow(rows.getRow(i))) {
+                    long deletedId = getRowId(rows.getRow(i));
+                    for (int j = updatedIds.size() - 1; j >= 0; j--) {
+                        if (updatedIds.get(j) == deletedId) {
+                            updatedIds.remove(j);
+                            updatedRows.remove(j);
+                        }
+                    }
+                    if (deletedIds == null) {
+                        deletedIds = new LinkedHashSet<>();
+                    }
+                    deletedIds.add(deletedId);
+                    continue;
+                }
+
                 long id = (long) rows.getValue(i, idColumn);
 
-                if (Objects.equals(rows.getValue(i, indicatorFieldColumn), prevLastIndicatorValue)
-                        && lastEntityIdsUpdateCount.containsKey(id)
-                        && lastEntityIdsUpdateCount.get(id) >= getMaxUpdateSameIndicatorTimes()) {
-                    continue;
+                if (!strictlyIncreasingIndicator
+                        && Objects.equals(rows.getValue(i, indicatorFieldColumn), prevLastIndicatorValue)) {
+                    if (lastEntityIdsUpdateCount.containsKey(id)
+                            && lastEntityIdsUpdateCount.get(id) >= getMaxUpdateSameIndicatorTimes()) {
+                        continue;
+                    }
+
+                    // The query uses ">=", so boundary rows are read again: skip them if nothing has been changed.
+                    if (boundaryRowHashes.containsKey(id)
+                            && boundaryRowHashes.get(id) == RowHash.of(rows.getRow(i))) {
+                        continue;
+                    }
                 }
 
-                // Insert or update entity.
-                Row row = rows.getRow(i);
-                T entity = typeOracle.convertFromRow(row);
-                table.insertOrUpdate(entity, row);
+                lastReadRow = i;
+                if (isPushedRow(id, rows.getRow(i))) {
+                    pushedRows.add(rows.getRow(i));
+                    pushedIds.add(id);
+                    continue;
+                }
 
+                updatedRows.add(rows.getRow(i));
                 updatedIds.add(id);
+                if (deletedIds != null) {
+                    deletedIds.remove(id);
+                }
+            }
+
+            if (deletedIds != null) {
+                for (long deletedId : deletedIds) {
+                    table.delete(deletedId, null);
+                }
+            }
+
+            if (!updatedRows.isEmpty()) {
+                int tableSizeBefore = table.hasSize() ? table.size() : 0;
+
+                // Insert or update entities as a single batch.
+                table.insertOrUpdate(updatedRows, typeOracle::convertFromRow);
 
-                // Insert or update row.
+                // Insert or update rows.
                 if (hasInsertOrUpdateByRow) {
-                    table.insertOrUpdate(row);
+                    for (Row row : updatedRows) {
+                        table.insertOrUpdate(row);
+                    }
                 }
 
-                if (i > 0 && i % 100000 == 0) {
+                if (updatedRows.size() >= 100000) {
                     logger.warn("Inserted "
-                            + i
+                            + updatedRows.size()
                             + " rows in a batch [table="
                             + table.getClazz().getSimpleName()
                             + "].");
@@ -295,7 +742,7 @@ class TableUpdater<T extends HasId> {
 
                 if (table.hasSize()) {
                     int tableSize = table.size();
-                    if (tableSize > 0 && tableSize % 100000 == 0) {
+                    if (tableSize / 100000 != tableSizeBefore / 100000) {
                         logger.warn("Table "
                                 + table.getClazz().getSimpleName()
                                 + " contains now "
@@ -303,13 +750,23 @@ class TableUpdater<T extends HasId> {
                                 + " rows.");
                     }
                 }
+            }
 
-                lastIndicatorValue.set(row.get(table.getIndicatorField()));
+            // The batch is applied: if it had failed, the page would have been read again from the cursor.
+            if (rowsResult.preloadCursorId != null) {
+                preloadCursorIndicatorValue = rowsResult.preloadCursorIndicatorValue;
+                preloadCursorId = rowsResult.preloadCursorId;
+                preloadedRows += rows.size();
             }
 
-            if (updatedIds.size() >= 10) {
-                logger.info("Thread '"
-                        + threadName
+            if (lastReadRow >= 0) {
+                lastIndicatorValue.set(rows.getValue(lastReadRow, indicatorFieldColumn));
+                dropPushedRowsBehind(lastIndicatorValue.get());
+            }
+
+            if (!preloading && updatedIds.size() >= 10) {
+                logger.info("Updater '"
+                        + name
                         + "' has found "
                         + rows.size()
                         + "("
@@ -333,8 +790,8 @@ class TableUpdater<T extends HasId> {
                     logger.info("Updated entries have id=" + ids + '.');
                 }
 
-                logger.info("Thread '"
-                        + threadName
+                logger.info("Updater '"
+                        + name
                         + "' has updated "
                         + updatedIds.size()
                         + " items in "
@@ -346,7 +803,8 @@ class TableUpdater<T extends HasId> {
                         + "].");
             }
 
-            if (updatedIds.isEmpty() && !table.isPreloaded() && !rowsResult.journalReplayInProgress) {
+            if (updatedIds.isEmpty() && !table.isPreloaded() && !rowsResult.journalReplayInProgress
+                    && !rowsResult.morePages) {
                 if (table.hasSize()) {
                     logger.info("Inmemo ready to dump journal of table " + ReflectionUtil.getTableClassName(table.getClazz())
                             + " [items=" + table.size() + "].");
@@ -366,12 +824,31 @@ class TableUpdater<T extends HasId> {
                             + " in " + totalTimeMillis + " ms.");
                 }
                 table.logBucketStats();
+                table.logMemoryStats();
                 table.setPreloaded(true);
             }
 
+            if (strictlyIncreasingIndicator) {
+                return new UpdateResult(updatedIds, rows.size(), rowsResult.journalReplayInProgress,
+                        rowsResult.morePages, databaseTimeMillis);
+            }
+
             Object newLastIndicatorValue = lastIndicatorValue.get();
             if (!Objects.equals(prevLastIndicatorValue, newLastIndicatorValue)) {
                 lastEntityIdsUpdateCount.clear();
+                boundaryRowHashes.clear();
+            }
+            for (int i = 0; i < updatedRows.size(); i++) {
+                Row row = updatedRows.get(i);
+                if (Objects.equals(row.get(table.getIndicatorField()), newLastIndicatorValue)) {
+                    boundaryRowHashes.put(updatedIds.get(i), RowHash.of(row));
+                }
+            }
+            for (int i = 0; i < pushedRows.size(); i++) {
+                Row row = pushedRows.get(i);
+                if (Objects.equals(row.get(table.getIndicatorField()), newLastIndicatorValue)) {
+                    boundaryRowHashes.put(pushedIds.get(i), RowHash.of(row));
+                }
             }
             List<Long> trulyUpdatedIds = new ArrayList<>(updatedIds.size());
 
@@ -390,12 +867,117 @@ class TableUpdater<T extends HasId> {
                 }
             }
 
-            return new UpdateResult(trulyUpdatedIds, rowsResult.journalReplayInProgress);
+            return new UpdateResult(trulyUpdatedIds, rows.size(), rowsResult.journalReplayInProgress,
+                    rowsResult.morePages, databaseTimeMillis);
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    /**
+     * Applies the rows supplied from outside of the updater, see {@link Inmemo#applyRows(Class, RowRoll)}.
+     */
+    void applyRows(RowRoll rows) {
+        updateLock.lock();
+        try {
+            List<Row> updatedRows = new ArrayList<>(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                Row row = rows.getRow(i);
+                if (isDeletedRow(row)) {
+                    applyPushedRowBatch(updatedRows);
+                    updatedRows.clear();
+                    long id = getRowId(row);
+                    table.delete(id, newTombstone(row));
+                    pushedRows.remove(id);
+                } else {
+                    updatedRows.add(row);
+                }
+            }
+            applyPushedRowBatch(updatedRows);
         } finally {
             updateLock.unlock();
         }
     }
 
+    /**
+     * Only the poller moves the poll position, so a row missed or delayed by the caller is still found by the
+     * polls. The applied rows are remembered not to apply them again when they are polled.
+     */
+    private void applyPushedRowBatch(List<Row> rows) {
+        applyRowBatch(rows);
+        for (Row row : rows) {
+            pushedRows.put(getRowId(row), new PushedRow(RowHash.of(row), row.get(table.getIndicatorField())));
+        }
+    }
+
+    /**
+     * @return {@code true} iff the polled row has been applied by applyRows with the same content.
+     */
+    private boolean isPushedRow(long id, Row row) {
+        if (pushedRows.isEmpty()) {
+            return false;
+        }
+
+        PushedRow pushedRow = pushedRows.remove(id);
+        return pushedRow != null && pushedRow.hash == RowHash.of(row);
+    }
+
+    /**
+     * Drops the pushed rows the poller won't read any more: their indicator is behind the poll position.
+     */
+    private void dropPushedRowsBehind(Object indicatorValue) {
+        if (pushedRows.isEmpty() || indicatorValue == null) {
+            return;
+        }
+
+        pushedRows.retainEntries((id, pushedRow) -> pushedRow.indicatorValue != null
+                && compareIndicatorValues(pushedRow.indicatorValue, indicatorValue) >= 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compareIndicatorValues(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+        }
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    private void applyRowBatch(List<Row> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        table.insertOrUpdate(rows, typeOracle::convertFromRow);
+        if (table.hasInsertOrUpdateByRow()) {
+            for (Row row : rows) {
+                table.insertOrUpdate(row);
+            }
+        }
+    }
+
+    /**
+     * @return Journal row deleting the item on replay, it has the id and indicator columns as the regular rows.
+     */
+    private Row newTombstone(Row row) {
+        Row tombstone = new Row(3);
+        tombstone.put(row.containsKey("id") ? "id" : "ID", getRowId(row));
+        tombstone.put(table.getIndicatorField(), row.get(table.getIndicatorField()));
+        tombstone.put(Inmemo.DELETED_ROW_KEY, Boolean.TRUE);
+        return tombstone;
+    }
+
+    private static boolean isDeletedRow(Row row) {
+        return Boolean.TRUE.equals(row.get(Inmemo.DELETED_ROW_KEY));
+    }
+
+    private static long getRowId(Row row) {
+        Object id = row.containsKey("id") ? row.get("id") : row.get("ID");
+        if (!(id instanceof Number)) {
+            throw new IllegalArgumentException("Row expected to have numeric id [row=" + row + "].");
+        }
+        return ((Number) id).longValue();
+    }
+
     private static int getIdColumn(RowRoll rowRoll) {
         int column = rowRoll.getColumn("id");
         if (column == -1) {
@@ -404,32 +986,36 @@ class TableUpdater<T extends HasId> {
         return column;
     }
 
-    private void sleepBetweenRescans(int updatedCount) {
-        long rescanTimeMillis = getRescanTimeMillis();
+    private long getDelayBetweenRescans(int updatedCount, boolean morePages) {
+        if (morePages) {
+            // Preload page or a burst of changes: read the rest right away.
+            rescanMillis = minRescanMillis;
+            return 0;
+        }
+
+        if (pollingIntervalMillis != null && table.isPreloaded()) {
+            // The changes are pushed by Inmemo.applyRows, polling is a safety net only.
+            rescanMillis = pollingIntervalMillis == 0 ? Long.MAX_VALUE : pollingIntervalMillis;
+            return rescanMillis;
+        }
 
         if (updatedCount == 0) {
-            sleep((4 * rescanTimeMillis / 5)
-                    + ThreadLocalRandom.current().nextInt((int) (rescanTimeMillis / 5)));
-        } else if (updatedCount * 2 > MAX_ROWS_IN_SINGLE_SQL_STATEMENT) {
-            logger.info("Thread '"
-                    + threadName
-                    + "' will not sleep because it updated near maximum row count.");
-        } else {
-            sleep(ThreadLocalRandom.current().nextInt((int) (rescanTimeMillis / 5)));
+            // Idle table: back off exponentially, with jitter to spread the polls of the tables.
+            long rescanTimeMillis = Math.min(maxRescanMillis, rescanMillis * 2);
+            rescanMillis = rescanTimeMillis;
+            return rescanTimeMillis - ThreadLocalRandom.current().nextLong(rescanTimeMillis / 5 + 1);
         }
+
+        rescanMillis = minRescanMillis;
+        return minRescanMillis;
     }
 
-    private long getRescanTimeMillis() {
-        return RESCAN_TIME_MILLIS;
+    long getRescanTimeMillis() {
+        return rescanMillis;
     }
 
-    void sleep(long timeMillis) {
-        try {
-            Thread.sleep(timeMillis);
-        } catch (InterruptedException e) {
-            logger.error("Thread '" + threadName + "' has been stopped because of InterruptedException.", e);
-            running = false;
-        }
+    long getSkippedPollCountForTesting() {
+        return skippedPollCount;
     }
 
     private RowsResult getRecentlyChangedRows(Object indicatorLastValue) {
@@ -440,60 +1026,373 @@ class TableUpdater<T extends HasId> {
                 replayReader = table.openJournalReader();
             }
 
-            RowRoll journalRows = replayReader.nextBlock();
+            RowRoll journalRows = journalReadAhead == null
+                    ? replayReader.nextBlock()
+                    : getReadAhead(journalReadAhead);
+            journalReadAhead = null;
+
             if (journalRows != null && !journalRows.isEmpty()) {
+                // The reader is used by a single thread at a time: the next block is taken only via the future.
+                JournalReader reader = replayReader;
+                journalReadAhead = readAheadExecutor.submit(reader::nextBlock);
+
                 replayedRows += journalRows.size();
                 logger.info("getRecentlyChangedRows loads data of using the journal in "
                         + (System.currentTimeMillis() - startTimeMillis)
                         + " ms [table=" + table.getClazz().getSimpleName()
                         + ", blockRows=" + journalRows.size()
                         + ", replayedRows=" + replayedRows + "].");
-                return new RowsResult(journalRows, true);
+                return new RowsResult(journalRows, true, false);
             }
 
             finishReplayAndConfigureWriter(replayReader.getStatus());
         }
 
-        String forceIndexClause = table.getDatabaseIndex() == null ? "" : ("FORCE INDEX (" + table.getDatabaseIndex() + ')');
-        RowRoll rows;
-
-        if (indicatorLastValue == null) {
-            rows = jacuzzi.findRowRoll("SELECT * FROM "
-                    + typeOracle.getTableName()
-                    + ' '
-                    + forceIndexClause
-                    + " ORDER BY "
-                    + table.getIndicatorField()
-                    + ", "
-                    + typeOracle.getIdColumn()
-                    + " LIMIT "
-                    + MAX_ROWS_IN_SINGLE_SQL_STATEMENT);
+        if (!table.isPreloaded()) {
+            return nextPreloadBatch(indicatorLastValue);
+        }
+
+        List<Object> probeValues = null;
+        if (changeProbeSql != null) {
+            probeValues = probeChanges(indicatorLastValue);
+            if (probeValues.equals(lastProbeValues)
+                    && System.currentTimeMillis() - lastPollMillis < maxProbeSkipMillis) {
+                skippedPollCount++;
+                return new RowsResult(new RowRoll(), false, false);
+            }
+        }
+
+        if (databaseClockSql != null) {
+            databaseTimeMillis = getDatabaseTimeMillis(true);
+        }
+        RowRoll rows = findRecentlyChangedRows(indicatorLastValue);
+        boolean morePages = rows.size() >= MAX_ROWS_IN_SINGLE_SQL_STATEMENT;
+
+        // The probe result is remembered only when the poll has read everything before the probe.
+        lastProbeValues = morePages ? null : probeValues;
+        lastPollMillis = System.currentTimeMillis();
+        return new RowsResult(rows, false, morePages);
+    }
+
+    /**
+     * @return Values of the change probe result rows, they are the same until the table is changed.
+     */
+    private List<Object> probeChanges(Object indicatorLastValue) {
+        RowRoll probeRows;
+        if (initialChangeProbeSql == null) {
+            probeRows = findPollingRows(changeProbeSql);
         } else {
-            rows = jacuzzi.findRowRoll("SELECT * FROM "
-                            + typeOracle.getTableName()
-                            + ' '
-                            + forceIndexClause
-                            + " WHERE "
-                            + table.getIndicatorField()
-                            + " >= ? ORDER BY "
-                            + table.getIndicatorField()
-                            + ", "
-                            + typeOracle.getIdColumn()
-                            + " LIMIT "
-                            + MAX_ROWS_IN_SINGLE_SQL_STATEMENT,
-                    indicatorLastValue
-            );
+            probeRows = indicatorLastValue == null
+                    ? findPollingRows(initialChangeProbeSql)
+                    : findPollingRows(changeProbeSql, indicatorLastValue);
+        }
+
+        List<Object> values = new ArrayList<>();
+        if (probeRows != null) {
+            for (int i = 0; i < probeRows.size(); i++) {
+                values.addAll(probeRows.getRow(i).values());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Preload streams pages of the table by (indicator, id) keyset and passes them by small batches, so a batch
+     * is applied while the next rows are being fetched.
+     */
+    private RowsResult nextPreloadBatch(Object indicatorLastValue) {
+        if (preloadParallelism > 1 && !parallelPreloadDone && indicatorLastValue == null && preloadCursorId == null) {
+            // If it fails, the table is loaded sequentially from the very beginning.
+            parallelPreloadDone = true;
+            Object watermark = parallelPreload();
+            if (watermark != null) {
+                lastIndicatorValue.set(watermark);
+                indicatorLastValue = watermark;
+            }
+        }
+
+        while (true) {
+            if (preloadStream == null) {
+                preloadStream = preloadCursorId == null
+                        ? streamPreloadPage(getRecentlyChangedRowsSql(indicatorLastValue != null, preloadChunkRows),
+                        indicatorLastValue == null ? new Object[0] : new Object[]{indicatorLastValue})
+                        : streamPreloadPage(getRowsAfterSql(preloadChunkRows),
+                        preloadCursorIndicatorValue, preloadCursorIndicatorValue, preloadCursorId);
+            }
+
+            RowRoll batch;
+            try {
+                batch = preloadStream.nextBatch();
+            } catch (InmemoException e) {
+                // The page will be read again from the cursor.
+                preloadStream.close();
+                preloadStream = null;
+                throw e;
+            }
+
+            if (batch != null) {
+                // A short batch is the last one of the page, a short page is the last one of the table.
+                boolean morePages = batch.size() >= streamBatchRows
+                        || preloadStream.getRowCount() >= preloadChunkRows;
+                RowsResult result = new RowsResult(batch, false, morePages);
+                result.preloadCursorIndicatorValue = batch.getRow(batch.size() - 1).get(table.getIndicatorField());
+                result.preloadCursorId = (long) batch.getValue(batch.size() - 1, getIdColumn(batch));
+                return result;
+            }
+
+            boolean morePages = preloadStream.getRowCount() >= preloadChunkRows;
+            logger.info("Inmemo preload of table " + ReflectionUtil.getTableClassName(table.getClazz())
+                    + " has read a page in " + (System.currentTimeMillis() - startTimeMillis) + " ms since start"
+                    + " [pageRows=" + preloadStream.getRowCount() + ", preloadedRows=" + preloadedRows
+                    + ", lastIndicatorValue=" + preloadCursorIndicatorValue + "].");
+            preloadStream = null;
+            if (!morePages) {
+                return new RowsResult(new RowRoll(), false, false);
+            }
+        }
+    }
+
+    /**
+     * Loads the table by id ranges concurrently, each range on its own connection.
+     *
+     * @return Maximal indicator value before the load: the rows changed during the load have indicator values
+     * not less than it, {@code null} if the table is empty.
+     */
+    private Object parallelPreload() {
+        long startTimeMillis = System.currentTimeMillis();
+        String idColumn = typeOracle.getIdColumn();
+
+        RowRoll bounds = jacuzzi.findRowRoll("SELECT MIN("
+                + idColumn
+                + ") AS MIN_ID, MAX("
+                + idColumn
+                + ") AS MAX_ID, MAX("
+                + table.getIndicatorField()
+                + ") AS MAX_INDICATOR FROM "
+                + typeOracle.getTableName());
+        Row boundsRow = bounds.isEmpty() ? null : bounds.getRow(0);
+        if (boundsRow == null || boundsRow.get("MIN_ID") == null || boundsRow.get("MAX_INDICATOR") == null) {
+            return null;
+        }
+
+        long minId = ((Number) boundsRow.get("MIN_ID")).longValue();
+        long maxId = ((Number) boundsRow.get("MAX_ID")).longValue();
+        Object watermark = boundsRow.get("MAX_INDICATOR");
+
+        long idCount = maxId - minId + 1;
+        int rangeCount = (int) Math.max(1, Math.min(preloadParallelism, idCount));
+        Object rowListenerLock = new Object();
+
+        List<Future<Integer>> futures = new ArrayList<>(rangeCount);
+        long from = minId;
+        for (int i = 0; i < rangeCount; i++) {
+            long to = i == rangeCount - 1 ? maxId : from + idCount / rangeCount + (i < idCount % rangeCount ? 1 : 0) - 1;
+            long rangeFrom = from;
+            futures.add(readAheadExecutor.submit(() -> loadIdRange(rangeFrom, to, rowListenerLock)));
+            from = to + 1;
+        }
+
+        int rowCount = 0;
+        try {
+            for (Future<Integer> future : futures) {
+                rowCount += future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InmemoException("Interrupted while loading " + table.getClazz().getSimpleName()
+                    + " by id ranges.", e);
+        } catch (ExecutionException e) {
+            throw new InmemoException("Can't load " + table.getClazz().getSimpleName() + " by id ranges.",
+                    e.getCause());
+        } finally {
+            for (Future<Integer> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        logger.info("Inmemo loaded " + rowCount + " rows of " + ReflectionUtil.getTableClassName(table.getClazz())
+                + " by " + rangeCount + " id ranges in " + (System.currentTimeMillis() - startTimeMillis)
+                + " ms [minId=" + minId + ", maxId=" + maxId + ", watermark=" + watermark + "].");
+        return watermark;
+    }
+
+    private int loadIdRange(long from, long to, Object rowListenerLock) {
+        boolean hasInsertOrUpdateByRow = table.hasInsertOrUpdateByRow();
+        String idColumn = typeOracle.getIdColumn();
+
+        int rowCount = 0;
+        try (RowStream rows = streamRows(getSelectClause() + " FROM "
+                + typeOracle.getTableName()
+                + " WHERE "
+                + idColumn
+                + " >= ? AND "
+                + idColumn
+                + " <= ?", from, to)) {
+            RowRoll batch;
+            while ((batch = rows.nextBatch()) != null) {
+                List<Row> batchRows = new ArrayList<>(batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    batchRows.add(batch.getRow(i));
+                }
+
+                table.insertOrUpdate(batchRows, typeOracle::convertFromRow);
+
+                // Row listeners don't expect concurrent calls.
+                if (hasInsertOrUpdateByRow) {
+                    synchronized (rowListenerLock) {
+                        for (Row row : batchRows) {
+                            table.insertOrUpdate(row);
+                        }
+                    }
+                }
+
+                rowCount += batchRows.size();
+            }
+        }
+        return rowCount;
+    }
+
+    /**
+     * @return Stream of the rows to be read to the end within the calling method.
+     */
+    private RowStream streamRows(String sql, Object... args) {
+        return new RowStream(readAheadExecutor, rowsDataSource, sql, args, streamBatchRows, true);
+    }
+
+    /**
+     * @return Stream of the preload page, it is read by a batch per update.
+     */
+    private RowStream streamPreloadPage(String sql, Object... args) {
+        return new RowStream(readAheadExecutor, rowsDataSource, sql, args, streamBatchRows, false);
+    }
+
+    private RowRoll findRecentlyChangedRows(Object indicatorLastValue) {
+        long startTimeMillis = System.currentTimeMillis();
+
+        if (pollingSql == null) {
+            // The same strings on each poll, so the statements prepared for them are reused.
+            pollingSql = getRecentlyChangedRowsSql(true, MAX_ROWS_IN_SINGLE_SQL_STATEMENT);
+            initialPollingSql = getRecentlyChangedRowsSql(false, MAX_ROWS_IN_SINGLE_SQL_STATEMENT);
         }
 
+        RowRoll rows = indicatorLastValue == null
+                ? findPollingRows(initialPollingSql)
+                : findPollingRows(pollingSql, indicatorLastValue);
+
         long queryTimeMillis = System.currentTimeMillis() - startTimeMillis;
-        if (queryTimeMillis * 10 > getRescanTimeMillis()) {
+        if (queryTimeMillis * 10 > DEFAULT_MAX_RESCAN_MILLIS) {
             logger.warn("Rescanning query for entity `"
                     + table.getClazz().getName()
                     + "` took too long time "
                     + queryTimeMillis
                     + " ms.");
         }
-        return new RowsResult(rows, false);
+        return rows;
+    }
+
+    private RowRoll findPollingRows(String sql, Object... args) {
+        return pinnedConnection == null ? jacuzzi.findRowRoll(sql, args) : pinnedConnection.findRowRoll(sql, args);
+    }
+
+    private String getRecentlyChangedRowsSql(boolean hasIndicatorLastValue, int limit) {
+        // The rows having the last seen indicator value are read again unless it is strictly increasing.
+        String indicatorCondition = " WHERE " + table.getIndicatorField()
+                + (strictlyIncreasingIndicator ? " > ?" : " >= ?");
+
+        return getSelectClause() + " FROM "
+                + typeOracle.getTableName()
+                + ' '
+                + getForceIndexClause()
+                + (hasIndicatorLastValue ? indicatorCondition : "")
+                + " ORDER BY "
+                + table.getIndicatorField()
+                + ", "
+                + typeOracle.getIdColumn()
+                + " LIMIT "
+                + limit;
+    }
+
+    /**
+     * @return Query of the rows following the given (indicator, id) in (indicator, id) order, parameters are
+     * the indicator value twice and the id.
+     */
+    private String getRowsAfterSql(int limit) {
+        return getSelectClause() + " FROM "
+                + typeOracle.getTableName()
+                + ' '
+                + getForceIndexClause()
+                + " WHERE "
+                + table.getIndicatorField()
+                + " > ? OR ("
+                + table.getIndicatorField()
+                + " = ? AND "
+                + typeOracle.getIdColumn()
+                + " > ?) ORDER BY "
+                + table.getIndicatorField()
+                + ", "
+                + typeOracle.getIdColumn()
+                + " LIMIT "
+                + limit;
+    }
+
+    /**
+     * @return {@code SELECT *} or, if the table uses column projection, {@code SELECT} of the columns it needs.
+     */
+    private String getSelectClause() {
+        String result = selectClause;
+        // Not started yet (i.e. updated directly by tests), so the columns are not frozen.
+        return result == null ? newSelectClause(getProjectedColumns()) : result;
+    }
+
+    private static String newSelectClause(List<String> projectedColumns) {
+        return projectedColumns.isEmpty() ? "SELECT *" : "SELECT " + String.join(", ", projectedColumns);
+    }
+
+    /**
+     * @return Columns the rows are projected to, empty if the table doesn't use column projection.
+     */
+    List<String> getProjectedColumns() {
+        List<String> result = projectedColumns;
+        return result == null ? newProjectedColumns() : result;
+    }
+
+    private List<String> newProjectedColumns() {
+        if (!Inmemo.isColumnProjection(table.getClazz())) {
+            return Collections.emptyList();
+        }
+
+        Map<String, String> columns = new LinkedHashMap<>();
+        List<String> names = new ArrayList<>();
+        names.add(typeOracle.getIdColumn());
+        names.add(table.getIndicatorField());
+
+        // Readable and writable properties, as they are copied between the items.
+        List<String> properties = new ArrayList<>(ReflectionUtil.getSettersMap(table.getClazz()).keySet());
+        properties.retainAll(ReflectionUtil.getGettersMap(table.getClazz()).keySet());
+        Collections.sort(properties);
+        names.addAll(properties);
+
+        names.addAll(table.getRowColumns());
+
+        for (String name : names) {
+            columns.putIfAbsent(name.toLowerCase(), name);
+        }
+        return Collections.unmodifiableList(new ArrayList<>(columns.values()));
+    }
+
+    private String getForceIndexClause() {
+        return table.getDatabaseIndex() == null ? "" : ("FORCE INDEX (" + table.getDatabaseIndex() + ')');
+    }
+
+    private static RowRoll getReadAhead(Future<RowRoll> readAhead) {
+        try {
+            return readAhead.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InmemoException("Interrupted while waiting for read-ahead.", e);
+        } catch (ExecutionException e) {
+            throw new InmemoException("Read-ahead failed.", e.getCause());
+        }
     }
 
     private void finishReplayAndConfigureWriter(JournalReader.Status status) {
@@ -553,100 +1452,50 @@ class TableUpdater<T extends HasId> {
         dataSourceByClazzName.put(clazzName, dataSource);
     }
 
-    private static final class TableUpdaterRunnable implements Runnable {
-        private final TableUpdater<?> tableUpdater;
-
-        private TableUpdaterRunnable(TableUpdater<?> tableUpdater) {
-            this.tableUpdater = tableUpdater;
-        }
-
-        @Override
-        public void run() {
-            tableUpdaterThreadCount.incrementAndGet();
-            while (tableUpdater.running) {
-                try {
-                    tableUpdater.randomizedUpdate();
-                } catch (Exception e) {
-                    logger.error("Unexpected "
-                            + e.getClass().getName()
-                            + " exception in TableUpdaterRunnable of "
-                            + tableUpdater.threadName
-                            + ": " + e, e);
-                }
-            }
-
-            tableUpdaterThreadCount.decrementAndGet();
-
-            logger.warn("Inmemo update thread for "
-                    + tableUpdater.table.getClazz().getName()
-                    + " finished.");
-        }
-    }
-
     static final class UpdateResult {
         final List<Long> updatedIds;
+        final int readRows;
         final boolean journalReplayInProgress;
 
-        private UpdateResult(List<Long> updatedIds, boolean journalReplayInProgress) {
+        // The query has returned as many rows as its limit, so there are probably more.
+        final boolean morePages;
+
+        final long databaseTimeMillis;
+
+        private UpdateResult(List<Long> updatedIds, int readRows, boolean journalReplayInProgress,
+                             boolean morePages, long databaseTimeMillis) {
             this.updatedIds = updatedIds;
+            this.readRows = readRows;
             this.journalReplayInProgress = journalReplayInProgress;
+            this.morePages = morePages;
+            this.databaseTimeMillis = databaseTimeMillis;
         }
     }
 
-    private static final class RowsResult {
-        private final RowRoll rows;
-        private final boolean journalReplayInProgress;
+    private static final class PushedRow {
+        private final long hash;
+        private final Object indicatorValue;
 
-        private RowsResult(RowRoll rows, boolean journalReplayInProgress) {
-            this.rows = rows;
-            this.journalReplayInProgress = journalReplayInProgress;
+        private PushedRow(long hash, Object indicatorValue) {
+            this.hash = hash;
+            this.indicatorValue = indicatorValue;
         }
     }
 
-    private static final class TableUpdaterThreadsPrinterRunnable implements Runnable {
-        @SuppressWarnings("BusyWait")
-        @Override
-        public void run() {
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    Thread.sleep(TimeUnit.SECONDS.toMillis(300));
-                } catch (InterruptedException e) {
-                    logger.warn("TableUpdaterThreadsPrinterRunnable stopped because of"
-                            + " InterruptedException.");
-                    break;
-                }
+    private static final class RowsResult {
+        private final RowRoll rows;
+        private final boolean journalReplayInProgress;
 
-                if (tableUpdaterThreadCount.get() == 0) {
-                    logger.warn("TableUpdaterThreadsPrinterRunnable stopped because of"
-                            + " `tableUpdaterThreadCount.get() == 0`.");
-                    break;
-                }
+        private final boolean morePages;
 
-                synchronized (tableUpdaterThreads) {
-                    logger.info("tableUpdaterThreads.size()=" + tableUpdaterThreads.size() + ".");
-                    for (Thread tableUpdaterRunnable : tableUpdaterThreads) {
-                        printStackTrace(tableUpdaterRunnable);
-                    }
-                }
-            }
-        }
+        // Preload keyset of the last row of the batch, the cursor moves to it once the batch is applied.
+        private Object preloadCursorIndicatorValue;
+        private Long preloadCursorId;
 
-        private void printStackTrace(Thread thread) {
-            StringBuilder result = new StringBuilder();
-            StackTraceElement[] elements = thread.getStackTrace();
-            for (StackTraceElement element : elements) {
-                result.append(thread.getName()).append(": ").append(element.toString()).append('\n');
-            }
-            result.append("\n\n");
-            logger.info(thread.getName() + " stack trace: " + result);
+        private RowsResult(RowRoll rows, boolean journalReplayInProgress, boolean morePages) {
+            this.rows = rows;
+            this.journalReplayInProgress = journalReplayInProgress;
+            this.morePages = morePages;
         }
     }
-
-    static {
-        Thread tableUpdaterThreadsPrinterThread = new Thread(new TableUpdaterThreadsPrinterRunnable());
-        tableUpdaterThreadsPrinterThread.setDaemon(true);
-        tableUpdaterThreadsPrinterThread.setUncaughtExceptionHandler((t, e)
-                -> logger.error("Uncaught exception [thread=" + t + ", exception=" + e + "]."));
-        tableUpdaterThreadsPrinterThread.start();
-    }
 }
@@ -0,0 +1,149 @@
+package com.codeforces.inmemo;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Date;
+
+/**
+ * Freshness of a table as seen by its updater after the last successful update, see
+ * {@link Inmemo#getUpdateStats(Class)}. The database time is taken by the clock set with
+ * {@link Inmemo#setDatabaseClock(Class, String)} (or the local clock) just before the update.
+ *
+ * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
+ */
+@SuppressWarnings("WeakerAccess")
+public final class UpdateStats {
+    private final String name;
+    private final boolean preloaded;
+    private final Object lastIndicatorValue;
+    private final long lastUpdateTimeMillis;
+    private final long lastUpdateDurationMillis;
+    private final int lastUpdateRows;
+    private final boolean backlogged;
+    private final long databaseTimeMillis;
+
+    UpdateStats(String name, boolean preloaded, Object lastIndicatorValue, long lastUpdateTimeMillis,
+                long lastUpdateDurationMillis, int lastUpdateRows, boolean backlogged, long databaseTimeMillis) {
+        this.name = name;
+        this.preloaded = preloaded;
+        this.lastIndicatorValue = lastIndicatorValue;
+        this.lastUpdateTimeMillis = lastUpdateTimeMillis;
+        this.lastUpdateDurationMillis = lastUpdateDurationMillis;
+        this.lastUpdateRows = lastUpdateRows;
+        this.backlogged = backlogged;
+        this.databaseTimeMillis = databaseTimeMillis;
+    }
+
+    /**
+     * @return Table class name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public boolean isPreloaded() {
+        return preloaded;
+    }
+
+    /**
+     * @return The newest applied indicator value or {@code null} if no row has been applied.
+     */
+    public Object getLastIndicatorValue() {
+        return lastIndicatorValue;
+    }
+
+    /**
+     * @return Wall-clock time when the last successful update has started, zero if there was no such update.
+     */
+    public long getLastUpdateTimeMillis() {
+        return lastUpdateTimeMillis;
+    }
+
+    public long getLastUpdateDurationMillis() {
+        return lastUpdateDurationMillis;
+    }
+
+    /**
+     * @return Number of rows read by the last update (including the rows already applied before).
+     */
+    public int getLastUpdateRows() {
+        return lastUpdateRows;
+    }
+
+    /**
+     * @return {@code true} if the last update has read as many rows as its limit, so more rows are waiting.
+     */
+    public boolean isBacklogged() {
+        return backlogged;
+    }
+
+    /**
+     * @return Database time before the last update, {@code -1} if unknown: a clock query runs only before the
+     * polling query of the preloaded table, and it may fail.
+     */
+    public long getDatabaseTimeMillis() {
+        return databaseTimeMillis;
+    }
+
+    /**
+     * The database time before the last update minus the newest applied indicator value, for date and timestamp
+     * indicators. It grows while the table is idle too, check {@link #isBacklogged()} and
+     * {@link #getStalenessMillis()} to tell lagging from idle.
+     *
+     * @return Lag of the table behind the database, {@code -1} if unknown.
+     */
+    public long getIndicatorLagMillis() {
+        long indicatorMillis = getTimeMillis(lastIndicatorValue);
+        if (databaseTimeMillis < 0 || indicatorMillis < 0) {
+            return -1;
+        }
+        return Math.max(0, databaseTimeMillis - indicatorMillis);
+    }
+
+    /**
+     * @return Milliseconds since the last successful update has started (till now), {@code -1} if there was no
+     * such update.
+     */
+    public long getStalenessMillis() {
+        return lastUpdateTimeMillis == 0 ? -1 : System.currentTimeMillis() - lastUpdateTimeMillis;
+    }
+
+    /**
+     * @return Milliseconds of the date or timestamp as the JDBC drivers return it, {@code -1} for other values.
+     */
+    static long getTimeMillis(Object time) {
+        if (time instanceof Date) {
+            return ((Date) time).getTime();
+        }
+        if (time instanceof Instant) {
+            return ((Instant) time).toEpochMilli();
+        }
+        if (time instanceof OffsetDateTime) {
+            return ((OffsetDateTime) time).toInstant().toEpochMilli();
+        }
+        if (time instanceof ZonedDateTime) {
+            return ((ZonedDateTime) time).toInstant().toEpochMilli();
+        }
+        if (time instanceof LocalDateTime) {
+            return ((LocalDateTime) time).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return "UpdateStats{name=" + name
+                + ", preloaded=" + preloaded
+                + ", lastIndicatorValue=" + lastIndicatorValue
+                + ", lastUpdateTimeMillis=" + lastUpdateTimeMillis
+                + ", lastUpdateDurationMillis=" + lastUpdateDurationMillis
+                + ", lastUpdateRows=" + lastUpdateRows
+                + ", backlogged=" + backlogged
+                + ", indicatorLagMillis=" + getIndicatorLagMillis()
+                + ", stalenessMillis=" + getStalenessMillis()
+                + '}';
+    }
+}
@@ -0,0 +1,232 @@
+package com.codeforces.inmemo;
+
+import org.apache.log4j.Logger;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs all the table updaters on a few shared threads instead of a thread per table. An updater waiting for its
+ * next rescan takes no thread: a timer puts it into the ready queue when the delay is over, then the first free
+ * poller runs a single update of it. The number of pollers ({@code -DInmemo.UpdaterPollers}) caps the number of
+ * concurrent database polls.
+ * <p>
+ * The ready queue is ordered by priority: preloading tables first, then the tables which have found rows on the
+ * previous update (probably lagging), then the others in order of readiness. The priorities age: an updater is
+ * ordered by its ready time delayed by {@link #PRIORITY_AGING_MILLIS} per priority level, so the preloads (which
+ * are queued again after each batch) can't hold back the live tables for longer than that.
+ * </p>
+ * <p>
+ * {@link #notifyChanged(TableUpdater)} makes a waiting updater ready at once. The notifications coming before
+ * the next update starts are coalesced into this single update.
+ * </p>
+ *
+ * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
+ */
+final class UpdaterScheduler {
+    private static final Logger logger = Logger.getLogger(UpdaterScheduler.class);
+
+    static final String POLLERS_PROPERTY = "Inmemo.UpdaterPollers";
+    private static final int DEFAULT_POLLERS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    private static final int PRELOADING_PRIORITY = 0;
+    private static final int LAGGING_PRIORITY = 1;
+    private static final int IDLE_PRIORITY = 2;
+    private static final long PRIORITY_AGING_MILLIS = 500;
+
+    private static final PriorityBlockingQueue<ReadyUpdater> readyQueue = new PriorityBlockingQueue<>();
+    private static final AtomicLong readySequence = new AtomicLong();
+    private static final AtomicInteger runningUpdaterCount = new AtomicInteger();
+
+    // Updaters waiting for the timer (or parked) and the updaters notified since their last update has started.
+    private static final Map<TableUpdater<?>, WakeUp> waitingUpdaters = new ConcurrentHashMap<>();
+    private static final Set<TableUpdater<?>> notifiedUpdaters = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "InmemoUpdaterTimer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        // The wake-ups fired by the notifications are cancelled, they shouldn't stay in the queue till their delay.
+        timer.setRemoveOnCancelPolicy(true);
+
+        int pollerCount = InmemoProperties.getIntProperty(logger, POLLERS_PROPERTY, DEFAULT_POLLERS, 1, 1024);
+        for (int i = 1; i <= pollerCount; i++) {
+            Thread thread = new Thread(UpdaterScheduler::poll, "InmemoUpdaterPoller#" + i);
+            thread.setDaemon(true);
+            thread.setUncaughtExceptionHandler((t, e)
+                    -> logger.error("Uncaught exception [thread=" + t + ", exception=" + e + "]."));
+            thread.start();
+        }
+        logger.info("Inmemo updater scheduler has started " + pollerCount + " pollers.");
+    }
+
+    private UpdaterScheduler() {
+        // No operations.
+    }
+
+    static void start(TableUpdater<?> tableUpdater) {
+        runningUpdaterCount.incrementAndGet();
+        makeReady(tableUpdater, PRELOADING_PRIORITY);
+    }
+
+    /**
+     * Runs the next update of the table as soon as possible: the waiting updater is made ready, the queued or
+     * running one is not affected or is made ready right after the current update.
+     */
+    static void notifyChanged(TableUpdater<?> tableUpdater) {
+        if (!notifiedUpdaters.add(tableUpdater)) {
+            // The update is already requested.
+            return;
+        }
+
+        WakeUp wakeUp = waitingUpdaters.get(tableUpdater);
+        if (wakeUp != null) {
+            wakeUp.fire(LAGGING_PRIORITY);
+        }
+    }
+
+    static int getRunningUpdaterCount() {
+        return runningUpdaterCount.get();
+    }
+
+    static int getTimerQueueSizeForTesting() {
+        return timer.getQueue().size();
+    }
+
+    private static void makeReady(TableUpdater<?> tableUpdater, int priority) {
+        readyQueue.add(new ReadyUpdater(tableUpdater, priority, readySequence.incrementAndGet()));
+    }
+
+    @SuppressWarnings("InfiniteLoopStatement")
+    private static void poll() {
+        while (true) {
+            ReadyUpdater readyUpdater;
+            try {
+                readyUpdater = readyQueue.take();
+            } catch (InterruptedException e) {
+                logger.error("Inmemo updater poller has been stopped because of InterruptedException.", e);
+                return;
+            }
+
+            TableUpdater<?> tableUpdater = readyUpdater.tableUpdater;
+            if (!tableUpdater.isRunning()) {
+                finish(tableUpdater);
+                continue;
+            }
+
+            // The update reads the changes notified so far.
+            notifiedUpdaters.remove(tableUpdater);
+
+            long delayMillis;
+            try {
+                delayMillis = tableUpdater.scheduledUpdate();
+            } catch (Exception e) {
+                logger.error("Unexpected " + e.getClass().getName() + " exception in updater "
+                        + tableUpdater.getName() + ": " + e, e);
+                delayMillis = tableUpdater.getRescanTimeMillis();
+            }
+
+            if (!tableUpdater.isRunning()) {
+                finish(tableUpdater);
+                continue;
+            }
+
+            int priority = tableUpdater.isPreloading() ? PRELOADING_PRIORITY
+                    : tableUpdater.isLagging() ? LAGGING_PRIORITY : IDLE_PRIORITY;
+            if (delayMillis <= 0) {
+                makeReady(tableUpdater, priority);
+                continue;
+            }
+
+            WakeUp wakeUp = new WakeUp(tableUpdater, priority);
+            waitingUpdaters.put(tableUpdater, wakeUp);
+            if (delayMillis == Long.MAX_VALUE) {
+                // Polling is disabled: the table gets its changes by Inmemo.applyRows, Inmemo.update or a notification.
+                logger.info("Inmemo updater " + tableUpdater.getName() + " has stopped polling.");
+            } else {
+                wakeUp.setTimeout(timer.schedule(wakeUp, delayMillis, TimeUnit.MILLISECONDS));
+            }
+
+            // Notified while updating or before the wake-up has been registered.
+            if (notifiedUpdaters.contains(tableUpdater)) {
+                wakeUp.fire(LAGGING_PRIORITY);
+            }
+        }
+    }
+
+    private static void finish(TableUpdater<?> tableUpdater) {
+        runningUpdaterCount.decrementAndGet();
+        logger.warn("Inmemo updater " + tableUpdater.getName() + " finished.");
+    }
+
+    /**
+     * Makes the waiting updater ready once: either by the timer or by a notification, whatever comes first.
+     */
+    private static final class WakeUp implements Runnable {
+        private final TableUpdater<?> tableUpdater;
+        private final int priority;
+        private final AtomicBoolean fired = new AtomicBoolean();
+        private volatile ScheduledFuture<?> timeout;
+
+        private WakeUp(TableUpdater<?> tableUpdater, int priority) {
+            this.tableUpdater = tableUpdater;
+            this.priority = priority;
+        }
+
+        @Override
+        public void run() {
+            fire(priority);
+        }
+
+        private void setTimeout(ScheduledFuture<?> timeout) {
+            this.timeout = timeout;
+            // Fired by a notification before the timeout has been set.
+            if (fired.get()) {
+                timeout.cancel(false);
+            }
+        }
+
+        private void fire(int readyPriority) {
+            if (fired.compareAndSet(false, true)) {
+                ScheduledFuture<?> scheduledTimeout = timeout;
+                if (scheduledTimeout != null) {
+                    scheduledTimeout.cancel(false);
+                }
+                waitingUpdaters.remove(tableUpdater, this);
+                makeReady(tableUpdater, Math.min(priority, readyPriority));
+            }
+        }
+    }
+
+    private static final class ReadyUpdater implements Comparable<ReadyUpdater> {
+        private final TableUpdater<?> tableUpdater;
+        private final long orderMillis;
+        private final long sequence;
+
+        private ReadyUpdater(TableUpdater<?> tableUpdater, int priority, long sequence) {
+            this.tableUpdater = tableUpdater;
+            this.orderMillis = System.currentTimeMillis() + priority * PRIORITY_AGING_MILLIS;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(ReadyUpdater other) {
+            if (orderMillis != other.orderMillis) {
+                return Long.compare(orderMillis, other.orderMillis);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
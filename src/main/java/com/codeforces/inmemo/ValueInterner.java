@@ -0,0 +1,117 @@
+package com.codeforces.inmemo;
+
+import net.sf.cglib.reflect.FastMethod;
+import org.apache.log4j.Logger;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Replaces equal {@code String} and {@code Date} property values of table items with a single instance. It uses
+ * a bounded lossy pool: each value hashes to a single slot holding a weak reference to the last value seen, so
+ * the pool never grows and never keeps values which are not used by items anymore.
+ *
+ * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
+ */
+final class ValueInterner {
+    private static final Logger logger = Logger.getLogger(ValueInterner.class);
+
+    static final String POOL_SIZE_PROPERTY = "Inmemo.InternPoolSize";
+    private static final int DEFAULT_POOL_SIZE = 1 << 16;
+
+    private final List<FastMethod> getters;
+    private final List<FastMethod> setters;
+    private final AtomicReferenceArray<WeakReference<Object>> slots;
+    private final int mask;
+
+    private ValueInterner(List<FastMethod> getters, List<FastMethod> setters, int poolSize) {
+        this.getters = getters;
+        this.setters = setters;
+        this.slots = new AtomicReferenceArray<>(poolSize);
+        this.mask = poolSize - 1;
+    }
+
+    /**
+     * @param clazz  Table item class.
+     * @param fields Properties to intern, all {@code String} and {@code Date} properties if empty.
+     * @return Interner for the properties.
+     */
+    static ValueInterner create(Class<?> clazz, Set<String> fields) {
+        Map<String, FastMethod> gettersMap = ReflectionUtil.getGettersMap(clazz);
+        Map<String, FastMethod> settersMap = ReflectionUtil.getSettersMap(clazz);
+
+        for (String field : fields) {
+            if (!gettersMap.containsKey(field) || !settersMap.containsKey(field)) {
+                throw new InmemoException("Can't intern unknown property [class=" + clazz
+                        + ", field=" + field + "].");
+            }
+        }
+
+        List<FastMethod> getters = new ArrayList<>();
+        List<FastMethod> setters = new ArrayList<>();
+
+        for (Map.Entry<String, FastMethod> getterEntry : gettersMap.entrySet()) {
+            FastMethod getter = getterEntry.getValue();
+            FastMethod setter = settersMap.get(getterEntry.getKey());
+            Class<?> type = getter.getReturnType();
+
+            if (setter == null || !setter.getParameterTypes()[0].isAssignableFrom(type)
+                    || (!fields.isEmpty() && !fields.contains(getterEntry.getKey()))) {
+                continue;
+            }
+
+            if (type == String.class || Date.class.isAssignableFrom(type)) {
+                getters.add(getter);
+                setters.add(setter);
+            } else if (!fields.isEmpty()) {
+                throw new InmemoException("Only String and Date properties can be interned [class=" + clazz
+                        + ", field=" + getterEntry.getKey() + "].");
+            }
+        }
+
+        int poolSize = InmemoProperties.getIntProperty(logger, POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE,
+                1 << 8, 1 << 24);
+        return new ValueInterner(getters, setters, Integer.highestOneBit(poolSize));
+    }
+
+    void internProperties(Object item) {
+        for (int i = 0; i < getters.size(); i++) {
+            try {
+                Object value = getters.get(i).invoke(item, new Object[]{});
+                Object internedValue = intern(value);
+                if (internedValue != value) {
+                    setters.get(i).invoke(item, new Object[]{internedValue});
+                }
+            } catch (InvocationTargetException e) {
+                throw new InmemoException("Can't intern property [class=" + item.getClass()
+                        + ", method=" + getters.get(i).getName() + "].", e);
+            }
+        }
+    }
+
+    Object intern(Object value) {
+        if (value == null) {
+            return null;
+        }
+
+        int hash = value.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & mask;
+
+        WeakReference<Object> reference = slots.get(slot);
+        Object pooledValue = reference == null ? null : reference.get();
+
+        // Date.equals ignores nanos of Timestamp, so the classes must be equal too.
+        if (pooledValue != null && pooledValue.getClass() == value.getClass() && pooledValue.equals(value)) {
+            return pooledValue;
+        }
+
+        slots.lazySet(slot, new WeakReference<>(value));
+        return value;
+    }
+}
@@ -0,0 +1,146 @@
+package com.codeforces.inmemo;
+
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps replaced table items while there are open snapshots. Each table write made at version {@code v}
+ * records the item it replaced, so a snapshot pinned to version {@code s < v} still sees the previous state.
+ * Readers never take the table lock: the log is written by the table writer and read concurrently.
+ *
+ * @author MikeMirzayanov (mirzayanovmr@gmail.com)
+ */
+final class VersionLog<T extends HasId> {
+    private final ConcurrentMap<Long, Revision<T>> revisions = new ConcurrentHashMap<>();
+    // Ids of the items changed by each version, so the changes after a version are found without a full scan.
+    private final ConcurrentNavigableMap<Long, Queue<Long>> changedIds = new ConcurrentSkipListMap<>();
+    private final ConcurrentNavigableMap<Long, AtomicInteger> pins = new ConcurrentSkipListMap<>();
+    private final AtomicInteger openCount = new AtomicInteger();
+    private final AtomicInteger pinnedCount = new AtomicInteger();
+    private final LongSupplier committedVersion;
+
+    VersionLog(LongSupplier committedVersion) {
+        this.committedVersion = committedVersion;
+    }
+
+    /**
+     * Must be called before the snapshot reads the committed table version: writers check
+     * {@link #isActive()} after they have announced their version, so no write can be missed.
+     */
+    void open() {
+        openCount.incrementAndGet();
+    }
+
+    void pin(long version) {
+        pins.computeIfAbsent(version, v -> new AtomicInteger()).incrementAndGet();
+        pinnedCount.incrementAndGet();
+    }
+
+    void release(long version) {
+        AtomicInteger count = pins.get(version);
+        if (count != null && count.decrementAndGet() <= 0) {
+            pins.remove(version, count);
+        }
+
+        pinnedCount.decrementAndGet();
+        openCount.decrementAndGet();
+        trim();
+    }
+
+    boolean isActive() {
+        return openCount.get() > 0;
+    }
+
+    void add(long id, long version, T previousItem) {
+        revisions.compute(id, (key, older) -> new Revision<>(version, previousItem, older));
+        changedIds.computeIfAbsent(version, v -> new ConcurrentLinkedQueue<>()).add(id);
+    }
+
+    /**
+     * @param id          Item id.
+     * @param currentItem Item as it is stored in the table now.
+     * @param version     Snapshot version.
+     * @return Item state at {@code version} or {@code null} if there was no such item at {@code version}.
+     */
+    T resolve(long id, T currentItem, long version) {
+        T result = currentItem;
+        for (Revision<T> revision = revisions.get(id);
+             revision != null && revision.version > version; revision = revision.older) {
+            result = revision.previousItem;
+        }
+        return result;
+    }
+
+    /**
+     * Passes the state at {@code version} of each item which has been changed after {@code version}. Takes time
+     * proportional to the number of changes after {@code version}, not to the size of the log.
+     */
+    void forEachReplacedItem(long version, Consumer<T> consumer) {
+        TLongSet visitedIds = new TLongHashSet();
+        for (Queue<Long> ids : changedIds.tailMap(version, false).values()) {
+            for (long id : ids) {
+                if (visitedIds.add(id)) {
+                    T item = resolve(id, null, version);
+                    if (item != null) {
+                        consumer.accept(item);
+                    }
+                }
+            }
+        }
+    }
+
+    int size() {
+        return revisions.size();
+    }
+
+    private void trim() {
+        long bound = committedVersion.getAsLong();
+
+        // Some snapshot has been opened but not pinned yet, it will trim on close.
+        if (openCount.get() != pinnedCount.get()) {
+            return;
+        }
+
+        try {
+            bound = Math.min(bound, pins.firstKey());
+        } catch (NoSuchElementException ignored) {
+            // No pinned snapshots.
+        }
+
+        // Writers are after the committed version, so the trimmed versions don't change meanwhile. An item changed
+        // after the bound keeps its revisions, they are trimmed with its newest version.
+        long maxRemovedVersion = bound;
+        Iterator<Queue<Long>> trimmed = changedIds.headMap(maxRemovedVersion, true).values().iterator();
+        while (trimmed.hasNext()) {
+            for (long id : trimmed.next()) {
+                revisions.computeIfPresent(id,
+                        (key, revision) -> revision.version <= maxRemovedVersion ? null : revision);
+            }
+            trimmed.remove();
+        }
+    }
+
+    private static final class Revision<T> {
+        private final long version;
+        private final T previousItem;
+        private final Revision<T> older;
+
+        private Revision(long version, T previousItem, Revision<T> older) {
+            this.version = version;
+            this.previousItem = previousItem;
+            this.older = older;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.codeforces.inmemo;
+
+import com.codeforces.inmemo.model.Message;
+import org.jacuzzi.core.Row;
+import org.jacuzzi.core.RowRoll;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ChangeIngestionTest {
+    private static final long POLLING_INTERVAL_MILLIS = 60_000;
+
+    private TestDatabase database;
+
+    @Before
+    public void setUp() throws Exception {
+        Inmemo.setPollingInterval(Message.class, POLLING_INTERVAL_MILLIS);
+        database = new TestDatabase("change-ingestion").use().createMessageTable();
+    }
+
+    @After
+    public void tearDown() {
+        Inmemo.resetTableSettingsForTesting(Message.class);
+    }
+
+    @Test
+    public void testAppliedRowsAreIndexedAndDeleted() throws Exception {
+        database.insertMessage(1L, 10L, "first", 1L);
+
+        List<Long> deletedIds = new ArrayList<>();
+        Table<Message> table = newTable();
+        table.add(new ItemListener<>("deletes", new ItemListener.Listener<Message>() {
+            @Override
+            public void onInsertOrUpdate(Message item) {
+                // No operations.
+            }
+
+            @Override
+            public void onDelete(Message item) {
+                deletedIds.add(item.getId());
+            }
+        }));
+        TestDatabase.preload(table);
+
+        table.applyRows(rows(row(2L, 10L, "second", 2L), row(3L, 20L, "third", 3L), row(1L, 10L, "changed", 4L)));
+        Assert.assertEquals(3, table.size());
+        Assert.assertEquals("changed", TestDatabase.findMessage(table, 1L).getText());
+        Assert.assertEquals(2, table.find(new IndexConstraint<>("authorId", 10L), m -> true).size());
+
+        // The row after the delete restores the item.
+        table.applyRows(rows(deletedRow(2L), deletedRow(3L), row(3L, 20L, "restored", 5L)));
+        Assert.assertEquals(2, table.size());
+        Assert.assertNull(TestDatabase.findMessage(table, 2L));
+        Assert.assertEquals("restored", TestDatabase.findMessage(table, 3L).getText());
+        Assert.assertEquals(1, table.find(new IndexConstraint<>("authorId", 10L), m -> true).size());
+        Assert.assertEquals(2, deletedIds.size());
+    }
+
+    @Test
+    public void testAppliedRowsAreNotPolledAgain() throws Exception {
+        database.insertMessage(1L, 10L, "first", 1L);
+
+        List<Long> updatedIds = new ArrayList<>();
+        Table<Message> table = newTable();
+        table.add(new ItemListener<>("updates", new ItemListener.Listener<Message>() {
+            @Override
+            public void onInsertOrUpdate(Message item) {
+                updatedIds.add(item.getId());
+            }
+
+            @Override
+            public void onDelete(Message item) {
+                // No operations.
+            }
+        }));
+        TableUpdater<Message> updater = TestDatabase.preload(table);
+        updatedIds.clear();
+
+        // The binlog brings the row committed into the database.
+        database.insertMessage(2L, 10L, "second", 2L);
+        table.applyRows(rows(row(2L, 10L, "second", 2L)));
+        Assert.assertEquals(1, updatedIds.size());
+
+        updater.internalUpdate();
+        Assert.assertEquals(1, updatedIds.size());
+
+        database.insertMessage(3L, 20L, "third", 2L);
+        updater.internalUpdate();
+        Assert.assertEquals(2, updatedIds.size());
+        Assert.assertEquals(3L, (long) updatedIds.get(1));
+    }
+
+    @Test
+    public void testMissedRowIsPolled() throws Exception {
+        database.insertMessage(1L, 10L, "first", 1L);
+
+        List<Long> updatedIds = new ArrayList<>();
+        Table<Message> table = newTable();
+        table.add(new ItemListener<>("updates", new ItemListener.Listener<Message>() {
+            @Override
+            public void onInsertOrUpdate(Message item) {
+                updatedIds.add(item.getId());
+            }
+
+            @Override
+            public void onDelete(Message item) {
+                // No operations.
+            }
+        }));
+        TableUpdater<Message> updater = TestDatabase.preload(table);
+        updatedIds.clear();
+
+        // The binlog has lost the row 2 and brings the row 3 before the row 4.
+        database.insertMessage(2L, 10L, "second", 2L);
+        database.insertMessage(3L, 10L, "third", 3L);
+        database.insertMessage(4L, 10L, "fourth", 4L);
+        table.applyRows(rows(row(4L, 10L, "fourth", 4L)));
+        table.applyRows(rows(row(3L, 10L, "third", 3L)));
+        Assert.assertEquals(3, table.size());
+        Assert.assertNull(TestDatabase.findMessage(table, 2L));
+
+        updater.internalUpdate();
+        Assert.assertEquals("second", TestDatabase.findMessage(table, 2L).getText());
+        Assert.assertEquals(4, table.size());
+        Assert.assertEquals(3, updatedIds.size());
+        Assert.assertEquals(2L, (long) updatedIds.get(2));
+    }
+
+    @Test
+    public void testPreloadedTableIsPolledWithFixedInterval() throws Exception {
+        database.insertMessage(1L, 10L, "first", 1L);
+
+        Table<Message> table = newTable();
+        TableUpdater<Message> updater = table.getTableUpdaterForTesting();
+
+        // The preload is not affected.
+        Assert.assertTrue(updater.scheduledUpdate() < POLLING_INTERVAL_MILLIS);
+        Assert.assertEquals(POLLING_INTERVAL_MILLIS, updater.scheduledUpdate());
+        Assert.assertTrue(table.isPreloaded());
+
+        database.insertMessage(2L, 10L, "second", 2L);
+        Assert.assertEquals(POLLING_INTERVAL_MILLIS, updater.scheduledUpdate());
+        Assert.assertEquals(2, table.size());
+    }
+
+    private static Table<Message> newTable() {
+        Table<Message> table = TestDatabase.newMessageTable(null);
+        table.add(Index.create("authorId", Long.class, Message::getAuthorId));
+        return table;
+    }
+
+    private static RowRoll rows(Row... rows) {
+        RowRoll rowRoll = new RowRoll();
+        for (Row row : rows) {
+            rowRoll.addRow(row);
+        }
+        return rowRoll;
+    }
+
+    private static Row row(long id, long authorId, String text, long version) {
+        Row row = new Row(4);
+        row.put("ID", id);
+        row.put("AUTHORID", authorId);
+        row.put("TEXT", text);
+        row.put("VERSION", version);
+        return row;
+    }
+
+    private static Row deletedRow(long id) {
+        Row row = new Row(2);
+        row.put("ID", id);
+        row.put(Inmemo.DELETED_ROW_KEY, Boolean.TRUE);
+        return row;
+    }
+}
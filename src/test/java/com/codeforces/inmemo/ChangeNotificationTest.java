@@ -0,0 +1,72 @@
+package com.codeforces.inmemo;
+
+import com.codeforces.inmemo.model.Message;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+
+public class ChangeNotificationTest {
+    // Long enough to be sure the changes are seen because of the notifications.
+    private static final long POLLING_INTERVAL_MILLIS = 600_000;
+
+    private TestDatabase database;
+
+    @Before
+    public void setUp() throws Exception {
+        Inmemo.setPollingInterval(Message.class, POLLING_INTERVAL_MILLIS);
+        database = new TestDatabase("change-notification").use().createMessageTable();
+    }
+
+    @After
+    public void tearDown() {
+        Inmemo.resetTableSettingsForTesting(Message.class);
+    }
+
+    @Test
+    public void testNotifiedChangesBecomeVisible() throws Exception {
+        insert(1L, "first", 1L);
+
+        Table<Message> table = TestDatabase.newMessageTable(null);
+        table.runUpdater();
+
+        Assert.assertTrue(table.awaitVisible(1L, 10_000));
+        Assert.assertTrue(table.isPreloaded());
+
+        insert(2L, "second", 2L);
+        Assert.assertTrue(table.awaitVisible(2L, 10_000));
+        Assert.assertEquals("second", findText(table, 2L));
+
+        database.execute("UPDATE Message SET TEXT = 'changed', VERSION = 3 WHERE ID = 1");
+        for (int i = 0; i < 10; i++) {
+            table.notifyChanged();
+        }
+        long deadlineMillis = System.currentTimeMillis() + 10_000;
+        while (!"changed".equals(findText(table, 1L)) && System.currentTimeMillis() < deadlineMillis) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals("changed", findText(table, 1L));
+
+        // The timer tasks of the wake-ups fired by the notifications are removed.
+        int timerQueueSize = UpdaterScheduler.getTimerQueueSizeForTesting();
+        for (long id = 3; id <= 7; id++) {
+            insert(id, "notified", id);
+            table.notifyChanged();
+            Assert.assertTrue(table.awaitVisible(id, 10_000));
+        }
+        Assert.assertTrue(UpdaterScheduler.getTimerQueueSizeForTesting() < timerQueueSize + 3);
+
+        // The item never appears.
+        Assert.assertFalse(table.awaitVisible(42L, 200));
+    }
+
+    private static String findText(Table<Message> table, long id) {
+        return TestDatabase.findMessage(table, id).getText();
+    }
+
+    private void insert(long id, String text, long version) throws SQLException {
+        database.insertMessage(id, 10L, text, version);
+    }
+}
@@ -0,0 +1,96 @@
+package com.codeforces.inmemo;
+
+import com.codeforces.inmemo.model.Message;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+
+public class ChangeProbeTest {
+    private TestDatabase database;
+
+    @Before
+    public void setUp() throws Exception {
+        Inmemo.setChangeProbe(Message.class);
+        database = new TestDatabase("change-probe").use().createMessageTable();
+    }
+
+    @After
+    public void tearDown() {
+        Inmemo.resetTableSettingsForTesting(Message.class);
+    }
+
+    @Test
+    public void testPollIsSkippedWhileProbeIsUnchanged() throws Exception {
+        insert(1L, "first", 1L);
+
+        Table<Message> table = TestDatabase.newMessageTable(null);
+        TableUpdater<Message> updater = preload(table);
+
+        insert(2L, "second", 2L);
+        updater.internalUpdate();
+        Assert.assertEquals(2, table.size());
+
+        // The first poll after the change sees the probe moved by the new last version.
+        updater.internalUpdate();
+        long skippedPollCount = updater.getSkippedPollCountForTesting();
+        updater.internalUpdate();
+        updater.internalUpdate();
+        Assert.assertEquals(skippedPollCount + 2, updater.getSkippedPollCountForTesting());
+
+        database.execute("UPDATE Message SET TEXT = 'changed', VERSION = 3 WHERE ID = 1");
+        updater.internalUpdate();
+        Assert.assertEquals("changed", findText(table, 1L));
+        Assert.assertEquals(skippedPollCount + 2, updater.getSkippedPollCountForTesting());
+    }
+
+    @Test
+    public void testSameVersionWriteIsSeen() throws Exception {
+        insert(1L, "first", 1L);
+        insert(2L, "second", 2L);
+
+        Table<Message> table = TestDatabase.newMessageTable(null);
+        TableUpdater<Message> updater = preload(table);
+        updater.internalUpdate();
+
+        // The maximal version stays the same, the count of the rows at the last version changes.
+        database.execute("UPDATE Message SET TEXT = 'changed', VERSION = 2 WHERE ID = 1");
+        updater.internalUpdate();
+        Assert.assertEquals("changed", findText(table, 1L));
+    }
+
+    @Test
+    public void testPollRunsAfterMaxSkipInterval() throws Exception {
+        System.setProperty(TableUpdater.MAX_PROBE_SKIP_MILLIS_PROPERTY, "0");
+        try {
+            insert(1L, "first", 1L);
+
+            Table<Message> table = TestDatabase.newMessageTable(null);
+            TableUpdater<Message> updater = preload(table);
+
+            database.execute("UPDATE Message SET TEXT = 'changed' WHERE ID = 1");
+            updater.internalUpdate();
+            Assert.assertEquals("changed", findText(table, 1L));
+        } finally {
+            System.clearProperty(TableUpdater.MAX_PROBE_SKIP_MILLIS_PROPERTY);
+        }
+    }
+
+    private static TableUpdater<Message> preload(Table<Message> table) {
+        TableUpdater<Message> updater = TestDatabase.preload(table);
+
+        // The first poll after the preload remembers the probe result.
+        updater.internalUpdate();
+        return updater;
+    }
+
+    private static String findText(Table<Message> table, long id) {
+        return TestDatabase.findMessage(table, id).getText();
+    }
+
+    private void insert(long id, String text, long version) throws SQLException {
+        database.insertMessage(id, 10L, text, version);
+    }
+}
@@ -0,0 +1,79 @@
+package com.codeforces.inmemo;
+
+import com.codeforces.inmemo.model.Message;
+import org.jacuzzi.core.Row;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+public class ColumnProjectionTest {
+    private TestDatabase database;
+
+    @Before
+    public void setUp() throws Exception {
+        Inmemo.setColumnProjection(Message.class);
+        database = new TestDatabase("column-projection").use()
+                .createMessageTable("BODY VARCHAR(4096)", "RATING INT", "HIDDEN BOOLEAN");
+    }
+
+    @After
+    public void tearDown() {
+        Inmemo.resetTableSettingsForTesting(Message.class);
+    }
+
+    @Test
+    public void testOnlyUsedColumnsAreSelected() throws Exception {
+        insert(1L, "first", false, 1L);
+        insert(2L, "hidden", true, 2L);
+
+        Table<Message> table = TestDatabase.newMessageTable(new Inmemo.Filter<Message>() {
+            @Override
+            public boolean testRow(Row row) {
+                return !Boolean.TRUE.equals(row.get("HIDDEN"));
+            }
+
+            @Override
+            public boolean testItem(Message item) {
+                return true;
+            }
+
+            @Override
+            public Collection<String> getRowColumns() {
+                return Collections.singletonList("HIDDEN");
+            }
+        });
+
+        // Before any query: the columns are frozen when the updater starts.
+        List<Row> rows = new ArrayList<>();
+        table.add(new RowListener("rows", rows::add, "RATING"));
+        Assert.assertTrue(table.getJournalClassSpec().endsWith("columns=id,VERSION,authorId,text,RATING,HIDDEN;"));
+
+        TestDatabase.preload(table);
+        Assert.assertEquals(1, table.size());
+        Assert.assertEquals("first", TestDatabase.findMessage(table, 1L).getText());
+
+        Assert.assertEquals(1, rows.size());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("ID", "AUTHORID", "TEXT", "RATING", "HIDDEN", "VERSION")),
+                rows.get(0).keySet());
+
+        // Items loaded by ids are projected too.
+        database.execute("UPDATE Message SET TEXT = 'changed' WHERE ID = 1");
+        table.insertOrUpdateByIds(new Long[]{1L});
+        Assert.assertEquals("changed", TestDatabase.findMessage(table, 1L).getText());
+        Assert.assertFalse(rows.get(1).containsKey("BODY"));
+    }
+
+    private void insert(long id, String text, boolean hidden, long version) throws SQLException {
+        database.execute("INSERT INTO Message (ID, AUTHORID, TEXT, BODY, RATING, HIDDEN, VERSION)"
+                + " VALUES (?, ?, ?, ?, ?, ?, ?)", id, 10L, text, "Long body of " + text, 5, hidden, version);
+    }
+}
@@ -0,0 +1,110 @@
+package com.codeforces.inmemo;
+
+import com.codeforces.inmemo.model.Submission;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+
+public class ColumnarStorageTest {
+    @BeforeClass
+    public static void setUpClass() {
+        Inmemo.setColumnarStorage(Submission.class);
+    }
+
+    @Test
+    public void testStoreRoundTrip() {
+        ColumnarItemStore<Submission> store = new ColumnarItemStore<>(Submission.class);
+        for (long id = 1; id <= 1000; id++) {
+            Assert.assertNull(store.put(submission(id, (int) (id % 7), id % 2 == 0)));
+        }
+
+        Submission submission = store.get(42L);
+        Assert.assertNotNull(submission);
+        Assert.assertEquals(42L, submission.getId());
+        Assert.assertEquals(0, submission.getContestId());
+        Assert.assertEquals("GNU C++", submission.getProgrammingLanguage());
+        Assert.assertEquals(42.5, submission.getPoints(), 0.0);
+        Assert.assertEquals(0.25F, submission.getRelativeTime(), 0.0F);
+        Assert.assertTrue(submission.isAccepted());
+        Assert.assertEquals('O', submission.getVerdict());
+        Assert.assertEquals(Integer.valueOf(42), submission.getTestCount());
+        Assert.assertEquals(new Date(42_000L), submission.getCreationTime());
+
+        Submission changed = submission(42L, 100, false);
+        changed.setTestCount(null);
+        changed.setCreationTime(null);
+        Submission previous = store.put(changed);
+        Assert.assertNotNull(previous);
+        Assert.assertEquals(0, previous.getContestId());
+
+        submission = store.get(42L);
+        Assert.assertEquals(100, submission.getContestId());
+        Assert.assertNull(submission.getTestCount());
+        Assert.assertNull(submission.getCreationTime());
+
+        Assert.assertNull(store.get(1001L));
+        Assert.assertEquals(1000, store.size());
+        Assert.assertNotSame(store.get(1L), store.get(1L));
+    }
+
+    @Test
+    public void testTimestampIsMaterializedAsTimestamp() {
+        ColumnarItemStore<Submission> store = new ColumnarItemStore<>(Submission.class);
+        Submission submission = submission(1L, 1, true);
+        Timestamp creationTime = new Timestamp(1_500L);
+        creationTime.setNanos(500_000_123);
+        submission.setCreationTime(creationTime);
+        store.put(submission);
+        store.put(submission(2L, 1, true));
+
+        Assert.assertEquals(creationTime, store.get(1L).getCreationTime());
+        Assert.assertEquals(Timestamp.class, store.get(2L).getCreationTime().getClass());
+        Assert.assertEquals(2_000L, store.get(2L).getCreationTime().getTime());
+    }
+
+    @Test
+    public void testColumnarTableIndicesAndSnapshots() {
+        Table<Submission> table = new Table<>(Submission.class, "id", null);
+        Assert.assertTrue(table.isDetachedItemStore());
+        table.add(Index.createUnique("id", Long.class, Submission::getId));
+        table.add(Index.create("contestId", Integer.class, Submission::getContestId));
+
+        for (long id = 1; id <= 100; id++) {
+            table.insertOrUpdate(submission(id, (int) (id % 10), true), null);
+        }
+
+        try (TableSnapshot<Submission> snapshot = table.snapshot(Submission.class)) {
+            table.insertOrUpdate(submission(1L, 5, false), null);
+
+            Assert.assertEquals(10, snapshot.findCount(new IndexConstraint<>("contestId", 1)));
+            Assert.assertEquals(11, table.findCount(new IndexConstraint<>("contestId", 5), item -> true));
+            Assert.assertEquals(9, table.findCount(new IndexConstraint<>("contestId", 1), item -> true));
+        }
+
+        Submission submission = table.findOnly(true, new IndexConstraint<>("id", 1L), item -> true);
+        Assert.assertEquals(5, submission.getContestId());
+        Assert.assertFalse(submission.isAccepted());
+
+        List<Submission> accepted = table.find(new IndexConstraint<>("contestId", 5), Submission::isAccepted);
+        Assert.assertEquals(10, accepted.size());
+        Assert.assertEquals(100, table.size());
+    }
+
+    private static Submission submission(long id, int contestId, boolean accepted) {
+        Submission submission = new Submission();
+        submission.setId(id);
+        submission.setContestId(contestId);
+        submission.setProgrammingLanguage("GNU C++");
+        submission.setPoints(id + 0.5);
+        submission.setRelativeTime(0.25F);
+        submission.setAccepted(accepted);
+        submission.setVerdict(accepted ? 'O' : 'W');
+        submission.setTestCount((int) id);
+        submission.setCreationTime(new Date(id * 1000L));
+        return submission;
+    }
+}
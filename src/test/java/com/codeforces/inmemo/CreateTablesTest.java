@@ -0,0 +1,124 @@
+package com.codeforces.inmemo;
+
+import com.codeforces.inmemo.model.Event;
+import com.codeforces.inmemo.model.Message;
+import com.codeforces.inmemo.model.Post;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class CreateTablesTest {
+    private TestDatabase database;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new TestDatabase("create-tables").createMessageTable();
+        database.execute("CREATE TABLE Post ("
+                + "ID BIGINT, "
+                + "AUTHORID BIGINT, "
+                + "TITLE VARCHAR(255), "
+                + "VERSION BIGINT)");
+
+        Inmemo.setDataSource(database.getDataSource());
+    }
+
+    @After
+    public void tearDown() {
+        Inmemo.dropTableIfExists(Message.class);
+        Inmemo.dropTableIfExists(Post.class);
+        Inmemo.dropTableIfExists(Event.class);
+    }
+
+    @Test
+    public void testTablesArePreloadedByFutures() throws Exception {
+        for (int i = 1; i <= 30; i++) {
+            database.insertMessage(i, 10L, "Message " + i, i);
+        }
+        for (int i = 1; i <= 20; i++) {
+            database.execute("INSERT INTO Post (ID, AUTHORID, TITLE, VERSION) VALUES (?, ?, ?, ?)",
+                    i, 10L, "Post " + i, i);
+        }
+
+        List<CompletableFuture<Void>> preloadFutures = Inmemo.createTables(Arrays.asList(
+                new TableDefinition<>(Message.class, "VERSION", null, new Indices.Builder<Message>() {{
+                    add(Index.createUnique("id", Long.class, Message::getId));
+                }}.build()),
+                new TableDefinition<>(Post.class, "VERSION", null, new Indices.Builder<Post>() {{
+                    add(Index.createUnique("id", Long.class, Post::getId));
+                }}.build())), 1);
+        Assert.assertEquals(2, preloadFutures.size());
+
+        // A single preload at a time: the second table starts after the first one.
+        preloadFutures.get(1).get(30, TimeUnit.SECONDS);
+        Assert.assertTrue(preloadFutures.get(0).isDone());
+        Assert.assertEquals(30, Inmemo.size(Message.class));
+        Assert.assertEquals(20, Inmemo.size(Post.class));
+
+        // The existing tables are not created again.
+        List<CompletableFuture<Void>> againFutures = Inmemo.createTables(Arrays.asList(
+                new TableDefinition<>(Message.class, "VERSION", null, new Indices.Builder<Message>().build())), 1);
+        Assert.assertTrue(againFutures.get(0).isDone());
+        Assert.assertTrue(Inmemo.getPreloadFuture(Post.class).isDone());
+
+        // Waits by the future.
+        Inmemo.waitForPreload(Message.class);
+    }
+
+    @Test
+    public void testFailedPreloadReleasesItsSlot() throws Exception {
+        database.insertMessage(1L, 10L, "Message 1", 1L);
+
+        // There is no database table of events, so each update of it fails.
+        System.setProperty(TableUpdater.MAX_PRELOAD_FAILURES_PROPERTY, "2");
+        List<CompletableFuture<Void>> preloadFutures;
+        try {
+            preloadFutures = Inmemo.createTables(Arrays.asList(
+                    new TableDefinition<>(Event.class, "UPDATETIME", null, new Indices.Builder<Event>().build()),
+                    new TableDefinition<>(Message.class, "VERSION", null, new Indices.Builder<Message>() {{
+                        add(Index.createUnique("id", Long.class, Message::getId));
+                    }}.build())), 1);
+        } finally {
+            System.clearProperty(TableUpdater.MAX_PRELOAD_FAILURES_PROPERTY);
+        }
+
+        try {
+            preloadFutures.get(0).get(30, TimeUnit.SECONDS);
+            Assert.fail("Preload of the table without the database table must fail.");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof InmemoException);
+        }
+
+        preloadFutures.get(1).get(30, TimeUnit.SECONDS);
+        Assert.assertEquals(1, Inmemo.size(Message.class));
+
+        try {
+            Inmemo.waitForPreload(Event.class);
+            Assert.fail("Waiting for the failed preload must throw.");
+        } catch (InmemoException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testDroppedTableFailsItsPreloadFuture() throws Exception {
+        List<CompletableFuture<Void>> preloadFutures = Inmemo.createTables(Arrays.asList(
+                new TableDefinition<>(Event.class, "UPDATETIME", null, new Indices.Builder<Event>().build()),
+                new TableDefinition<>(Message.class, "VERSION", null, new Indices.Builder<Message>().build())), 1);
+
+        Inmemo.dropTableIfExists(Message.class);
+        Assert.assertTrue(preloadFutures.get(1).isCompletedExceptionally());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConcurrentPreloadsExpectedToBePositive() {
+        Inmemo.createTables(Arrays.asList(
+                new TableDefinition<>(Message.class, "VERSION", null, new Indices.Builder<Message>().build())), 0);
+    }
+}
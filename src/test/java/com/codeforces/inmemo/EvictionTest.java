@@ -0,0 +1,122 @@
+package com.codeforces.inmemo;
+
+import com.codeforces.inmemo.model.Message;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+public class EvictionTest {
+    private static final int MESSAGE_COUNT = 5000;
+    private static final long BUDGET_BYTES = 256 * 1024;
+
+    private TestDatabase database;
+
+    @Before
+    public void setUp() throws Exception {
+        Inmemo.setMemoryBudget(Message.class, BUDGET_BYTES);
+        database = new TestDatabase("eviction").use().createMessageTable();
+
+        try (Connection connection = database.getDataSource().getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "INSERT INTO Message (ID, AUTHORID, TEXT, VERSION) VALUES (?, ?, ?, ?)")) {
+            for (long id = 1; id <= MESSAGE_COUNT; id++) {
+                statement.setLong(1, id);
+                statement.setLong(2, id % 10);
+                statement.setString(3, "Message number " + id + " with some text in it.");
+                statement.setLong(4, id);
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        Inmemo.resetTableSettingsForTesting(Message.class);
+    }
+
+    @Test
+    public void testTableStaysInBudget() {
+        Table<Message> table = newTable();
+
+        Assert.assertTrue(table.size() < MESSAGE_COUNT);
+        Assert.assertEquals(MESSAGE_COUNT, table.size() + table.getEvictedCountForTesting());
+
+        MemoryStats tableStats = table.getMemoryStats();
+        long totalBytes = tableStats.getTotalBytes();
+        for (MemoryStats indexStats : table.getIndexMemoryStats().values()) {
+            totalBytes += indexStats.getTotalBytes();
+        }
+        Assert.assertTrue("totalBytes=" + totalBytes, totalBytes <= BUDGET_BYTES * 11 / 10);
+    }
+
+    @Test
+    public void testEvictedItemIsFaultedIn() {
+        Table<Message> table = newTable();
+
+        long evictedId = 0;
+        for (long id = 1; id <= MESSAGE_COUNT; id++) {
+            if (table.getItem(id) == null) {
+                evictedId = id;
+                break;
+            }
+        }
+        Assert.assertTrue(evictedId > 0);
+        int evictedCount = table.getEvictedCountForTesting();
+
+        // Non-id indices see only the resident items.
+        long authorId = evictedId % 10;
+        Assert.assertTrue(table.find(new IndexConstraint<>("authorId", authorId), message -> true).stream()
+                .noneMatch(message -> message.getAuthorId() != authorId));
+        Assert.assertNull(table.findOnly(false, new IndexConstraint<>("authorId", authorId),
+                message -> message.getId() == MESSAGE_COUNT + 1));
+
+        Message message = table.findOnly(true, new IndexConstraint<>("id", evictedId), c -> true);
+        Assert.assertNotNull(message);
+        Assert.assertEquals(evictedId, message.getId());
+        Assert.assertEquals(evictedId % 10, message.getAuthorId());
+        Assert.assertNotNull(table.getItem(evictedId));
+        Assert.assertEquals(evictedCount - 1, table.getEvictedCountForTesting());
+
+        Assert.assertNull(table.findOnly(true, new IndexConstraint<>("id", MESSAGE_COUNT + 1L), c -> true));
+    }
+
+    @Test
+    public void testSnapshotSeesEvictedItems() throws SQLException {
+        Table<Message> table = newTable();
+        TableUpdater<Message> updater = table.getTableUpdaterForTesting();
+
+        long residentId = 0;
+        for (long id = MESSAGE_COUNT; id >= 1; id--) {
+            if (table.getItem(id) != null) {
+                residentId = id;
+                break;
+            }
+        }
+
+        try (TableSnapshot<Message> snapshot = table.snapshot(Message.class)) {
+            // Make the table evict again while the snapshot is open.
+            database.execute("UPDATE Message SET VERSION = " + (MESSAGE_COUNT + 1) + ", TEXT = 'changed'");
+            for (int i = 0; i < 3; i++) {
+                updater.internalUpdate();
+            }
+
+            Message message = snapshot.findOnly(true, new IndexConstraint<>("id", residentId));
+            Assert.assertNotNull(message);
+            Assert.assertNotEquals("changed", message.getText());
+        }
+    }
+
+    private static Table<Message> newTable() {
+        Table<Message> table = TestDatabase.newMessageTable(null);
+        table.add(Index.create("authorId", Long.class, Message::getAuthorId));
+
+        // Preload applies the rows by streamed batches.
+        TestDatabase.preload(table);
+        return table;
+    }
+}
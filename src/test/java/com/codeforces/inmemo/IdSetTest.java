@@ -0,0 +1,88 @@
+package com.codeforces.inmemo;
+
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class IdSetTest {
+    @Test
+    public void testDenseIds() {
+        IdSet ids = new IdSet();
+        for (long id = 1; id <= 1_000_000; id++) {
+            Assert.assertTrue(ids.add(id));
+        }
+        Assert.assertFalse(ids.add(500_000));
+
+        Assert.assertEquals(1_000_000, ids.size());
+        Assert.assertTrue(ids.contains(1));
+        Assert.assertTrue(ids.contains(1_000_000));
+        Assert.assertFalse(ids.contains(0));
+        Assert.assertFalse(ids.contains(1_000_001));
+
+        // About a bit per id.
+        Assert.assertTrue(ids.getMemoryBytes() < 1_000_000 / 4);
+
+        long[] array = ids.toArray();
+        Assert.assertEquals(1_000_000, array.length);
+        for (int i = 0; i < array.length; i++) {
+            Assert.assertEquals(i + 1, array[i]);
+        }
+    }
+
+    @Test
+    public void testRandomOperations() {
+        Random random = new Random(20161018L);
+        IdSet ids = new IdSet();
+        TLongSet expected = new TLongHashSet();
+
+        for (int i = 0; i < 300_000; i++) {
+            // Mix of dense and sparse chunks, including negative ids.
+            long id = random.nextBoolean() ? random.nextInt(20_000) : random.nextLong() % 10_000_000_000L;
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.remove(id), ids.remove(id));
+            } else {
+                Assert.assertEquals(expected.add(id), ids.add(id));
+            }
+            Assert.assertEquals(expected.size(), ids.size());
+        }
+
+        long[] expectedArray = expected.toArray();
+        Arrays.sort(expectedArray);
+        Assert.assertArrayEquals(expectedArray, ids.toArray());
+
+        for (int i = 0; i < 20_000; i++) {
+            Assert.assertEquals(expected.contains(i), ids.contains(i));
+        }
+    }
+
+    @Test
+    public void testConcurrentReads() throws InterruptedException {
+        IdSet ids = new IdSet();
+        int count = 200_000;
+        boolean[] failed = {false};
+
+        Thread reader = new Thread(() -> {
+            while (ids.size() < count) {
+                int size = ids.size();
+                // Ids are added in order, so all the ids below size have been added already.
+                for (long id = Math.max(1, size - 100); id <= size; id++) {
+                    if (!ids.contains(id)) {
+                        failed[0] = true;
+                    }
+                }
+            }
+        });
+        reader.start();
+
+        for (long id = 1; id <= count; id++) {
+            ids.add(id);
+        }
+        reader.join();
+
+        Assert.assertFalse(failed[0]);
+    }
+}
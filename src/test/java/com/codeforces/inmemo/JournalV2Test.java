@@ -411,24 +411,46 @@ public class JournalV2Test {
     }
 
     @Test
-    public void testRandomizedUpdateDoesNotSleepBetweenJournalBlocks() throws Exception {
+    public void testReplayAppliesTombstones() throws Exception {
+        createDataSourceWithRows(1L, 3L);
+
+        JournalWriter writer = new JournalWriter(journalFile(JournalEnabledUser.class),
+                JournalEnabledUser.class, ReflectionUtil.getTableClassSpec(JournalEnabledUser.class));
+        writer.addRow(upperRow(1L));
+        writer.addRow(upperRow(2L));
+        writer.addRow(upperRow(3L));
+        Row tombstone = new Row(2);
+        tombstone.put("ID", 2L);
+        tombstone.put(Inmemo.DELETED_ROW_KEY, Boolean.TRUE);
+        writer.addRow(tombstone);
+        writer.finish();
+
+        Table<JournalEnabledUser> table = new Table<>(JournalEnabledUser.class, "ID", null);
+        table.add(Index.createUnique("id", Long.class, JournalEnabledUser::getId));
+        table.createUpdater(null);
+        runUpdaterUntilPreloaded(table, 10);
+
+        Assert.assertEquals(2, table.size());
+        Assert.assertNull(table.findOnly(true, new IndexConstraint<>("id", 2L), user -> true));
+        Assert.assertNotNull(table.findOnly(true, new IndexConstraint<>("id", 3L), user -> true));
+    }
+
+    @Test
+    public void testScheduledUpdateDoesNotWaitBetweenJournalBlocks() throws Exception {
         createDataSourceWithRows(1L, 2L, 3L, 4L, 5L);
         writeUpperRows(1L, 2L, 3L);
 
         Table<JournalEnabledUser> table = new Table<>(JournalEnabledUser.class, "ID", null);
         table.disableJournalWriter();
-        RecordingTableUpdater updater = new RecordingTableUpdater(table);
+        TableUpdater<JournalEnabledUser> updater = new TableUpdater<>(table, null);
 
-        updater.randomizedUpdate();
-        Assert.assertEquals(0, updater.sleepCount);
+        Assert.assertEquals(0, updater.scheduledUpdate());
         Assert.assertEquals(2, table.size());
 
-        updater.randomizedUpdate();
-        Assert.assertEquals(0, updater.sleepCount);
+        Assert.assertEquals(0, updater.scheduledUpdate());
         Assert.assertEquals(3, table.size());
 
-        updater.randomizedUpdate();
-        Assert.assertEquals(1, updater.sleepCount);
+        Assert.assertTrue(updater.scheduledUpdate() > 0);
         Assert.assertEquals(5, table.size());
 
         table.writeJournal();
@@ -857,17 +879,4 @@ public class JournalV2Test {
     private interface ThrowingRunnable {
         void run() throws Exception;
     }
-
-    private static final class RecordingTableUpdater extends TableUpdater<JournalEnabledUser> {
-        private int sleepCount;
-
-        private RecordingTableUpdater(Table<JournalEnabledUser> table) {
-            super(table, null);
-        }
-
-        @Override
-        void sleep(long timeMillis) {
-            sleepCount++;
-        }
-    }
 }
@@ -0,0 +1,76 @@
+package com.codeforces.inmemo;
+
+import com.codeforces.inmemo.model.SimpleUser;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class MemoryStatsTest {
+    @Test
+    public void testEstimatorSizes() {
+        Assert.assertEquals(24, MemoryEstimator.sizeOf(1L));
+        Assert.assertEquals(16, MemoryEstimator.sizeOf(1));
+        // 24 bytes of String and 16 + 2 * 8 bytes of its chars.
+        Assert.assertEquals(56, MemoryEstimator.sizeOf("tourist1"));
+
+        SimpleUser user = user(1, "tourist1");
+        // Header, id, version and two references, then both strings.
+        Assert.assertEquals(40 + 56 + MemoryEstimator.sizeOf(user.getEmail()), MemoryEstimator.sizeOf(user));
+    }
+
+    @Test
+    public void testTableAndIndexStats() {
+        Table<SimpleUser> table = new Table<>(SimpleUser.class, "id", null);
+        table.add(Index.createUnique("handle", String.class, SimpleUser::getHandle));
+        table.add(Index.create("domain", String.class, user -> user.getEmail().substring(user.getEmail().indexOf('@') + 1)));
+
+        int count = 10_000;
+        for (long id = 1; id <= count; id++) {
+            table.insertOrUpdate(user(id, "user" + id), null);
+        }
+
+        MemoryStats tableStats = table.getMemoryStats();
+        Assert.assertEquals(count, tableStats.getItems());
+        // The ids are kept by the item store only.
+        Assert.assertEquals(0, tableStats.getKeyBytes());
+        Assert.assertTrue(tableStats.getBucketOverheadBytes() >= count * (8 + 4));
+        long itemBytes = MemoryEstimator.sizeOf(user(5000, "user5000"));
+        Assert.assertTrue(tableStats.getItemPayloadBytes() > count * itemBytes / 2);
+        Assert.assertTrue(tableStats.getItemPayloadBytes() < count * itemBytes * 2);
+        Assert.assertEquals(0, tableStats.getOffHeapBytes());
+
+        Map<String, MemoryStats> indexStats = table.getIndexMemoryStats();
+        Assert.assertEquals(2, indexStats.size());
+
+        MemoryStats handleStats = indexStats.get("handle");
+        Assert.assertEquals(count, handleStats.getItems());
+        Assert.assertEquals(0, handleStats.getBuckets());
+        Assert.assertTrue(handleStats.getKeyBytes() > count * 40);
+
+        MemoryStats domainStats = indexStats.get("domain");
+        Assert.assertEquals(count, domainStats.getItems());
+        Assert.assertEquals(10, domainStats.getBuckets());
+        Assert.assertTrue(domainStats.getBucketOverheadBytes() >= count * (8 + 4));
+        Assert.assertEquals(0, domainStats.getItemPayloadBytes());
+
+        // The index counters are kept on delete as well.
+        for (long id = 1; id <= count; id++) {
+            table.delete(id, null);
+        }
+        for (MemoryStats emptyStats : table.getIndexMemoryStats().values()) {
+            Assert.assertEquals(0, emptyStats.getItems());
+            Assert.assertEquals(0, emptyStats.getBuckets());
+            Assert.assertEquals(0, emptyStats.getKeyBytes());
+            Assert.assertEquals(0, emptyStats.getBucketOverheadBytes());
+        }
+    }
+
+    private static SimpleUser user(long id, String handle) {
+        SimpleUser user = new SimpleUser();
+        user.setId(id);
+        user.setHandle(handle);
+        user.setEmail(handle + "@domain" + (id % 10) + ".com");
+        return user;
+    }
+}
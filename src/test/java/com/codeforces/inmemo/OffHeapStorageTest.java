@@ -0,0 +1,103 @@
+package com.codeforces.inmemo;
+
+import com.codeforces.inmemo.model.RatingChange;
+import com.codeforces.inmemo.model.User;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Date;
+
+public class OffHeapStorageTest {
+    @BeforeClass
+    public static void setUpClass() {
+        Inmemo.setOffHeapStorage(RatingChange.class);
+    }
+
+    @Test
+    public void testCodecRoundTrip() {
+        OffHeapItemStore<User> store = new OffHeapItemStore<>(User.class);
+
+        User user = new User();
+        user.setId(7L);
+        user.setHandle("tourist");
+        user.setEmail("\u0442\u0443\u0440\u0438\u0441\u0442@example.com");
+        user.setAdmin(true);
+        user.setCreationTime(new Date(123_456L));
+        user.setTShirtSize(User.TShirtSize.values()[0]);
+        store.put(user);
+
+        User restored = store.get(7L);
+        Assert.assertEquals(user, restored);
+        Assert.assertNotSame(user, restored);
+        Assert.assertEquals(user.getEmail(), restored.getEmail());
+        Assert.assertEquals(user.getTShirtSize(), restored.getTShirtSize());
+        Assert.assertNull(restored.getOpenId());
+        Assert.assertNull(restored.getLastOnlineTime());
+    }
+
+    @Test
+    public void testUpdatesAreCompacted() {
+        String oldChunkBytes = System.getProperty(OffHeapItemStore.CHUNK_BYTES_PROPERTY);
+        System.setProperty(OffHeapItemStore.CHUNK_BYTES_PROPERTY, String.valueOf(64 * 1024));
+        try {
+            OffHeapItemStore<RatingChange> store = new OffHeapItemStore<>(RatingChange.class);
+            for (int round = 0; round < 50; round++) {
+                for (long id = 1; id <= 1000; id++) {
+                    RatingChange previous = store.put(ratingChange(id, round));
+                    if (round > 0) {
+                        Assert.assertEquals(round - 1, previous.getNewRating());
+                    }
+                }
+            }
+
+            Assert.assertEquals(1000, store.size());
+            // Without compaction the 50 rounds would take about 40 chunks.
+            Assert.assertTrue(store.getOffHeapBytes() <= 4 * 64 * 1024);
+            for (long id = 1; id <= 1000; id++) {
+                RatingChange ratingChange = store.get(id);
+                Assert.assertEquals(49, ratingChange.getNewRating());
+                Assert.assertEquals("user" + id, ratingChange.getHandle());
+                Assert.assertEquals(Integer.valueOf((int) id), ratingChange.getRank());
+            }
+        } finally {
+            if (oldChunkBytes == null) {
+                System.clearProperty(OffHeapItemStore.CHUNK_BYTES_PROPERTY);
+            } else {
+                System.setProperty(OffHeapItemStore.CHUNK_BYTES_PROPERTY, oldChunkBytes);
+            }
+        }
+    }
+
+    @Test
+    public void testOffHeapTable() {
+        Table<RatingChange> table = new Table<>(RatingChange.class, "id", null);
+        Assert.assertTrue(table.isDetachedItemStore());
+        table.add(Index.createUnique("id", Long.class, RatingChange::getId));
+        table.add(Index.create("userId", Long.class, RatingChange::getUserId));
+
+        for (long id = 1; id <= 100; id++) {
+            RatingChange ratingChange = ratingChange(id, 1500);
+            ratingChange.setUserId(id % 4);
+            table.insertOrUpdate(ratingChange, null);
+        }
+
+        Assert.assertEquals(25, table.findCount(new IndexConstraint<>("userId", 3L), item -> true));
+        Assert.assertEquals(5, table.findCount(new IndexConstraint<>("userId", 3L),
+                item -> item.getRank() % 20 == 3));
+        Assert.assertEquals("user10",
+                table.findOnly(true, new IndexConstraint<>("id", 10L), item -> true).getHandle());
+    }
+
+    private static RatingChange ratingChange(long id, int newRating) {
+        RatingChange ratingChange = new RatingChange();
+        ratingChange.setId(id);
+        ratingChange.setUserId(id);
+        ratingChange.setOldRating(newRating - 1);
+        ratingChange.setNewRating(newRating);
+        ratingChange.setRank((int) id);
+        ratingChange.setHandle("user" + id);
+        ratingChange.setRatingUpdateTime(new Date(id));
+        return ratingChange;
+    }
+}
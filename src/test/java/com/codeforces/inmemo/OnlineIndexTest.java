@@ -0,0 +1,135 @@
+package com.codeforces.inmemo;
+
+import com.codeforces.inmemo.model.SimpleUser;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class OnlineIndexTest {
+    @Test
+    public void testIndexIsBuiltWhileTableIsUpdated() throws Exception {
+        Table<SimpleUser> table = newTable();
+        for (long id = 1; id <= 25_000; id++) {
+            table.insertOrUpdate(user(id, "user" + id, id % 3 == 0 ? "a.com" : "b.com"), null);
+        }
+
+        CompletableFuture<Void> future = table.addIndexOnline(Index.create("domain", String.class,
+                user -> user.getEmail().substring(user.getEmail().indexOf('@') + 1)));
+
+        // Concurrent writes: moved items must not stay under their previous value.
+        for (long id = 1; id <= 3_000; id++) {
+            table.insertOrUpdate(user(id, "user" + id, "c.com"), null);
+        }
+        table.insertOrUpdate(user(30_000L, "new", "c.com"), null);
+
+        future.get(30, TimeUnit.SECONDS);
+
+        Assert.assertEquals(3_001, table.findCount(new IndexConstraint<>("domain", "c.com"), user -> true));
+        Assert.assertEquals(22_000 / 3, table.findCount(new IndexConstraint<>("domain", "a.com"), user -> true));
+        Assert.assertEquals(22_000 - 22_000 / 3,
+                table.findCount(new IndexConstraint<>("domain", "b.com"), user -> true));
+    }
+
+    @Test
+    public void testQueryAgainstBuildingIndexIsRejected() throws Exception {
+        Table<SimpleUser> table = newTable();
+        table.insertOrUpdate(user(1L, "first", "a.com"), null);
+
+        CountDownLatch builderStarted = new CountDownLatch(1);
+        CountDownLatch releaseBuilder = new CountDownLatch(1);
+        CompletableFuture<Void> future = table.addIndexOnline(Index.create("handle", String.class, user -> {
+            if (Thread.currentThread().getName().startsWith("InmemoIndexBuilder")) {
+                builderStarted.countDown();
+                awaitQuietly(releaseBuilder);
+            }
+            return user.getHandle();
+        }));
+
+        Assert.assertTrue(builderStarted.await(30, TimeUnit.SECONDS));
+        try {
+            table.find(new IndexConstraint<>("handle", "first"), user -> true);
+            Assert.fail("Query against building index should be rejected.");
+        } catch (IndexNotReadyException expected) {
+            // Expected.
+        }
+
+        releaseBuilder.countDown();
+        future.get(30, TimeUnit.SECONDS);
+        Assert.assertEquals(1, table.find(new IndexConstraint<>("handle", "first"), user -> true).size());
+    }
+
+    @Test
+    public void testDropIndex() throws Exception {
+        Table<SimpleUser> table = newTable();
+        table.insertOrUpdate(user(1L, "first", "a.com"), null);
+
+        try {
+            table.addIndexOnline(Index.createUnique("id", Long.class, SimpleUser::getId));
+            Assert.fail("Duplicate index name should be rejected.");
+        } catch (IllegalArgumentException expected) {
+            // Expected.
+        }
+
+        Assert.assertTrue(table.dropIndex("id"));
+        Assert.assertFalse(table.dropIndex("id"));
+        try {
+            table.find(new IndexConstraint<>("id", 1L), user -> true);
+            Assert.fail("Query against dropped index should be rejected.");
+        } catch (IllegalArgumentException expected) {
+            // Expected.
+        }
+
+        // Unique index over duplicate values can't be built.
+        table.insertOrUpdate(user(2L, "first", "a.com"), null);
+        CompletableFuture<Void> future = table.addIndexOnline(
+                Index.createUnique("handle", String.class, SimpleUser::getHandle));
+        try {
+            future.get(30, TimeUnit.SECONDS);
+            Assert.fail("Unique index over duplicates should fail.");
+        } catch (ExecutionException expected) {
+            // Expected.
+        }
+        Assert.assertFalse(table.dropIndex("handle"));
+    }
+
+    @Test
+    public void testWriterDuplicateFailsBuildNotWriter() {
+        Table<SimpleUser> table = newTable();
+        Index<SimpleUser, String> index = Index.createUnique("handle", String.class, SimpleUser::getHandle);
+        table.add(index);
+        index.setReady(false);
+
+        // As if the build is in progress: the writers go on, the build will see the violation.
+        table.insertOrUpdate(user(1L, "same", "a.com"), null);
+        table.insertOrUpdate(user(2L, "same", "b.com"), null);
+
+        Assert.assertEquals(2, table.size());
+        Assert.assertNotNull(index.getBuildViolation());
+    }
+
+    private static Table<SimpleUser> newTable() {
+        Table<SimpleUser> table = new Table<>(SimpleUser.class, "id", null);
+        table.add(Index.createUnique("id", Long.class, SimpleUser::getId));
+        return table;
+    }
+
+    private static SimpleUser user(long id, String handle, String domain) {
+        SimpleUser user = new SimpleUser();
+        user.setId(id);
+        user.setHandle(handle);
+        user.setEmail(handle + '@' + domain);
+        return user;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.codeforces.inmemo;
+
+import com.codeforces.inmemo.model.Post;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+
+public class ParallelPreloadTest {
+    private static final int POST_COUNT = 3000;
+    private static final int PARALLELISM = 4;
+
+    private TestDatabase database;
+
+    @Before
+    public void setUp() throws Exception {
+        Inmemo.setPreloadParallelism(Post.class, PARALLELISM);
+        database = new TestDatabase("parallel-preload").use();
+        database.execute("CREATE TABLE Post ("
+                + "ID BIGINT, "
+                + "AUTHORID BIGINT, "
+                + "TITLE VARCHAR(255), "
+                + "VERSION BIGINT)");
+    }
+
+    @After
+    public void tearDown() {
+        Inmemo.resetTableSettingsForTesting(Post.class);
+    }
+
+    @Test
+    public void testTableIsLoadedByIdRanges() throws Exception {
+        // Sparse ids, the versions are not ordered as the ids.
+        for (int i = 1; i <= POST_COUNT; i++) {
+            insert(7L * i, "Post " + i, i % 13);
+        }
+
+        Table<Post> table = newTable();
+        TableUpdater<Post> updater = table.getTableUpdaterForTesting();
+
+        // All the ranges are loaded by the first update, the next ones read the rows since the watermark.
+        updater.internalUpdate();
+        Assert.assertEquals(POST_COUNT, table.size());
+
+        TestDatabase.preload(table);
+        Assert.assertEquals(POST_COUNT, table.size());
+
+        for (int i = 1; i <= POST_COUNT; i++) {
+            Post post = table.findOnly(true, new IndexConstraint<>("id", 7L * i), p -> true);
+            Assert.assertNotNull(post);
+            Assert.assertEquals("Post " + i, post.getTitle());
+        }
+
+        // Polling continues from the watermark.
+        database.execute("UPDATE Post SET TITLE = 'changed', VERSION = 13 WHERE ID = 7");
+        insert(7L * (POST_COUNT + 1), "new", 14);
+        updater.internalUpdate();
+        Assert.assertEquals(POST_COUNT + 1, table.size());
+        Assert.assertEquals("changed", table.findOnly(true, new IndexConstraint<>("id", 7L), p -> true).getTitle());
+    }
+
+    @Test
+    public void testEmptyTable() {
+        Table<Post> table = newTable();
+        TestDatabase.preload(table);
+        Assert.assertEquals(0, table.size());
+    }
+
+    private static Table<Post> newTable() {
+        Table<Post> table = new Table<>(Post.class, "VERSION", null);
+        table.add(Index.createUnique("id", Long.class, Post::getId));
+        table.add(Index.create("authorId", Long.class, Post::getAuthorId));
+        table.createUpdater(null);
+        return table;
+    }
+
+    private void insert(long id, String title, long version) throws SQLException {
+        database.execute("INSERT INTO Post (ID, AUTHORID, TITLE, VERSION) VALUES (?, ?, ?, ?)",
+                id, id % 10, title, version);
+    }
+}
@@ -0,0 +1,106 @@
+package com.codeforces.inmemo;
+
+import com.codeforces.inmemo.model.Message;
+import org.jacuzzi.core.RowRoll;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PinnedConnectionTest {
+    private TestDatabase database;
+    private final List<Connection> openedConnections = new ArrayList<>();
+    private DataSource countingDataSource;
+
+    @Before
+    public void setUp() throws Exception {
+        Inmemo.setPinnedPollingConnection(Message.class);
+        database = new TestDatabase("pinned-connection").createMessageTable();
+
+        DataSource dataSource = database.getDataSource();
+        countingDataSource = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{DataSource.class}, (proxy, method, args) -> {
+                    try {
+                        Object result = method.invoke(dataSource, args);
+                        if (result instanceof Connection) {
+                            openedConnections.add((Connection) result);
+                        }
+                        return result;
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        Inmemo.resetTableSettingsForTesting(Message.class);
+    }
+
+    @Test
+    public void testQueriesReuseConnectionAndReconnect() throws Exception {
+        insert(1L, "first", 1L);
+
+        try (PinnedConnection connection = new PinnedConnection(countingDataSource, "test")) {
+            for (int i = 0; i < 3; i++) {
+                RowRoll rows = connection.findRowRoll("SELECT * FROM Message WHERE VERSION >= ?", 1L);
+                Assert.assertEquals(1, rows.size());
+            }
+            Assert.assertEquals(1, openedConnections.size());
+
+            // The connection is lost.
+            openedConnections.get(0).close();
+            insert(2L, "second", 2L);
+            Assert.assertEquals(2, connection.findRowRoll("SELECT * FROM Message WHERE VERSION >= ?", 1L).size());
+            Assert.assertEquals(2, openedConnections.size());
+        }
+        Assert.assertTrue(openedConnections.get(1).isClosed());
+    }
+
+    @Test
+    public void testClosedConnectionIsNotReopened() throws Exception {
+        insert(1L, "first", 1L);
+
+        PinnedConnection connection = new PinnedConnection(countingDataSource, "test");
+        Assert.assertEquals(1, connection.findRowRoll("SELECT * FROM Message").size());
+        connection.close();
+
+        try {
+            connection.findRowRoll("SELECT * FROM Message");
+            Assert.fail("Closed connection must not be reopened.");
+        } catch (IllegalStateException expected) {
+            // Expected.
+        }
+        Assert.assertEquals(1, openedConnections.size());
+        Assert.assertTrue(openedConnections.get(0).isClosed());
+    }
+
+    @Test
+    public void testUpdaterPollsOnPinnedConnection() throws Exception {
+        insert(1L, "first", 1L);
+        TableUpdater.setDataSource(countingDataSource);
+
+        Table<Message> table = TestDatabase.newMessageTable(null);
+        TableUpdater<Message> updater = TestDatabase.preload(table);
+
+        int connectionCount = openedConnections.size();
+        for (int i = 2; i <= 6; i++) {
+            insert(i, "message " + i, i);
+            updater.internalUpdate();
+            Assert.assertEquals(i, table.size());
+        }
+        Assert.assertEquals(connectionCount + 1, openedConnections.size());
+    }
+
+    private void insert(long id, String text, long version) throws SQLException {
+        database.insertMessage(id, 10L, text, version);
+    }
+}
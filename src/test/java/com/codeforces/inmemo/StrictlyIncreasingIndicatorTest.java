@@ -0,0 +1,57 @@
+package com.codeforces.inmemo;
+
+import com.codeforces.inmemo.model.Message;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StrictlyIncreasingIndicatorTest {
+    private TestDatabase database;
+
+    @Before
+    public void setUp() throws Exception {
+        Inmemo.setStrictlyIncreasingIndicator(Message.class);
+        database = new TestDatabase("strictly-increasing").use().createMessageTable();
+    }
+
+    @After
+    public void tearDown() {
+        Inmemo.resetTableSettingsForTesting(Message.class);
+    }
+
+    @Test
+    public void testRowsAfterLastVersionArePolled() throws Exception {
+        insert(1L, "first", 1L);
+        insert(2L, "second", 2L);
+
+        Table<Message> table = TestDatabase.newMessageTable(null);
+        AtomicInteger listenedCount = new AtomicInteger();
+        table.add(new ItemListener<Message>("count", item -> listenedCount.incrementAndGet()));
+
+        TableUpdater<Message> updater = TestDatabase.preload(table);
+        Assert.assertEquals(2, listenedCount.get());
+
+        // The row having the last version is not read again.
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(updater.internalUpdate().updatedIds.isEmpty());
+        }
+        Assert.assertEquals(2, listenedCount.get());
+
+        // All the polled rows are reported, not only the ones with the last version.
+        insert(3L, "third", 3L);
+        database.execute("UPDATE Message SET TEXT = 'changed', VERSION = 4 WHERE ID = 1");
+        Assert.assertEquals(Arrays.asList(3L, 1L), updater.internalUpdate().updatedIds);
+        Assert.assertEquals(4, listenedCount.get());
+        Assert.assertEquals("changed", TestDatabase.findMessage(table, 1L).getText());
+        Assert.assertTrue(updater.internalUpdate().updatedIds.isEmpty());
+    }
+
+    private void insert(long id, String text, long version) throws SQLException {
+        database.insertMessage(id, 10L, text, version);
+    }
+}
@@ -0,0 +1,129 @@
+package com.codeforces.inmemo;
+
+import com.codeforces.inmemo.model.Message;
+import com.codeforces.inmemo.model.SimpleUser;
+import org.jacuzzi.core.Row;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TableBatchUpdateTest {
+    @Test
+    public void testLargeBatchUpdatesAllIndices() {
+        Table<SimpleUser> table = newTable(null);
+        List<Long> listenedIds = new ArrayList<>();
+        table.add(new ItemListener<SimpleUser>("ids", item -> listenedIds.add(item.getId())));
+
+        List<Row> rows = new ArrayList<>();
+        for (long id = 1; id <= 5000; id++) {
+            rows.add(row(id, "user" + id, "user" + id + (id % 2 == 0 ? "@even.com" : "@odd.com")));
+        }
+        // The latter row wins and the former key disappears.
+        rows.add(row(7L, "renamed", "renamed@even.com"));
+
+        table.insertOrUpdate(rows, TableBatchUpdateTest::convert);
+
+        Assert.assertEquals(5000, table.size());
+        Assert.assertEquals(5001, listenedIds.size());
+        Assert.assertEquals(2501, table.findCount(new IndexConstraint<>("domain", "even.com"), user -> true));
+        Assert.assertEquals(2499, table.findCount(new IndexConstraint<>("domain", "odd.com"), user -> true));
+        Assert.assertEquals(0, table.findCount(new IndexConstraint<>("handle", "user7"), user -> true));
+        Assert.assertEquals("renamed",
+                table.findOnly(true, new IndexConstraint<>("id", 7L), user -> true).getHandle());
+    }
+
+    @Test
+    public void testDefaultPreloadUpdatesIndicesInParallel() throws Exception {
+        TestDatabase database = new TestDatabase("batch-preload").use().createMessageTable();
+        for (long id = 1; id <= 3000; id++) {
+            database.insertMessage(id, id % 10, "message" + id, id);
+        }
+
+        Table<Message> table = TestDatabase.newMessageTable(null);
+        table.add(Index.create("authorId", Long.class, Message::getAuthorId));
+        TestDatabase.preload(table);
+
+        Assert.assertEquals(3000, table.size());
+        Assert.assertEquals(300, table.findCount(new IndexConstraint<>("authorId", 3L), message -> true));
+        Assert.assertTrue(table.getParallelBatchCountForTesting() > 0);
+    }
+
+    @Test
+    public void testBatchIsSingleVersion() {
+        Table<SimpleUser> table = newTable(null);
+        table.insertOrUpdate(user(1L, "first", "first@example.com"), null);
+        long version = table.getCommittedVersion();
+
+        try (TableSnapshot<SimpleUser> snapshot = table.snapshot(SimpleUser.class)) {
+            List<Row> rows = new ArrayList<>();
+            rows.add(row(1L, "second", "second@example.com"));
+            rows.add(row(2L, "other", "other@example.com"));
+            rows.add(row(1L, "third", "third@example.com"));
+            table.insertOrUpdate(rows, TableBatchUpdateTest::convert);
+
+            Assert.assertEquals(version + 1, table.getCommittedVersion());
+            Assert.assertEquals("first", snapshot.findOnly(true, new IndexConstraint<>("id", 1L)).getHandle());
+            Assert.assertNull(snapshot.findOnly(true, new IndexConstraint<>("id", 2L)));
+            Assert.assertEquals(0, snapshot.findCount(new IndexConstraint<>("handle", "second")));
+        }
+
+        Assert.assertEquals("third",
+                table.findOnly(true, new IndexConstraint<>("id", 1L), user -> true).getHandle());
+        Assert.assertEquals(0, table.findCount(new IndexConstraint<>("handle", "second"), user -> true));
+    }
+
+    @Test
+    public void testBatchAppliesRowFilter() {
+        Table<SimpleUser> table = newTable(new Inmemo.Filter<SimpleUser>() {
+            @Override
+            public boolean testRow(Row row) {
+                return !"skipped".equals(row.get("handle"));
+            }
+
+            @Override
+            public boolean testItem(SimpleUser item) {
+                return item.getId() != 3L;
+            }
+        });
+
+        List<Row> rows = new ArrayList<>();
+        rows.add(row(1L, "kept", "kept@example.com"));
+        rows.add(row(2L, "skipped", "skipped@example.com"));
+        rows.add(row(3L, "rejected", "rejected@example.com"));
+        table.insertOrUpdate(rows, TableBatchUpdateTest::convert);
+
+        Assert.assertEquals(1, table.size());
+        Assert.assertNotNull(table.findOnly(true, new IndexConstraint<>("id", 1L), user -> true));
+    }
+
+    private static Table<SimpleUser> newTable(Inmemo.Filter<SimpleUser> rowFilter) {
+        Table<SimpleUser> table = new Table<>(SimpleUser.class, "id", rowFilter);
+        table.add(Index.createUnique("id", Long.class, SimpleUser::getId));
+        table.add(Index.create("handle", String.class, SimpleUser::getHandle));
+        table.add(Index.create("domain", String.class,
+                user -> user.getEmail().substring(user.getEmail().indexOf('@') + 1)));
+        return table;
+    }
+
+    private static SimpleUser convert(Row row) {
+        return user((Long) row.get("id"), (String) row.get("handle"), (String) row.get("email"));
+    }
+
+    private static SimpleUser user(long id, String handle, String email) {
+        SimpleUser user = new SimpleUser();
+        user.setId(id);
+        user.setHandle(handle);
+        user.setEmail(email);
+        return user;
+    }
+
+    private static Row row(long id, String handle, String email) {
+        Row row = new Row();
+        row.put("id", id);
+        row.put("handle", handle);
+        row.put("email", email);
+        return row;
+    }
+}
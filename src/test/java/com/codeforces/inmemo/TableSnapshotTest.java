@@ -0,0 +1,120 @@
+package com.codeforces.inmemo;
+
+import com.codeforces.inmemo.model.SimpleUser;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class TableSnapshotTest {
+    @Test
+    public void testSnapshotSeesPinnedVersionAcrossIndices() {
+        Table<SimpleUser> table = newTable();
+        table.insertOrUpdate(user(1L, "alpha", "alpha@example.com"), null);
+        table.insertOrUpdate(user(2L, "beta", "beta@example.com"), null);
+
+        try (TableSnapshot<SimpleUser> snapshot = table.snapshot(SimpleUser.class)) {
+            table.insertOrUpdate(user(1L, "gamma", "gamma@example.com"), null);
+            table.insertOrUpdate(user(3L, "delta", "delta@example.com"), null);
+
+            Assert.assertEquals("alpha", snapshot.findOnly(true, new IndexConstraint<>("id", 1L)).getHandle());
+            Assert.assertEquals(1L, snapshot.findOnly(true, new IndexConstraint<>("handle", "alpha")).getId());
+            Assert.assertNull(snapshot.findOnly(true, new IndexConstraint<>("handle", "gamma")));
+            Assert.assertNull(snapshot.findOnly(true, new IndexConstraint<>("id", 3L)));
+            Assert.assertEquals(1, snapshot.findCount(new IndexConstraint<>("domain", "example.com"),
+                    user -> user.getHandle().startsWith("a")));
+            Assert.assertEquals(2, snapshot.findCount(new IndexConstraint<>("domain", "example.com")));
+
+            Assert.assertEquals(1, table.find(new IndexConstraint<>("handle", "gamma"), user -> true).size());
+            Assert.assertTrue(table.find(new IndexConstraint<>("handle", "alpha"), user -> true).isEmpty());
+            Assert.assertTrue(table.getVersionLogSizeForTesting() > 0);
+        }
+
+        Assert.assertEquals(0, table.getVersionLogSizeForTesting());
+
+        try (TableSnapshot<SimpleUser> snapshot = table.snapshot(SimpleUser.class)) {
+            List<SimpleUser> users = snapshot.find(new IndexConstraint<>("domain", "example.com"));
+            Assert.assertEquals(3, users.size());
+            Assert.assertEquals("gamma", snapshot.findOnly(true, new IndexConstraint<>("id", 1L)).getHandle());
+        }
+    }
+
+    @Test
+    public void testNestedSnapshotsKeepOlderRevisions() {
+        Table<SimpleUser> table = newTable();
+        table.insertOrUpdate(user(1L, "v1", "v1@example.com"), null);
+
+        TableSnapshot<SimpleUser> first = table.snapshot(SimpleUser.class);
+        table.insertOrUpdate(user(1L, "v2", "v2@example.com"), null);
+        TableSnapshot<SimpleUser> second = table.snapshot(SimpleUser.class);
+        table.insertOrUpdate(user(1L, "v3", "v3@example.com"), null);
+
+        Assert.assertEquals("v1", first.findOnly(true, new IndexConstraint<>("id", 1L)).getHandle());
+        Assert.assertEquals("v2", second.findOnly(true, new IndexConstraint<>("id", 1L)).getHandle());
+
+        second.close();
+        Assert.assertEquals("v1", first.findOnly(true, new IndexConstraint<>("handle", "v1")).getHandle());
+        Assert.assertNull(first.findOnly(true, new IndexConstraint<>("handle", "v2")));
+
+        first.close();
+        first.close();
+        Assert.assertEquals(0, table.getVersionLogSizeForTesting());
+
+        try {
+            first.find(new IndexConstraint<>("id", 1L));
+            Assert.fail("Closed snapshot must not be readable.");
+        } catch (InmemoException expected) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testLogIsTrimmedUpToOldestSnapshot() {
+        Table<SimpleUser> table = newTable();
+        table.insertOrUpdate(user(1L, "a1", "a1@example.com"), null);
+        table.insertOrUpdate(user(2L, "b1", "b1@example.com"), null);
+
+        TableSnapshot<SimpleUser> first = table.snapshot(SimpleUser.class);
+        table.insertOrUpdate(user(1L, "a2", "a2@example.com"), null);
+        try (TableSnapshot<SimpleUser> second = table.snapshot(SimpleUser.class)) {
+            table.insertOrUpdate(user(2L, "b2", "b2@example.com"), null);
+            Assert.assertEquals(2, table.getVersionLogSizeForTesting());
+
+            // Only the change after the second snapshot is still needed.
+            first.close();
+            Assert.assertEquals(1, table.getVersionLogSizeForTesting());
+            Assert.assertEquals("b1", second.findOnly(true, new IndexConstraint<>("handle", "b1")).getHandle());
+            Assert.assertEquals(1, second.findCount(new IndexConstraint<>("handle", "a2")));
+        }
+
+        Assert.assertEquals(0, table.getVersionLogSizeForTesting());
+    }
+
+    @Test
+    public void testIndexValueChangeRemovesItemFromPreviousBucket() {
+        Table<SimpleUser> table = newTable();
+        table.insertOrUpdate(user(1L, "before", "before@example.com"), null);
+        table.insertOrUpdate(user(1L, "after", "after@example.com"), null);
+
+        Assert.assertTrue(table.find(new IndexConstraint<>("handle", "before"), user -> true).isEmpty());
+        Assert.assertEquals(1, table.find(new IndexConstraint<>("handle", "after"), user -> true).size());
+        Assert.assertEquals(1, table.size());
+    }
+
+    private static Table<SimpleUser> newTable() {
+        Table<SimpleUser> table = new Table<>(SimpleUser.class, "id", null);
+        table.add(Index.createUnique("id", Long.class, SimpleUser::getId));
+        table.add(Index.create("handle", String.class, SimpleUser::getHandle));
+        table.add(Index.create("domain", String.class,
+                user -> user.getEmail().substring(user.getEmail().indexOf('@') + 1)));
+        return table;
+    }
+
+    private static SimpleUser user(long id, String handle, String email) {
+        SimpleUser user = new SimpleUser();
+        user.setId(id);
+        user.setHandle(handle);
+        user.setEmail(email);
+        return user;
+    }
+}
@@ -0,0 +1,284 @@
+package com.codeforces.inmemo;
+
+import com.codeforces.inmemo.model.SimpleUser;
+import org.jacuzzi.core.Row;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TableUpdaterTest {
+    private TestDatabase database;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new TestDatabase("table-updater").use();
+        database.execute("CREATE TABLE SimpleUser ("
+                + "ID BIGINT, "
+                + "HANDLE VARCHAR(255), "
+                + "EMAIL VARCHAR(255), "
+                + "VERSION BIGINT)");
+    }
+
+    @Test
+    public void testUnchangedBoundaryRowsAreNotReapplied() throws Exception {
+        insert(1L, "a", 1L);
+        insert(2L, "b", 1L);
+        insert(3L, "c", 1L);
+
+        Table<SimpleUser> table = newTable();
+        AtomicInteger listenedCount = new AtomicInteger();
+        table.add(new ItemListener<SimpleUser>("count", item -> listenedCount.incrementAndGet()));
+        TableUpdater<SimpleUser> updater = table.getTableUpdaterForTesting();
+
+        for (int i = 0; i < 5; i++) {
+            updater.internalUpdate();
+        }
+        Assert.assertTrue(table.isPreloaded());
+        Assert.assertEquals(3, listenedCount.get());
+
+        // Changed within the same indicator value, so it is still applied.
+        database.execute("UPDATE SimpleUser SET HANDLE = 'changed' WHERE ID = 2");
+        updater.internalUpdate();
+        Assert.assertEquals(4, listenedCount.get());
+        Assert.assertEquals("changed", table.findOnly(true,
+                new IndexConstraint<>("id", 2L), user -> true).getHandle());
+
+        for (int i = 0; i < 5; i++) {
+            updater.internalUpdate();
+        }
+        Assert.assertEquals(4, listenedCount.get());
+    }
+
+    @Test
+    public void testPollingIntervalAdaptsToChangeRate() throws Exception {
+        System.setProperty(TableUpdater.MIN_RESCAN_MILLIS_PROPERTY, "50");
+        System.setProperty(TableUpdater.MAX_RESCAN_MILLIS_PROPERTY, "800");
+        try {
+            insert(1L, "a", 1L);
+            Table<SimpleUser> table = newTable();
+            TableUpdater<SimpleUser> updater = table.getTableUpdaterForTesting();
+
+            // Preload finds the row.
+            Assert.assertEquals(50, updater.scheduledUpdate());
+
+            long previousDelay = 0;
+            for (int i = 0; i < 6; i++) {
+                long delay = updater.scheduledUpdate();
+                Assert.assertTrue(delay >= previousDelay * 4 / 5 && delay <= 800);
+                previousDelay = delay;
+            }
+            Assert.assertEquals(800, updater.getRescanTimeMillis());
+            Assert.assertTrue(previousDelay >= 640);
+
+            insert(2L, "b", 2L);
+            Assert.assertEquals(50, updater.scheduledUpdate());
+            Assert.assertEquals(50, updater.getRescanTimeMillis());
+        } finally {
+            System.clearProperty(TableUpdater.MIN_RESCAN_MILLIS_PROPERTY);
+            System.clearProperty(TableUpdater.MAX_RESCAN_MILLIS_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testDefaultBackOffIsCappedByLatency() throws Exception {
+        insert(1L, "a", 1L);
+        Table<SimpleUser> table = newTable();
+        TableUpdater<SimpleUser> updater = table.getTableUpdaterForTesting();
+        Assert.assertEquals(100, updater.scheduledUpdate());
+
+        long[] expectedRescans = {200, 400, 800, 1600, 3200, 5000, 5000};
+        for (long expectedRescan : expectedRescans) {
+            long delay = updater.scheduledUpdate();
+            Assert.assertEquals(expectedRescan, updater.getRescanTimeMillis());
+            Assert.assertTrue(delay >= expectedRescan * 4 / 5 && delay <= expectedRescan);
+        }
+
+        // Busy table is polled with the minimal delay at once.
+        insert(2L, "b", 2L);
+        Assert.assertEquals(100, updater.scheduledUpdate());
+        Assert.assertEquals(100, updater.getRescanTimeMillis());
+
+        Inmemo.setUpdateLatency(SimpleUser.class, 1000);
+        try {
+            TableUpdater<SimpleUser> latencyUpdater = newTable().getTableUpdaterForTesting();
+            latencyUpdater.scheduledUpdate();
+            for (int i = 0; i < 6; i++) {
+                latencyUpdater.scheduledUpdate();
+            }
+            Assert.assertEquals(1000, latencyUpdater.getRescanTimeMillis());
+        } finally {
+            Inmemo.resetTableSettingsForTesting(SimpleUser.class);
+        }
+    }
+
+    @Test
+    public void testPreloadReadsTableByKeysetPages() throws Exception {
+        System.setProperty(TableUpdater.PRELOAD_CHUNK_ROWS_PROPERTY, "2");
+        try {
+            long[] versions = {1L, 1L, 1L, 1L, 2L, 2L, 3L};
+            for (int i = 0; i < versions.length; i++) {
+                insert(i + 1, "u" + (i + 1), versions[i]);
+            }
+
+            Table<SimpleUser> table = newTable();
+            AtomicInteger listenedCount = new AtomicInteger();
+            table.add(new ItemListener<SimpleUser>("count", item -> listenedCount.incrementAndGet()));
+            TableUpdater<SimpleUser> updater = table.getTableUpdaterForTesting();
+
+            // Full pages are followed by the next page right away, pages split the rows having the same version.
+            for (int page = 1; page <= 3; page++) {
+                Assert.assertEquals(0, updater.scheduledUpdate());
+                Assert.assertEquals(2 * page, listenedCount.get());
+                Assert.assertFalse(table.isPreloaded());
+            }
+
+            Assert.assertTrue(updater.scheduledUpdate() > 0);
+            Assert.assertEquals(7, listenedCount.get());
+
+            updater.scheduledUpdate();
+            Assert.assertTrue(table.isPreloaded());
+            Assert.assertEquals(7, table.size());
+            Assert.assertEquals(7, listenedCount.get());
+
+            // After preload all the changes are read by a single query.
+            insert(8L, "u8", 4L);
+            insert(9L, "u9", 4L);
+            insert(10L, "u10", 5L);
+            updater.scheduledUpdate();
+            Assert.assertEquals(10, table.size());
+        } finally {
+            System.clearProperty(TableUpdater.PRELOAD_CHUNK_ROWS_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testPreloadAppliesStreamedRowsByBatches() throws Exception {
+        System.setProperty(TableUpdater.STREAM_BATCH_ROWS_PROPERTY, "2");
+        try {
+            for (int i = 1; i <= 5; i++) {
+                insert(i, "u" + i, i);
+            }
+
+            Table<SimpleUser> table = newTable();
+            AtomicInteger listenedCount = new AtomicInteger();
+            table.add(new ItemListener<SimpleUser>("count", item -> listenedCount.incrementAndGet()));
+            TableUpdater<SimpleUser> updater = table.getTableUpdaterForTesting();
+
+            // Full batches are followed by the next batch right away.
+            for (int batch = 1; batch <= 2; batch++) {
+                Assert.assertEquals(0, updater.scheduledUpdate());
+                Assert.assertEquals(2 * batch, listenedCount.get());
+                Assert.assertFalse(table.isPreloaded());
+            }
+
+            Assert.assertTrue(updater.scheduledUpdate() > 0);
+            Assert.assertEquals(5, listenedCount.get());
+            Assert.assertFalse(table.isPreloaded());
+
+            updater.scheduledUpdate();
+            Assert.assertTrue(table.isPreloaded());
+            Assert.assertEquals(5, table.size());
+        } finally {
+            System.clearProperty(TableUpdater.STREAM_BATCH_ROWS_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testFailedPreloadBatchIsReadAgain() throws Exception {
+        System.setProperty(TableUpdater.STREAM_BATCH_ROWS_PROPERTY, "2");
+        try {
+            for (int i = 1; i <= 5; i++) {
+                insert(i, "u" + i, i);
+            }
+
+            Table<SimpleUser> table = newTable();
+            Set<Long> listenedIds = new HashSet<>();
+            AtomicBoolean failed = new AtomicBoolean();
+            table.add(new ItemListener<SimpleUser>("failing", item -> {
+                if (item.getId() == 3 && failed.compareAndSet(false, true)) {
+                    throw new IllegalStateException("Listener has failed.");
+                }
+                listenedIds.add(item.getId());
+            }));
+            TableUpdater<SimpleUser> updater = table.getTableUpdaterForTesting();
+
+            updater.internalUpdate();
+            try {
+                updater.internalUpdate();
+                Assert.fail("Listener failure expected.");
+            } catch (IllegalStateException expected) {
+                // Expected.
+            }
+
+            TestDatabase.preload(table);
+            Assert.assertEquals(new HashSet<>(Arrays.asList(1L, 2L, 3L, 4L, 5L)), listenedIds);
+            Assert.assertEquals(5, table.size());
+        } finally {
+            System.clearProperty(TableUpdater.STREAM_BATCH_ROWS_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testItemsAreUpdatedByIdChunks() throws Exception {
+        System.setProperty(TableUpdater.IDS_QUERY_CHUNK_SIZE_PROPERTY, "2");
+        try {
+            for (int i = 1; i <= 5; i++) {
+                insert(i, "u" + i, 1L);
+            }
+
+            Table<SimpleUser> table = newTable();
+            AtomicInteger listenedCount = new AtomicInteger();
+            table.add(new ItemListener<SimpleUser>("count", item -> listenedCount.incrementAndGet()));
+
+            // Nulls, repeated and missing ids are ignored, all the found rows are applied by a single batch.
+            long version = table.getCommittedVersion();
+            table.insertOrUpdateByIds(new Long[]{5L, null, 1L, 3L, 5L, 42L, 4L});
+            Assert.assertEquals(4, table.size());
+            Assert.assertEquals(4, listenedCount.get());
+            Assert.assertEquals(version + 1, table.getCommittedVersion());
+
+            database.execute("UPDATE SimpleUser SET HANDLE = 'changed' WHERE ID = 3");
+            table.insertOrUpdateByIds(new Long[]{3L});
+            Assert.assertEquals("changed", table.findOnly(true,
+                    new IndexConstraint<>("id", 3L), user -> true).getHandle());
+            Assert.assertNull(table.findOnly(true, new IndexConstraint<>("id", 2L), user -> true));
+        } finally {
+            System.clearProperty(TableUpdater.IDS_QUERY_CHUNK_SIZE_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testRowHashDependsOnContent() {
+        Assert.assertEquals(RowHash.of(row(1L, "a", 1L)), RowHash.of(row(1L, "a", 1L)));
+        Assert.assertNotEquals(RowHash.of(row(1L, "a", 1L)), RowHash.of(row(1L, "b", 1L)));
+        Assert.assertNotEquals(RowHash.of(row(1L, "a", 1L)), RowHash.of(row(1L, "a", 2L)));
+        Assert.assertNotEquals(RowHash.of(row(1L, "a", 1L)), RowHash.of(row(1L, null, 1L)));
+    }
+
+    private Table<SimpleUser> newTable() {
+        Table<SimpleUser> table = new Table<>(SimpleUser.class, "VERSION", null);
+        table.add(Index.createUnique("id", Long.class, SimpleUser::getId));
+        table.createUpdater(null);
+        return table;
+    }
+
+    private void insert(long id, String handle, long version) throws SQLException {
+        database.execute("INSERT INTO SimpleUser (ID, HANDLE, EMAIL, VERSION) VALUES (?, ?, ?, ?)",
+                id, handle, handle + "@example.com", version);
+    }
+
+    private static Row row(long id, String handle, long version) {
+        Row row = new Row();
+        row.put("ID", id);
+        row.put("HANDLE", handle);
+        row.put("VERSION", version);
+        return row;
+    }
+}
@@ -0,0 +1,94 @@
+package com.codeforces.inmemo;
+
+import com.codeforces.inmemo.model.Message;
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.Assert;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * In-memory hsqldb database of a single test, the table updaters read from it.
+ *
+ * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
+ */
+final class TestDatabase {
+    private final JDBCDataSource dataSource;
+
+    /**
+     * @param name Database name prefix, each instance gets its own database.
+     */
+    TestDatabase(String name) {
+        dataSource = new JDBCDataSource();
+        dataSource.setUrl("jdbc:hsqldb:mem:" + name + '-' + System.nanoTime());
+        dataSource.setUser("sa");
+        dataSource.setPassword("");
+    }
+
+    JDBCDataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * Sets this database as the data source of the table updaters.
+     */
+    TestDatabase use() {
+        TableUpdater.setDataSource(dataSource);
+        return this;
+    }
+
+    /**
+     * Creates the table of {@link Message} items.
+     *
+     * @param extraColumns Definitions of the columns which are not mapped to the item properties.
+     */
+    TestDatabase createMessageTable(String... extraColumns) throws SQLException {
+        StringBuilder sql = new StringBuilder("CREATE TABLE Message (ID BIGINT, AUTHORID BIGINT, TEXT VARCHAR(255), ");
+        for (String extraColumn : extraColumns) {
+            sql.append(extraColumn).append(", ");
+        }
+        execute(sql.append("VERSION BIGINT)").toString());
+        return this;
+    }
+
+    void insertMessage(long id, long authorId, String text, long version) throws SQLException {
+        execute("INSERT INTO Message (ID, AUTHORID, TEXT, VERSION) VALUES (?, ?, ?, ?)", id, authorId, text, version);
+    }
+
+    void execute(String sql, Object... args) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < args.length; i++) {
+                statement.setObject(i + 1, args[i]);
+            }
+            statement.execute();
+        }
+    }
+
+    /**
+     * Runs the updater of the table in the calling thread until the table is preloaded.
+     */
+    static <T extends HasId> TableUpdater<T> preload(Table<T> table) {
+        TableUpdater<T> updater = table.getTableUpdaterForTesting();
+        for (int i = 0; i < 10_000 && !table.isPreloaded(); i++) {
+            updater.internalUpdate();
+        }
+        Assert.assertTrue(table.isPreloaded());
+        return updater;
+    }
+
+    /**
+     * @return New table of {@link Message} items with the unique index "id" and the updater (not started).
+     */
+    static Table<Message> newMessageTable(Inmemo.Filter<Message> rowFilter) {
+        Table<Message> table = new Table<>(Message.class, "VERSION", rowFilter);
+        table.add(Index.createUnique("id", Long.class, Message::getId));
+        table.createUpdater(null);
+        return table;
+    }
+
+    static Message findMessage(Table<Message> table, long id) {
+        return table.findOnly(true, new IndexConstraint<>("id", id), message -> true);
+    }
+}
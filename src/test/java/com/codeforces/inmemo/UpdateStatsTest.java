@@ -0,0 +1,119 @@
+package com.codeforces.inmemo;
+
+import com.codeforces.inmemo.model.Event;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+public class UpdateStatsTest {
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private TestDatabase database;
+
+    @Before
+    public void setUp() throws Exception {
+        Inmemo.setDatabaseClock(Event.class, "SELECT CURRENT_TIMESTAMP FROM (VALUES (0))");
+        database = new TestDatabase("update-stats").use();
+        database.execute("CREATE TABLE Event ("
+                + "ID BIGINT, "
+                + "TEXT VARCHAR(255), "
+                + "UPDATETIME TIMESTAMP)");
+    }
+
+    @After
+    public void tearDown() {
+        Inmemo.resetTableSettingsForTesting(Event.class);
+    }
+
+    @Test
+    public void testLagIsMeasuredByDatabaseClock() throws Exception {
+        long now = System.currentTimeMillis();
+        insert(1L, now - 2 * HOUR_MILLIS);
+        insert(2L, now - HOUR_MILLIS);
+
+        Table<Event> table = newTable();
+        TableUpdater<Event> updater = table.getTableUpdaterForTesting();
+
+        UpdateStats initialStats = table.getUpdateStats();
+        Assert.assertEquals(-1, initialStats.getStalenessMillis());
+        Assert.assertEquals(-1, initialStats.getIndicatorLagMillis());
+
+        TestDatabase.preload(table);
+
+        // The preload doesn't run the clock query.
+        Assert.assertEquals(-1, table.getUpdateStats().getDatabaseTimeMillis());
+        updater.internalUpdate();
+
+        UpdateStats stats = table.getUpdateStats();
+        Assert.assertTrue(stats.isPreloaded());
+        Assert.assertFalse(stats.isBacklogged());
+        Assert.assertEquals(now - HOUR_MILLIS, ((Date) stats.getLastIndicatorValue()).getTime());
+        Assert.assertTrue(stats.getStalenessMillis() >= 0);
+        Assert.assertTrue(stats.getLastUpdateTimeMillis() >= now);
+        long lagMillis = stats.getIndicatorLagMillis();
+        Assert.assertTrue(lagMillis >= HOUR_MILLIS - 1000 && lagMillis <= HOUR_MILLIS + 60_000);
+
+        insert(3L, System.currentTimeMillis());
+        updater.internalUpdate();
+        stats = table.getUpdateStats();
+        Assert.assertTrue(stats.getLastUpdateRows() >= 1);
+        Assert.assertTrue(stats.getIndicatorLagMillis() < 60_000);
+    }
+
+    @Test
+    public void testFailedClockQueryDoesNotFailUpdate() throws Exception {
+        Inmemo.resetTableSettingsForTesting(Event.class);
+        Inmemo.setDatabaseClock(Event.class, "SELECT NO_SUCH_COLUMN FROM (VALUES (0))");
+        insert(1L, System.currentTimeMillis());
+
+        Table<Event> table = newTable();
+        TableUpdater<Event> updater = TestDatabase.preload(table);
+
+        insert(2L, System.currentTimeMillis());
+        updater.internalUpdate();
+        Assert.assertEquals(2, table.size());
+
+        UpdateStats stats = table.getUpdateStats();
+        Assert.assertEquals(-1, stats.getDatabaseTimeMillis());
+        Assert.assertEquals(-1, stats.getIndicatorLagMillis());
+    }
+
+    @Test
+    public void testFullPageIsBacklog() throws Exception {
+        System.setProperty(TableUpdater.PRELOAD_CHUNK_ROWS_PROPERTY, "2");
+        try {
+            long now = System.currentTimeMillis();
+            for (int i = 1; i <= 3; i++) {
+                insert(i, now - i * 1000L);
+            }
+
+            Table<Event> table = newTable();
+            table.getTableUpdaterForTesting().internalUpdate();
+
+            UpdateStats stats = table.getUpdateStats();
+            Assert.assertFalse(stats.isPreloaded());
+            Assert.assertTrue(stats.isBacklogged());
+            Assert.assertEquals(2, stats.getLastUpdateRows());
+        } finally {
+            System.clearProperty(TableUpdater.PRELOAD_CHUNK_ROWS_PROPERTY);
+        }
+    }
+
+    private static Table<Event> newTable() {
+        Table<Event> table = new Table<>(Event.class, "UPDATETIME", null);
+        table.add(Index.createUnique("id", Long.class, Event::getId));
+        table.createUpdater(null);
+        return table;
+    }
+
+    private void insert(long id, long updateTimeMillis) throws SQLException {
+        database.execute("INSERT INTO Event (ID, TEXT, UPDATETIME) VALUES (?, ?, ?)",
+                id, "Event " + id, new Timestamp(updateTimeMillis));
+    }
+}
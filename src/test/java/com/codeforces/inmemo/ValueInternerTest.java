@@ -0,0 +1,70 @@
+package com.codeforces.inmemo;
+
+import com.codeforces.inmemo.model.SimpleUser;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+public class ValueInternerTest {
+    @Test
+    public void testEqualStringsShareInstance() {
+        ValueInterner interner = ValueInterner.create(SimpleUser.class, Collections.emptySet());
+
+        Map<String, Boolean> distinctEmails = new IdentityHashMap<>();
+        Map<String, Boolean> distinctHandles = new IdentityHashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            SimpleUser user = new SimpleUser();
+            user.setId(i);
+            user.setHandle(new String("handle" + (i % 10)));
+            user.setEmail(new String("user@example.com"));
+            interner.internProperties(user);
+
+            distinctEmails.put(user.getEmail(), true);
+            distinctHandles.put(user.getHandle(), true);
+        }
+
+        Assert.assertEquals(1, distinctEmails.size());
+        Assert.assertEquals(10, distinctHandles.size());
+    }
+
+    @Test
+    public void testOnlyGivenFieldsAreInterned() {
+        ValueInterner interner = ValueInterner.create(SimpleUser.class, Collections.singleton("email"));
+
+        SimpleUser first = user(new String("a"), new String("a@example.com"));
+        SimpleUser second = user(new String("a"), new String("a@example.com"));
+        interner.internProperties(first);
+        interner.internProperties(second);
+
+        Assert.assertSame(first.getEmail(), second.getEmail());
+        Assert.assertNotSame(first.getHandle(), second.getHandle());
+    }
+
+    @Test
+    public void testDatesOfDifferentClassesAreNotMixed() {
+        ValueInterner interner = ValueInterner.create(SimpleUser.class, Collections.emptySet());
+
+        Date date = new Date(1000L);
+        Timestamp timestamp = new Timestamp(1000L);
+        Assert.assertSame(date, interner.intern(date));
+        Assert.assertSame(timestamp, interner.intern(timestamp));
+        Assert.assertSame(timestamp, interner.intern(new Timestamp(1000L)));
+    }
+
+    @Test(expected = InmemoException.class)
+    public void testUnknownFieldIsRejected() {
+        ValueInterner.create(SimpleUser.class, Collections.singleton("country"));
+    }
+
+    private static SimpleUser user(String handle, String email) {
+        SimpleUser user = new SimpleUser();
+        user.setHandle(handle);
+        user.setEmail(email);
+        return user;
+    }
+}
@@ -0,0 +1,38 @@
+package com.codeforces.inmemo.model;
+
+import com.codeforces.inmemo.HasId;
+import org.jacuzzi.mapping.Id;
+
+import java.util.Date;
+
+public class Event implements HasId {
+    @Id
+    private long id;
+    private String text;
+    private Date updateTime;
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    public Date getUpdateTime() {
+        return updateTime;
+    }
+
+    public void setUpdateTime(Date updateTime) {
+        this.updateTime = updateTime;
+    }
+}
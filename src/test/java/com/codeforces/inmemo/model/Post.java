@@ -0,0 +1,45 @@
+package com.codeforces.inmemo.model;
+
+import com.codeforces.inmemo.HasId;
+import org.jacuzzi.mapping.Id;
+
+public class Post implements HasId {
+    @Id
+    private long id;
+    private long authorId;
+    private String title;
+    private long version;
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getAuthorId() {
+        return authorId;
+    }
+
+    public void setAuthorId(long authorId) {
+        this.authorId = authorId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+}
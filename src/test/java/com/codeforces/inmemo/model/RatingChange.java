@@ -0,0 +1,74 @@
+package com.codeforces.inmemo.model;
+
+import com.codeforces.inmemo.HasId;
+import org.jacuzzi.mapping.Id;
+
+import java.util.Date;
+
+public class RatingChange implements HasId {
+    @Id
+    private long id;
+    private long userId;
+    private int oldRating;
+    private int newRating;
+    private Integer rank;
+    private String handle;
+    private Date ratingUpdateTime;
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(long userId) {
+        this.userId = userId;
+    }
+
+    public int getOldRating() {
+        return oldRating;
+    }
+
+    public void setOldRating(int oldRating) {
+        this.oldRating = oldRating;
+    }
+
+    public int getNewRating() {
+        return newRating;
+    }
+
+    public void setNewRating(int newRating) {
+        this.newRating = newRating;
+    }
+
+    public Integer getRank() {
+        return rank;
+    }
+
+    public void setRank(Integer rank) {
+        this.rank = rank;
+    }
+
+    public String getHandle() {
+        return handle;
+    }
+
+    public void setHandle(String handle) {
+        this.handle = handle;
+    }
+
+    public Date getRatingUpdateTime() {
+        return ratingUpdateTime;
+    }
+
+    public void setRatingUpdateTime(Date ratingUpdateTime) {
+        this.ratingUpdateTime = ratingUpdateTime;
+    }
+}
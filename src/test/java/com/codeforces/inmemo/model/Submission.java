@@ -0,0 +1,92 @@
+package com.codeforces.inmemo.model;
+
+import com.codeforces.inmemo.HasId;
+import org.jacuzzi.mapping.Id;
+
+import java.util.Date;
+
+public class Submission implements HasId {
+    @Id
+    private long id;
+    private int contestId;
+    private String programmingLanguage;
+    private double points;
+    private float relativeTime;
+    private boolean accepted;
+    private char verdict;
+    private Integer testCount;
+    private Date creationTime;
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public int getContestId() {
+        return contestId;
+    }
+
+    public void setContestId(int contestId) {
+        this.contestId = contestId;
+    }
+
+    public String getProgrammingLanguage() {
+        return programmingLanguage;
+    }
+
+    public void setProgrammingLanguage(String programmingLanguage) {
+        this.programmingLanguage = programmingLanguage;
+    }
+
+    public double getPoints() {
+        return points;
+    }
+
+    public void setPoints(double points) {
+        this.points = points;
+    }
+
+    public float getRelativeTime() {
+        return relativeTime;
+    }
+
+    public void setRelativeTime(float relativeTime) {
+        this.relativeTime = relativeTime;
+    }
+
+    public boolean isAccepted() {
+        return accepted;
+    }
+
+    public void setAccepted(boolean accepted) {
+        this.accepted = accepted;
+    }
+
+    public char getVerdict() {
+        return verdict;
+    }
+
+    public void setVerdict(char verdict) {
+        this.verdict = verdict;
+    }
+
+    public Integer getTestCount() {
+        return testCount;
+    }
+
+    public void setTestCount(Integer testCount) {
+        this.testCount = testCount;
+    }
+
+    public Date getCreationTime() {
+        return creationTime;
+    }
+
+    public void setCreationTime(Date creationTime) {
+        this.creationTime = creationTime;
+    }
+}